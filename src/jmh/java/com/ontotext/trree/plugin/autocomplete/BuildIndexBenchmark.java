@@ -0,0 +1,58 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to build the index from scratch over synthetic entity pools, each entity has an IRI and a label.
+ * The size of the plugin data directory after the build (the index and the namespace dictionary) is reported
+ * as the dataDirBytes counter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class BuildIndexBenchmark {
+    @Param({"1000000", "10000000"})
+    public long entities;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private SyntheticRepository repository;
+    private File dataDir;
+    private AutocompletePlugin plugin;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        repository = new SyntheticRepository(entities);
+        dataDir = Files.createTempDirectory("autocomplete-jmh").toFile();
+        plugin = repository.createPlugin(dataDir);
+        plugin.buildParallelism = parallelism;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        SyntheticRepository.shutDown(plugin, dataDir);
+    }
+
+    @Benchmark
+    public void buildIndex(DataDirSize size) throws Exception {
+        // Every invocation rebuilds into the shadow directory and swaps it in
+        repository.buildIndex(plugin);
+        // Takes milliseconds, next to a build of seconds
+        size.dataDirBytes = FileUtils.sizeOfDirectory(dataDir);
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class DataDirSize {
+        public long dataDirBytes;
+    }
+}
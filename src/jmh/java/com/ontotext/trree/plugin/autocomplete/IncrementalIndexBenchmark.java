@@ -0,0 +1,88 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the incremental index updates done on transaction commit, on top of an existing index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class IncrementalIndexBenchmark {
+    private static final int UPDATES_PER_TRANSACTION = 100;
+
+    @Param({"100000"})
+    public long entities;
+
+    /**
+     * Milliseconds between durable commits, 0 commits every transaction.
+     */
+    @Param({"0", "1000"})
+    public int commitInterval;
+
+    private SyntheticRepository repository;
+    private File dataDir;
+    private AutocompletePlugin plugin;
+    private long labelPredicateId;
+    private final TransactionUpdates transactionUpdates = new TransactionUpdates();
+
+    // New entities get ids after the ones in the built index
+    private long nextId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        repository = new SyntheticRepository(entities);
+        dataDir = Files.createTempDirectory("autocomplete-jmh").toFile();
+        plugin = repository.createPlugin(dataDir);
+        plugin.commitInterval = commitInterval;
+        repository.buildIndex(plugin);
+        labelPredicateId = repository.labelPredicateId();
+        nextId = 3 * entities;
+    }
+
+    @TearDown(Level.Iteration)
+    public void commit() throws Exception {
+        plugin.autocompleteIndex.commitAndRefresh();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        SyntheticRepository.shutDown(plugin, dataDir);
+    }
+
+    @Benchmark
+    public void indexIRI() {
+        long id = nextId++;
+        plugin.autocompleteIndex.index(id, repository.iri(id));
+    }
+
+    @Benchmark
+    public void indexLabel() {
+        long id = nextId++;
+        plugin.autocompleteIndex.index(new LabelUpdate(id, labelPredicateId, SyntheticRepository.label(id), false),
+                repository.entities(), repository.statements());
+    }
+
+    /**
+     * A transaction that adds UPDATES_PER_TRANSACTION entities with a label each, indexed in one batch and committed.
+     */
+    @Benchmark
+    @OperationsPerInvocation(UPDATES_PER_TRANSACTION)
+    public void indexTransaction() throws Exception {
+        transactionUpdates.clear();
+        for (int i = 0; i < UPDATES_PER_TRANSACTION; i++) {
+            long id = nextId++;
+            transactionUpdates.addIRI(id, repository.iri(id));
+            transactionUpdates.updateLabel(new LabelUpdate(id, labelPredicateId, SyntheticRepository.label(id), false));
+        }
+        plugin.autocompleteIndex.index(transactionUpdates, repository.entities(), repository.statements());
+        plugin.autocompleteIndex.commitAndRefresh();
+    }
+}
@@ -0,0 +1,113 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of AutocompleteIndex.findEntities over an index of synthetic IRIs and labels.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LookupBenchmark {
+    private static final int RESULTS_COUNT = 100;
+
+    // Typed one letter at a time, starting with two letters
+    private static final String TYPED_QUERY = "riverMountain";
+    private static final int TYPED_KEYSTROKES = 12;
+
+    @Param({"1000000"})
+    public long entities;
+
+    @Param({"reg", "bulgariaRiv", "river mountain"})
+    public String query;
+
+    @Param({"lucene", "fst", "trie"})
+    public String backend;
+
+    private SyntheticRepository repository;
+    private File dataDir;
+    private AutocompletePlugin plugin;
+    private String namespace;
+    private int sessionCounter;
+    private List<AutocompleteQuery> typedQueries;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        repository = new SyntheticRepository(entities);
+        dataDir = Files.createTempDirectory("autocomplete-jmh").toFile();
+        plugin = repository.createPlugin(dataDir, backend);
+        repository.buildIndex(plugin);
+        namespace = SyntheticRepository.namespace(7);
+        typedQueries = new ArrayList<>();
+        for (int i = 2; i <= TYPED_QUERY.length(); i++) {
+            typedQueries.add(AutocompleteQuery.parse(TYPED_QUERY.substring(0, i) + ";limit=10"));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        SyntheticRepository.shutDown(plugin, dataDir);
+    }
+
+    @Benchmark
+    public Collection<?> withoutNamespace() {
+        return plugin.autocompleteIndex.findEntities(null, query, repository.entities(), 0, RESULTS_COUNT, null, true);
+    }
+
+    @Benchmark
+    public Collection<?> withNamespace() {
+        return plugin.autocompleteIndex.findEntities(namespace, query, repository.entities(), 0, RESULTS_COUNT, null, true);
+    }
+
+    @Benchmark
+    public Collection<?> withoutHighlight() {
+        return plugin.autocompleteIndex.findEntities(null, query, repository.entities(), 0, RESULTS_COUNT, null, false);
+    }
+
+    /**
+     * An all uppercase query is also looked up with its last letter split off, e.g. "UNESCO" as "UNESC O".
+     */
+    @Benchmark
+    public Collection<?> allUppercase() {
+        return plugin.autocompleteIndex.findEntities(null, "UNESCO", repository.entities(), 0, RESULTS_COUNT, null, true);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TYPED_KEYSTROKES)
+    public void typing(Blackhole blackhole) {
+        for (int i = 2; i <= TYPED_QUERY.length(); i++) {
+            blackhole.consume(plugin.autocompleteIndex.findEntities(null, TYPED_QUERY.substring(0, i),
+                    repository.entities(), 0, 10, null, true));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TYPED_KEYSTROKES)
+    public void typingInSession(Blackhole blackhole) {
+        String session = "session" + sessionCounter++;
+        for (int i = 2; i <= TYPED_QUERY.length(); i++) {
+            blackhole.consume(plugin.autocompleteIndex.findEntities(null, TYPED_QUERY.substring(0, i),
+                    repository.entities(), 0, 10, session, true));
+        }
+    }
+
+    /**
+     * The same queries as typing, in one batch as the batch query predicate runs them.
+     */
+    @Benchmark
+    @OperationsPerInvocation(TYPED_KEYSTROKES)
+    public Object typedQueriesInBatch() {
+        return plugin.autocompleteIndex.findEntities(typedQueries, repository.entities());
+    }
+}
@@ -0,0 +1,287 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import com.ontotext.trree.sdk.*;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A stand-in for the GraphDB entity pool and statements used by the benchmarks so they run without a server.
+ * <p>
+ * The values are generated from their ids instead of being stored, which keeps pools of millions of entities cheap:
+ * ids [1, size] are IRIs in one of a few namespaces with camel case local names (some starting with an acronym),
+ * ids [size + 1, 2 * size] are their English rdfs:label literals. Entities registered with put() get ids after that.
+ */
+class SyntheticRepository {
+    private static final ValueFactory VF = SimpleValueFactory.getInstance();
+
+    static final int NAMESPACES = 16;
+
+    private static final String[] WORDS = {"alpha", "bulgaria", "city", "river", "mountain", "region", "person",
+            "organisation", "event", "species", "album", "film", "station", "school", "company", "language"};
+
+    private static final String[] ACRONYMS = {"USA", "UK", "NATO", "UNESCO"};
+
+    private final long size;
+    private final long labelPredicateId;
+    private final Map<Value, Long> registeredIds = new HashMap<>();
+    private final List<Value> registeredValues = new ArrayList<>();
+
+    private final Entities entities;
+    private final Statements statements;
+    private final ThreadsafePluginConnecton connection;
+
+    SyntheticRepository(long size) {
+        this.size = size;
+        this.labelPredicateId = put(RDFS.LABEL);
+        this.entities = proxy(Entities.class, this::invokeEntities);
+        this.statements = proxy(Statements.class, this::invokeStatements);
+        this.connection = proxy(ThreadsafePluginConnecton.class, this::invokeConnection);
+    }
+
+    static String namespace(long id) {
+        return "http://example.com/ns" + (id % NAMESPACES) + "/";
+    }
+
+    static String localName(long id) {
+        String first = WORDS[(int) (id % WORDS.length)];
+        String second = capitalize(WORDS[(int) ((id / WORDS.length) % WORDS.length)]);
+        if (id % 10 == 0) {
+            return ACRONYMS[(int) ((id / 10) % ACRONYMS.length)] + capitalize(first) + second + id;
+        }
+        return first + second + id;
+    }
+
+    static String label(long id) {
+        return WORDS[(int) (id % WORDS.length)] + " " + WORDS[(int) ((id / WORDS.length) % WORDS.length)] + " " + id;
+    }
+
+    private static String capitalize(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+
+    long size() {
+        return size;
+    }
+
+    IRI iri(long id) {
+        return VF.createIRI(namespace(id), localName(id));
+    }
+
+    Entities entities() {
+        return entities;
+    }
+
+    Statements statements() {
+        return statements;
+    }
+
+    PluginConnection connection() {
+        return connection;
+    }
+
+    long labelPredicateId() {
+        return labelPredicateId;
+    }
+
+    /**
+     * Creates an initialized and enabled plugin that indexes IRIs and rdfs:label in the given data directory.
+     */
+    AutocompletePlugin createPlugin(File dataDir) throws IOException {
+        return createPlugin(dataDir, AutocompletePluginUtils.LUCENE_BACKEND);
+    }
+
+    /**
+     * Creates an initialized and enabled plugin that indexes IRIs and rdfs:label and uses the given lookup backend.
+     */
+    AutocompletePlugin createPlugin(File dataDir, String backend) throws IOException {
+        Files.createDirectories(dataDir.toPath());
+        Properties config = new Properties();
+        AutocompletePluginUtils.setPluginEnabledInProperties(config, true);
+        config.setProperty(AutocompletePluginUtils.AUTOCOMPLETE_CONFIGURED_LABELS_PROPERTY, RDFS.LABEL.stringValue() + "@");
+        config.setProperty(AutocompletePluginUtils.AUTOCOMPLETE_ACTUAL_LABELS_PROPERTY, RDFS.LABEL.stringValue() + "@");
+        // Repeated lookups must hit the index, not the result cache
+        AutocompletePluginUtils.setResultCacheSizeInProperties(config, 0);
+        AutocompletePluginUtils.setBackendInProperties(config, backend);
+        AutocompletePluginUtils.updatePluginConfiguration(dataDir, config);
+
+        AutocompletePlugin plugin = new AutocompletePlugin();
+        plugin.setDataDir(dataDir);
+        // No RDF Rank provider, the weights are computed from the local names
+        plugin.setLocator(proxy(PluginLocator.class, (method, args) -> null));
+        plugin.initialize(InitReason.DEFAULT, connection);
+        return plugin;
+    }
+
+    /**
+     * Builds the index of the given plugin and waits for the build to finish.
+     */
+    void buildIndex(AutocompletePlugin plugin) throws InterruptedException {
+        AutocompleteIndex index = plugin.autocompleteIndex;
+        index.buildIndex(connection);
+        while (index.status() == IndexStatus.BUILDING) {
+            Thread.sleep(10);
+        }
+        if (index.status() == IndexStatus.ERROR) {
+            throw new IllegalStateException("Could not build index: " + index.error());
+        }
+        // The FST is built in the background once the index is swapped in
+        if (AutocompletePluginUtils.FST_BACKEND.equals(plugin.backend)) {
+            while (!index.hasCurrentFst()) {
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    static void shutDown(AutocompletePlugin plugin, File dataDir) throws IOException {
+        if (plugin != null && plugin.autocompleteIndex != null) {
+            plugin.autocompleteIndex.shutDown();
+        }
+        FileUtils.deleteDirectory(dataDir);
+    }
+
+    private synchronized long put(Value value) {
+        Long id = registeredIds.get(value);
+        if (id == null) {
+            registeredValues.add(value);
+            id = 2 * size + registeredValues.size();
+            registeredIds.put(value, id);
+        }
+        return id;
+    }
+
+    private synchronized long resolve(Value value) {
+        Long id = registeredIds.get(value);
+        return id == null ? 0 : id;
+    }
+
+    private Value get(long id) {
+        if (id >= 1 && id <= size) {
+            return iri(id);
+        } else if (id > size && id <= 2 * size) {
+            return VF.createLiteral(label(id - size), "en");
+        } else if (id > 2 * size) {
+            synchronized (this) {
+                int index = (int) (id - 2 * size - 1);
+                return index < registeredValues.size() ? registeredValues.get(index) : null;
+            }
+        }
+        return null;
+    }
+
+    private Object invokeEntities(Method method, Object[] args) {
+        switch (method.getName()) {
+            case "get":
+                return get((long) args[0]);
+            case "size":
+                return 2 * size + registeredValues.size();
+            case "getType": {
+                Value value = get((long) args[0]);
+                return value instanceof IRI ? Entities.Type.URI : value instanceof Literal ? Entities.Type.LITERAL : null;
+            }
+            case "getLanguage": {
+                Value value = get((long) args[0]);
+                return value instanceof Literal ? ((Literal) value).getLanguage().orElse(null) : null;
+            }
+            case "put":
+                return put((Value) args[0]);
+            case "resolve":
+                return resolve((Value) args[0]);
+            default:
+                throw new UnsupportedOperationException("Entities." + method.getName());
+        }
+    }
+
+    private Object invokeStatements(Method method, Object[] args) {
+        if (!"get".equals(method.getName())) {
+            throw new UnsupportedOperationException("Statements." + method.getName());
+        }
+        long subject = (long) args[0];
+        long predicate = (long) args[1];
+        if (predicate != labelPredicateId || subject < 0 || subject > size) {
+            return StatementIterator.EMPTY;
+        }
+        return new LabelStatementIterator(subject == 0 ? 1 : subject, subject == 0 ? size : subject);
+    }
+
+    private Object invokeConnection(Method method, Object[] args) {
+        switch (method.getName()) {
+            case "getEntities":
+                return entities;
+            case "getStatements":
+                return statements;
+            case "getThreadsafeConnection":
+                return connection;
+            case "close":
+                return null;
+            default:
+                throw new UnsupportedOperationException("PluginConnection." + method.getName());
+        }
+    }
+
+    /**
+     * Iterates the rdfs:label statements of the subjects in a range, generating them on the fly.
+     */
+    private class LabelStatementIterator extends StatementIterator {
+        private final long lastSubject;
+        private long nextSubject;
+
+        LabelStatementIterator(long firstSubject, long lastSubject) {
+            this.nextSubject = firstSubject;
+            this.lastSubject = lastSubject;
+        }
+
+        @Override
+        public boolean next() {
+            if (nextSubject > lastSubject) {
+                return false;
+            }
+            subject = nextSubject++;
+            predicate = labelPredicateId;
+            object = size + subject;
+            context = 0;
+            return true;
+        }
+
+        @Override
+        public void close() {
+            nextSubject = lastSubject + 1;
+        }
+    }
+
+    private interface Handler {
+        Object invoke(Method method, Object[] args);
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        InvocationHandler invocationHandler = (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Synthetic" + type.getSimpleName();
+                default:
+                    return handler.invoke(method, args);
+            }
+        };
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, invocationHandler));
+    }
+}
@@ -0,0 +1,118 @@
+package com.ontotext.trree.plugin.autocomplete.lucene;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of splitting typical IRI local names into tokens with LocalNameTokenizer.
+ * <p>
+ * reusedTokenizer feeds the values through a reused reader like the analyzer does, so it runs without allocations
+ * once warmed up. Its {@link AllocationCheck} fails the iteration if it allocated more than a byte per token, run
+ * it with -prof gc to see the rate as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenizerBenchmark {
+    @Param({"Bulgaria", "USRegion", "mountainPassStation_1942", "Sofia_(city)", "hasPartOfSpeechTag", "ISO-3166-2:BG"})
+    public String localName;
+
+    private LocalNameTokenizer tokenizer;
+    private ReusableStringReader reader;
+
+    @Setup
+    public void setUp() {
+        tokenizer = new LocalNameTokenizer();
+        reader = new ReusableStringReader();
+    }
+
+    @Benchmark
+    public void incrementToken(Blackhole blackhole) throws IOException {
+        tokenizer.setReader(new StringReader(localName));
+        tokenizer.reset();
+        while (tokenizer.incrementToken()) {
+            blackhole.consume(tokenizer);
+        }
+        tokenizer.end();
+        tokenizer.close();
+    }
+
+    @Benchmark
+    public void reusedTokenizer(AllocationCheck allocations, Blackhole blackhole) throws IOException {
+        reader.setValue(localName);
+        tokenizer.setReader(reader);
+        tokenizer.reset();
+        while (tokenizer.incrementToken()) {
+            blackhole.consume(tokenizer);
+            allocations.tokens++;
+        }
+        tokenizer.end();
+        tokenizer.close();
+    }
+
+    /**
+     * Counts the bytes allocated by the benchmark thread during an iteration.
+     */
+    @State(Scope.Thread)
+    public static class AllocationCheck {
+        private static final com.sun.management.ThreadMXBean THREADS =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        long tokens;
+        private long allocatedBefore;
+
+        @Setup(Level.Iteration)
+        public void start() {
+            tokens = 0;
+            allocatedBefore = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+        @TearDown(Level.Iteration)
+        public void check() {
+            long allocated = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedBefore;
+            // The bytes allocated by the two calls above are negligible over millions of tokens
+            if (tokens > 0 && allocated > tokens) {
+                throw new IllegalStateException("Allocated " + allocated + " bytes for " + tokens + " tokens");
+            }
+        }
+    }
+
+    /**
+     * A reader that can be pointed at another string, like the one Lucene reuses for string fields.
+     */
+    static final class ReusableStringReader extends Reader {
+        private String value = "";
+        private int pos;
+
+        void setValue(String value) {
+            this.value = value;
+            this.pos = 0;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (pos == value.length()) {
+                return -1;
+            }
+            int count = Math.min(len, value.length() - pos);
+            value.getChars(pos, pos + count, cbuf, off);
+            pos += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+            value = "";
+            pos = 0;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A query analyzed the way the backend lookups do it: all tokens but the last one must match exactly, the last one
+ * matches as a prefix unless the query ends with characters discarded by the analyzer (e.g. a space).
+ */
+class AnalyzedQuery {
+    final Set<String> exactTokens = new HashSet<>();
+    String prefixToken;
+
+    /**
+     * Checks whether every suggestion that matches this query also matches the given previous query, i.e. the
+     * matches of this query can be found among the (complete) matches of the previous one.
+     */
+    boolean narrows(AnalyzedQuery previous) {
+        if (!exactTokens.containsAll(previous.exactTokens)) {
+            return false;
+        }
+        if (previous.prefixToken == null) {
+            return true;
+        }
+        if (prefixToken != null && prefixToken.startsWith(previous.prefixToken)) {
+            return true;
+        }
+        for (String token : exactTokens) {
+            if (token.startsWith(previous.prefixToken)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean matches(String token) {
+        return exactTokens.contains(token) || (prefixToken != null && token.startsWith(prefixToken));
+    }
+}
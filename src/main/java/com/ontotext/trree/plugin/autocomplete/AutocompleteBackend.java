@@ -0,0 +1,176 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.util.BytesRef;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The engine that stores the suggestions of the autocomplete index and looks them up. The backend is chosen with
+ * {@link AutocompletePluginUtils#AUTOCOMPLETE_BACKEND_PROPERTY}, the default one is {@link AutocompleteSuggester}
+ * and the others are {@link FstBackend} and {@link TrieBackend}.
+ * <p>
+ * Every suggestion has a unique key (see {@link AutocompleteIndex#getDocumentKey}), a text that is matched by
+ * the lookups, a weight, a payload with the entity id and a set of contexts (the namespace of an IRI) that
+ * the lookups can be restricted to. Changes are seen by lookups only after {@link #refresh()} and survive
+ * a restart only after {@link #commit()}.
+ * <p>
+ * Lookups, changes, commits and refreshes may be called concurrently. {@link #close()} is called when none of
+ * them is in progress anymore. Every backend must pass the tests in AutocompleteBackendConformanceTest.
+ */
+interface AutocompleteBackend extends LookupView, Closeable {
+    /**
+     * Replaces all suggestions with the ones of the iterator and commits them. The keys of an
+     * {@link AutocompleteInputIterator} are kept, otherwise the text of a suggestion is its key.
+     */
+    void build(InputIterator iterator) throws IOException;
+
+    /**
+     * Adds a suggestion identified by the given unique key.
+     */
+    void add(BytesRef key, BytesRef text, @Nullable Set<BytesRef> contexts, long weight, BytesRef payload) throws IOException;
+
+    /**
+     * Adds a suggestion identified by the given unique key, replacing any previous suggestion with the same key.
+     */
+    void update(BytesRef key, BytesRef text, @Nullable Set<BytesRef> contexts, long weight, BytesRef payload) throws IOException;
+
+    /**
+     * Adds the given suggestions in one batch, removing the suggestions with the given keys first.
+     */
+    void addAll(Collection<BytesRef> replacedKeys, List<Suggestion> suggestions) throws IOException;
+
+    /**
+     * Deletes the suggestion identified by the given unique key.
+     */
+    void delete(BytesRef key) throws IOException;
+
+    /**
+     * Deletes all suggestions whose unique key starts with the given prefix.
+     */
+    void deleteByKeyPrefix(BytesRef keyPrefix) throws IOException;
+
+    /**
+     * Adds all suggestions visible to lookups in the source backend, which is created like this one, with their
+     * weights computed again by the reweighter. Returns false if the backend can't do that faster than adding
+     * the suggestions one by one, nothing is added then.
+     */
+    default boolean addReweighted(AutocompleteBackend source, Reweighter reweighter) throws IOException {
+        return false;
+    }
+
+    /**
+     * Makes the changes durable.
+     */
+    void commit() throws IOException;
+
+    /**
+     * Makes the changes visible to lookups.
+     */
+    void refresh() throws IOException;
+
+    /**
+     * Discards the changes since the last commit, the lookups see the committed suggestions after that.
+     */
+    void rollback() throws IOException;
+
+    /**
+     * Reclaims the space taken by deleted suggestions if there are too many of them, called after commits.
+     */
+    default void compactIfNeeded() throws IOException {
+    }
+
+    @Override
+    long getCount() throws IOException;
+
+    /**
+     * Returns the suggestions that match all tokens of the query, the last one as a prefix (see
+     * {@link #analyzeQuery}). The suggestions are restricted to the given contexts unless they are null or empty.
+     * <p>
+     * The count heaviest matches are returned, each one scored by its weight lowered by 10% for every token before
+     * the first matching one, and ordered by that score and then by text as in {@link AutocompleteIndex#LOOKUP_RESULT_ORDER}.
+     * The key of a result is the text of the suggestion, the highlight key is the text with the matching parts
+     * highlighted.
+     */
+    List<Lookup.LookupResult> lookup(CharSequence query, @Nullable Set<BytesRef> contexts, int count) throws IOException;
+
+    /**
+     * Same as {@link #lookup(CharSequence, Set, int)}, but when highlight is false the backend may leave the
+     * highlight keys of the results null and save the work of computing them.
+     */
+    @Override
+    default List<Lookup.LookupResult> lookup(CharSequence query, @Nullable Set<BytesRef> contexts, int count,
+                                             boolean highlight) throws IOException {
+        return lookup(query, contexts, count);
+    }
+
+    /**
+     * Returns the suggestions visible to lookups now as a view that later changes and refreshes don't affect, so that
+     * the lookups of a batch query all see the same suggestions. The view holds them until it's closed.
+     */
+    PinnedView pin() throws IOException;
+
+    /**
+     * Splits the query into the tokens that the lookups match.
+     */
+    AnalyzedQuery analyzeQuery(String query) throws IOException;
+
+    /**
+     * Matches a suggestion returned by an earlier lookup against another query without looking it up again.
+     * Returns the suggestion highlighted and scored as lookup() would for that query, or null if it doesn't match.
+     *
+     * @param weight the weight the suggestion was added with
+     */
+    @Nullable
+    Lookup.LookupResult rematch(Lookup.LookupResult suggestion, long weight, AnalyzedQuery query) throws IOException;
+
+    /**
+     * Returns an iterator over all suggestions visible to lookups, regardless of their contexts.
+     */
+    Suggestions suggestions() throws IOException;
+
+    /**
+     * An iterator over the suggestions of a backend with their keys and contexts, it must be closed.
+     * The key is null for suggestions indexed before keys could be read back from the index.
+     */
+    interface Suggestions extends AutocompleteInputIterator, Closeable {
+    }
+
+    /**
+     * The suggestions pinned by {@link #pin()}, the view must be closed.
+     */
+    interface PinnedView extends LookupView, Closeable {
+    }
+
+    /**
+     * Computes the new weight of a suggestion, see {@link #addReweighted}.
+     */
+    interface Reweighter {
+        long weight(BytesRef text, BytesRef payload, long weight);
+    }
+
+    /**
+     * A suggestion added in a batch, see {@link #addAll}.
+     */
+    final class Suggestion {
+        final BytesRef key;
+        final BytesRef text;
+        final Set<BytesRef> contexts;
+        final long weight;
+        final BytesRef payload;
+
+        Suggestion(BytesRef key, BytesRef text, @Nullable Set<BytesRef> contexts, long weight, BytesRef payload) {
+            this.key = key;
+            this.text = text;
+            this.contexts = contexts;
+            this.weight = weight;
+            this.payload = payload;
+        }
+    }
+}
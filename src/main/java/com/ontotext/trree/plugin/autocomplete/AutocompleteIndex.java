@@ -1,15 +1,18 @@
 package com.ontotext.trree.plugin.autocomplete;
 
-import com.google.common.primitives.Longs;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.ontotext.trree.plugin.autocomplete.lucene.LocalNameAnalyzer;
 import com.ontotext.trree.sdk.*;
+import gnu.trove.TLongHashSet;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.lucene.search.suggest.InputIterator;
 import org.apache.lucene.search.suggest.Lookup;
 import org.apache.lucene.search.suggest.analyzing.AnalyzingInfixSuggester;
 import org.apache.lucene.search.suggest.analyzing.BlendedInfixSuggester;
 import org.apache.lucene.store.AlreadyClosedException;
-import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.BytesRefBuilder;
 import org.eclipse.rdf4j.model.IRI;
@@ -20,12 +23,23 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nullable;
 import java.io.IOException;
 import java.nio.channels.ClosedByInterruptException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
@@ -39,9 +53,63 @@ class AutocompleteIndex {
     // A sequence of all uppercase letters, at least 3
     private static final Pattern ALL_UPPER_PATTERN = Pattern.compile("\\p{Lu}\\p{Lu}\\p{Lu}+");
 
+    private static final String INDEX_DIR_NAME = "index";
+
+    // The index is rebuilt into a sibling directory with this name (or into INDEX_DIR_NAME if this is the current one)
+    private static final String SHADOW_INDEX_DIR_NAME = "index.shadow";
+
+    // Contains the name of the directory with the current index, rewritten atomically when a rebuilt index is swapped in
+    private static final String CURRENT_INDEX_FILE_NAME = "index.current";
+
+    // Marks an index directory whose IRIs have the ids of their namespaces as contexts, see NamespaceDictionary.
+    // It contains the format of the contexts, see below.
+    private static final String NAMESPACE_IDS_MARKER_SUFFIX = ".namespace-ids";
+
+    // The formats of the namespace contexts. Indexes built by older versions have the namespaces themselves
+    // (there is no marker) or only the ids of the namespaces (the marker is empty) until they are rebuilt.
+    private static final int NAMESPACE_STRING_CONTEXTS = 0;
+    private static final int NAMESPACE_ID_CONTEXTS = 1;
+    // The id of the namespace and the subtree ids of the namespace and of all namespaces above it
+    private static final int NAMESPACE_SUBTREE_CONTEXTS = 2;
+
+    // A namespace ending with this in a query stands for all namespaces that start with the rest of it
+    private static final String NAMESPACE_PREFIX_WILDCARD = "*";
+
+    // Lucene's limit on the clauses of a boolean query, the contexts of a lookup are OR-ed in one
+    private static final int MAX_NAMESPACE_CONTEXTS = 1024;
+
+    // Ids of entities updated in committed transactions that are not yet durably committed to the index
+    static final String UNCOMMITTED_LOG_FILE_NAME = "index.uncommitted";
+
+    // Typeahead sessions are forgotten after this many seconds without a query
+    private static final int REFINEMENT_SESSION_TTL = 30;
+
+    private static final int MAX_REFINEMENT_SESSIONS = 10_000;
+
+    // A session lookup fetches this many times more suggestions than requested, if that is all the matches
+    // they become the candidates for the following queries of the session
+    private static final int REFINEMENT_CANDIDATES_FACTOR = 10;
+
+    private static final int MAX_REFINEMENT_CANDIDATES = 1000;
+
+    private static final Set<BytesRef> LABEL_CONTEXTS = Collections.singleton(new BytesRef("label"));
+
+    // Order of the blended suggester results: by score, then alphabetically
+    static final Comparator<Lookup.LookupResult> LOOKUP_RESULT_ORDER = Comparator
+            .comparingLong((Lookup.LookupResult result) -> result.value).reversed()
+            .thenComparing(result -> result.key.toString());
+
     private Path indexDir;
     private LocalNameAnalyzer analyzer;
-    private AnalyzingInfixSuggester suggester;
+    private volatile AutocompleteBackend suggester;
+    private NamespaceDictionary namespaces;
+    // The format of the namespace contexts of the current index, a rebuilt index always has the latest one
+    private volatile int namespaceContextsFormat;
+
+    // Lucene takes care of concurrent lookups and updates on its own. The read lock is held while using the
+    // suggester so it isn't closed under our feet, the write lock is held only while the suggester is replaced
+    // or closed (rebuild swap and shutdown).
+    private final ReadWriteLock suggesterLock = new ReentrantReadWriteLock();
     private final AutocompletePlugin autocompletePlugin;
     private final ExecutorService executor = Executors.newSingleThreadExecutor();
     private Future<?> buildIndexTask;
@@ -49,9 +117,45 @@ class AutocompleteIndex {
 
     private RDFRankProvider rdfRankPlugin;
     private boolean loadedRDFPlugin = false;
-    private boolean shouldInterrupt;
+    // The ranks copied from the RDF Rank plugin when the current index was built, null if there is no such copy
+    private volatile RankSnapshot ranks;
+    // The ranks the index that is being built is weighted with, they become the ranks when it's swapped in
+    private volatile RankSnapshot rebuiltRanks;
+    private volatile boolean shouldInterrupt;
+    // What a running reweight is doing, reported along with the BUILDING status
+    private volatile String buildProgress;
     private ThreadsafePluginConnecton threadsafePluginConnecton;
 
+    // Group commit state, guarded by commitLock. Always acquire suggesterLock before commitLock.
+    private final Object commitLock = new Object();
+    private UncommittedEntitiesLog uncommittedLog;
+    private final TLongHashSet transactionEntityIds = new TLongHashSet();
+    private int uncommittedTransactions;
+    private long lastCommitTime = System.currentTimeMillis();
+    private final ScheduledExecutorService commitScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "autocomplete-commit");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ScheduledFuture<?> scheduledCommit;
+
+    // Runs the lookups of batch queries, shared by all of them so the number of lookup threads is bounded
+    private final ThreadPoolExecutor lookupPool = (ThreadPoolExecutor) Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+        Thread thread = new Thread(r, "autocomplete-lookup");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final QueryResultCache resultCache;
+
+    // Session lookups served from the candidates of the previous query of the session
+    private final AtomicLong refinedLookups = new AtomicLong();
+
+    private final Cache<String, RefinementSession> refinementSessions = CacheBuilder.newBuilder()
+            .maximumSize(MAX_REFINEMENT_SESSIONS)
+            .expireAfterAccess(REFINEMENT_SESSION_TTL, TimeUnit.SECONDS)
+            .build();
+
     // TODO: Check why this was needed
     static final Set<String> SPECIAL_ENTITIES = new HashSet<String>() {{
         add("http://www.ontotext.com/check_prp_irp");
@@ -86,21 +190,36 @@ class AutocompleteIndex {
         return shouldInterrupt;
     }
 
-    boolean hasBuiltIndex;
+    volatile boolean hasBuiltIndex;
 
     AutocompleteIndex(AutocompletePlugin plugin) {
         this.autocompletePlugin = plugin;
+        this.resultCache = new QueryResultCache(plugin.resultCacheSize, plugin.resultCacheTtl);
         initLuceneConfig();
     }
 
     private void initLuceneConfig() {
-        indexDir = autocompletePlugin.getDataDir().toPath().resolve("index");
+        Path dataDir = autocompletePlugin.getDataDir().toPath();
+        indexDir = dataDir.resolve(INDEX_DIR_NAME);
         try {
+            Path currentIndexFile = dataDir.resolve(CURRENT_INDEX_FILE_NAME);
+            if (Files.exists(currentIndexFile)) {
+                String currentIndexDirName = new String(Files.readAllBytes(currentIndexFile), StandardCharsets.UTF_8).trim();
+                if (SHADOW_INDEX_DIR_NAME.equals(currentIndexDirName)) {
+                    indexDir = dataDir.resolve(SHADOW_INDEX_DIR_NAME);
+                }
+            }
+
             if (Files.exists(indexDir) && !Files.isDirectory(indexDir)) {
                 // Path exists but isn't a directory. Delete it.
                 Files.delete(indexDir);
             }
 
+            // Leftover from an interrupted rebuild or from an old index that could not be deleted after a swap
+            deleteDirectory(getShadowIndexDir());
+            Files.deleteIfExists(getNamespaceIdsMarker(getShadowIndexDir()));
+            Files.deleteIfExists(FstBackend.getFstFile(getShadowIndexDir()));
+
             analyzer = new LocalNameAnalyzer();
 
             restartLuceneConfig();
@@ -112,6 +231,25 @@ class AutocompleteIndex {
                 }
             }
 
+            namespaces = NamespaceDictionary.open(dataDir.resolve(NamespaceDictionary.FILE_NAME));
+            if (!hasBuiltIndex) {
+                writeNamespaceIdsMarker(indexDir);
+            }
+            namespaceContextsFormat = readNamespaceIdsMarker(indexDir);
+            if (namespaceContextsFormat < NAMESPACE_SUBTREE_CONTEXTS) {
+                LOGGER.warn("The autocomplete index was built by an older version, rebuild it to index the ids of "
+                        + "the namespaces and to filter by namespace prefixes");
+            }
+
+            // Leftover from an interrupted rebuild
+            Files.deleteIfExists(getRebuiltRankSnapshotFile());
+
+            uncommittedLog = new UncommittedEntitiesLog(dataDir.resolve(UNCOMMITTED_LOG_FILE_NAME));
+            if (!hasBuiltIndex) {
+                // Nothing to catch up with, the first build will index everything
+                uncommittedLog.clear();
+            }
+
         } catch (IOException e) {
             throw new PluginException("Could not create index directory: " + indexDir, e);
         } catch (Exception e1) {
@@ -124,19 +262,139 @@ class AutocompleteIndex {
     }
 
     private void restartLuceneConfig() throws IOException {
-        FSDirectory directory = FSDirectory.open(indexDir);
-        suggester = new AutocompleteSuggester(directory, analyzer, analyzer,
+        suggester = createBackend(indexDir);
+    }
+
+    /**
+     * Creates the backend configured for the repository over the index in the given directory.
+     */
+    private AutocompleteBackend createBackend(Path dir) throws IOException {
+        if (AutocompletePluginUtils.TRIE_BACKEND.equals(autocompletePlugin.backend)) {
+            return new TrieBackend(dir, analyzer);
+        }
+        LuceneIndexSettings settings = autocompletePlugin.luceneIndexSettings;
+        AutocompleteSuggester suggester = new AutocompleteSuggester(settings.openDirectory(dir), analyzer, analyzer,
                 AnalyzingInfixSuggester.DEFAULT_MIN_PREFIX_CHARS,
-                BlendedInfixSuggester.BlenderType.POSITION_LINEAR, 1, true);
+                BlendedInfixSuggester.BlenderType.POSITION_LINEAR, 1, true, settings);
+        if (AutocompletePluginUtils.FST_BACKEND.equals(autocompletePlugin.backend)) {
+            return new FstBackend(suggester, analyzer, FstBackend.getFstFile(dir));
+        }
+        return suggester;
     }
 
-    long getWeight(long id, String localName) {
-        RDFRankProvider rdfRankPlugin = getRDFRankProvider();
-        double rank = 0;
-        if (rdfRankPlugin != null) {
-            rank = rdfRankPlugin.getNormalizedRank(id);
+    /**
+     * Returns the sibling of the current index directory that is used for rebuilding the index.
+     */
+    private Path getShadowIndexDir() {
+        String shadowName = indexDir.getFileName().toString().equals(INDEX_DIR_NAME) ? SHADOW_INDEX_DIR_NAME : INDEX_DIR_NAME;
+        return indexDir.resolveSibling(shadowName);
+    }
+
+    private static Path getNamespaceIdsMarker(Path dir) {
+        return dir.resolveSibling(dir.getFileName() + NAMESPACE_IDS_MARKER_SUFFIX);
+    }
+
+    private static void writeNamespaceIdsMarker(Path dir) throws IOException {
+        Files.write(getNamespaceIdsMarker(dir), Integer.toString(NAMESPACE_SUBTREE_CONTEXTS).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static int readNamespaceIdsMarker(Path dir) throws IOException {
+        Path marker = getNamespaceIdsMarker(dir);
+        if (!Files.exists(marker)) {
+            return NAMESPACE_STRING_CONTEXTS;
+        }
+        String format = new String(Files.readAllBytes(marker), StandardCharsets.UTF_8).trim();
+        return format.isEmpty() ? NAMESPACE_ID_CONTEXTS : Integer.parseInt(format);
+    }
+
+    /**
+     * Makes the freshly built index the current one. The old suggester keeps serving lookups until the very
+     * moment the new one replaces it, after which the old suggester is closed and its directory deleted.
+     * Must be called with the write lock held.
+     */
+    private void swapInRebuiltIndex(AutocompleteBackend rebuiltSuggester, Path rebuiltIndexDir) throws IOException {
+        namespaces.sync();
+        rebuiltSuggester.commit();
+        rebuiltSuggester.refresh();
+        writeNamespaceIdsMarker(rebuiltIndexDir);
+
+        // Atomically record which directory holds the current index so a restart picks up the right one
+        Path currentIndexFile = indexDir.resolveSibling(CURRENT_INDEX_FILE_NAME);
+        Path tmpCurrentIndexFile = indexDir.resolveSibling(CURRENT_INDEX_FILE_NAME + ".tmp");
+        Files.write(tmpCurrentIndexFile, rebuiltIndexDir.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmpCurrentIndexFile, currentIndexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // The ranks of the rebuilt index are used for its incremental updates from now on
+        Path rebuiltRanksFile = getRebuiltRankSnapshotFile();
+        if (Files.exists(rebuiltRanksFile)) {
+            Files.move(rebuiltRanksFile, getRankSnapshotFile(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } else {
+            Files.deleteIfExists(getRankSnapshotFile());
+        }
+
+        AutocompleteBackend previousSuggester = suggester;
+        Path previousIndexDir = indexDir;
+        indexDir = rebuiltIndexDir;
+        suggester = rebuiltSuggester;
+        ranks = rebuiltRanks;
+        rebuiltRanks = null;
+        namespaceContextsFormat = NAMESPACE_SUBTREE_CONTEXTS;
+        resultCache.invalidate();
+
+        // The rebuilt index is durable and contains everything that was pending in the previous one
+        synchronized (commitLock) {
+            resetUncommitted();
         }
 
+        if (previousSuggester != null) {
+            try {
+                previousSuggester.close();
+            } catch (IOException e) {
+                LOGGER.warn("Could not close the previous suggester", e);
+            }
+        }
+        try {
+            deleteDirectory(previousIndexDir);
+            Files.deleteIfExists(FstBackend.getFstFile(previousIndexDir));
+        } catch (IOException e) {
+            // It will be deleted on the next initialization
+            LOGGER.warn("Could not delete the previous index directory: " + previousIndexDir, e);
+        }
+
+        // The FST is built only for an index that was just built or reweighted
+        if (rebuiltSuggester instanceof FstBackend) {
+            ((FstBackend) rebuiltSuggester).rebuildFst();
+        }
+        Files.deleteIfExists(getNamespaceIdsMarker(previousIndexDir));
+    }
+
+    private static void deleteDirectory(Path dir) throws IOException {
+        if (Files.exists(dir)) {
+            FileUtils.deleteDirectory(dir.toFile());
+        }
+    }
+
+    /**
+     * Returns the weight of a suggestion in the current index.
+     */
+    long getWeight(long id, String localName) {
+        return getWeight(ranks, id, localName);
+    }
+
+    /**
+     * Returns the weight of a suggestion in the index that is being built.
+     */
+    long getRebuiltWeight(long id, String localName) {
+        return getWeight(rebuiltRanks, id, localName);
+    }
+
+    private long getWeight(AutocompleteBackend target, long id, String localName) {
+        // Only the current index is weighted with the current ranks, the one being built has its own
+        return target == suggester ? getWeight(id, localName) : getRebuiltWeight(id, localName);
+    }
+
+    private long getWeight(@Nullable RankSnapshot snapshot, long id, String localName) {
+        double rank = getRank(snapshot, id);
         if (rank > 0.01) {
             rank = 1 - rank;
             // By raising to the fourth power we get a better spread of otherwise close ranks
@@ -146,25 +404,196 @@ class AutocompleteIndex {
         }
     }
 
+    /**
+     * Computes the weight of an indexed suggestion again for the index that is being built. Both IRIs and labels
+     * are weighted by the entity in the payload and the indexed text, suggestions without an entity keep their weight.
+     */
+    long getRebuiltWeight(BytesRef text, BytesRef payload, long weight) {
+        return EntityPayload.hasEntity(payload) ? getRebuiltWeight(EntityPayload.entityId(payload), text.utf8ToString()) : weight;
+    }
+
+    private double getRank(@Nullable RankSnapshot snapshot, long id) {
+        if (snapshot != null && snapshot.contains(id)) {
+            return snapshot.rank(id);
+        }
+        RDFRankProvider rdfRankPlugin = getRDFRankProvider();
+        return rdfRankPlugin != null ? rdfRankPlugin.getNormalizedRank(id) : 0;
+    }
+
+    /**
+     * Loads the ranks the current index was weighted with, called once when the index is opened.
+     */
+    void loadRankSnapshot(Entities entities) {
+        ranks = RankSnapshot.load(getRankSnapshotFile(), entities.size());
+    }
+
+    /**
+     * Copies the current ranks from the RDF Rank plugin for the index that is being built. The current index keeps
+     * its ranks until the new one is swapped in.
+     */
+    private void createRebuiltRankSnapshot(Entities entities) throws IOException {
+        Path file = getRebuiltRankSnapshotFile();
+        RDFRankProvider rdfRankPlugin = getRDFRankProvider();
+        if (rdfRankPlugin == null) {
+            rebuiltRanks = null;
+            Files.deleteIfExists(file);
+            return;
+        }
+        RankSnapshot snapshot = RankSnapshot.create(entities, rdfRankPlugin);
+        snapshot.store(file);
+        rebuiltRanks = snapshot;
+    }
+
+    private Path getRankSnapshotFile() {
+        return autocompletePlugin.getDataDir().toPath().resolve(RankSnapshot.FILE_NAME);
+    }
+
+    private Path getRebuiltRankSnapshotFile() {
+        return autocompletePlugin.getDataDir().toPath().resolve(RankSnapshot.FILE_NAME + ".rebuilt");
+    }
+
+    /**
+     * Returns the unique key of the document for the given entity, label predicate (0 for the IRI itself) and text.
+     */
+    BytesRef getDocumentKey(long id, long labelPredicateId, String text) {
+        return new BytesRef(id + ":" + labelPredicateId + ":" + text);
+    }
+
+    /**
+     * Same as {@link #getDocumentKey(long, long, String)} for the UTF-8 bytes of the text, but builds the key in
+     * the given scratch instead of allocating it. The returned key is valid until the scratch is used again.
+     */
+    BytesRef getDocumentKey(long id, long labelPredicateId, BytesRef text, BytesRefBuilder scratch) {
+        scratch.clear();
+        appendDecimal(scratch, id);
+        scratch.append((byte) ':');
+        appendDecimal(scratch, labelPredicateId);
+        scratch.append((byte) ':');
+        scratch.append(text);
+        return scratch.get();
+    }
+
+    // Writes the same digits as Long.toString() for a non-negative value
+    private static void appendDecimal(BytesRefBuilder scratch, long value) {
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        int start = scratch.length();
+        scratch.grow(start + digits);
+        byte[] bytes = scratch.bytes();
+        for (int i = start + digits - 1; i >= start; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        scratch.setLength(start + digits);
+    }
+
+    private BytesRef getDocumentKeyPrefix(long id) {
+        return new BytesRef(id + ":");
+    }
+
+    private BytesRef getDocumentKeyPrefix(long id, long labelPredicateId) {
+        return new BytesRef(id + ":" + labelPredicateId + ":");
+    }
+
+    /**
+     * Returns the contexts of an IRI in a rebuilt index: the id of its namespace and the subtree ids of its
+     * namespace and of the namespaces above it. The sets are shared, they must not be modified.
+     */
     Set<BytesRef> getURINamespaceAsContext(IRI currentURI) {
-        return Collections.singleton(new BytesRef(currentURI.getNamespace()));
+        String namespace = currentURI.getNamespace();
+        try {
+            return namespaces.contexts(namespace);
+        } catch (IOException e) {
+            throw new PluginException("Could not add namespace to the dictionary: " + namespace, e);
+        }
     }
 
-    Set<BytesRef> getLabelContexts() {
-        return Collections.singleton(new BytesRef("label"));
+    private Set<BytesRef> getURINamespaceAsContext(AutocompleteBackend target, IRI currentURI) {
+        switch (getNamespaceContextsFormat(target)) {
+            case NAMESPACE_STRING_CONTEXTS:
+                return Collections.singleton(new BytesRef(currentURI.getNamespace()));
+            case NAMESPACE_ID_CONTEXTS:
+                return Collections.singleton(NamespaceDictionary.namespaceContext(getNamespaceId(currentURI.getNamespace())));
+            default:
+                return getURINamespaceAsContext(currentURI);
+        }
     }
 
-    BytesRef getEntityIDAsPayload(long id, boolean isLabel) {
-        BytesRefBuilder bb = new BytesRefBuilder();
-        bb.append(Longs.toByteArray(id), 0, Long.BYTES);
+    private int getNamespaceId(String namespace) {
+        try {
+            return namespaces.id(namespace);
+        } catch (IOException e) {
+            throw new PluginException("Could not add namespace to the dictionary: " + namespace, e);
+        }
+    }
 
-        if (isLabel) {
-            bb.append((byte) 1);
-        } else {
-            bb.append((byte) 0);
+    private int getNamespaceContextsFormat(AutocompleteBackend target) {
+        // Only the current index may be an old one, the one being built never is
+        return target == suggester ? namespaceContextsFormat : NAMESPACE_SUBTREE_CONTEXTS;
+    }
+
+    /**
+     * Returns the contexts that restrict a lookup to a namespace, or to all namespaces that start with a prefix if
+     * the namespace ends with {@link #NAMESPACE_PREFIX_WILDCARD}. No contexts means that nothing can match.
+     */
+    private Set<BytesRef> getNamespaceContexts(AutocompleteBackend target, String namespace) {
+        int format = getNamespaceContextsFormat(target);
+        if (!namespace.endsWith(NAMESPACE_PREFIX_WILDCARD)) {
+            if (format == NAMESPACE_STRING_CONTEXTS) {
+                return Collections.singleton(new BytesRef(namespace));
+            }
+            int id = namespaces.find(namespace);
+            return id != 0 ? Collections.singleton(NamespaceDictionary.namespaceContext(id)) : Collections.emptySet();
+        }
+        if (format == NAMESPACE_STRING_CONTEXTS) {
+            throw new PluginException("The autocomplete index must be rebuilt to filter by namespace prefix: " + namespace);
         }
 
-        return bb.get();
+        String prefix = namespace.substring(0, namespace.length() - NAMESPACE_PREFIX_WILDCARD.length());
+        if (format == NAMESPACE_SUBTREE_CONTEXTS) {
+            int id = namespaces.find(prefix);
+            if (id != 0) {
+                // A whole namespace, one context matches everything below it
+                return Collections.singleton(NamespaceDictionary.subtreeContext(id));
+            }
+        }
+        // Part of a namespace, e.g. "http://example.org/ge", matches the namespaces that start with it. Those below
+        // another one that matches are covered by its subtree context.
+        Set<BytesRef> contexts = new HashSet<>();
+        String covering = null;
+        for (Map.Entry<String, NamespaceDictionary.Namespace> entry : namespaces.withPrefix(prefix).entrySet()) {
+            if (format == NAMESPACE_SUBTREE_CONTEXTS) {
+                if (covering != null && NamespaceDictionary.ancestors(entry.getKey()).contains(covering)) {
+                    continue;
+                }
+                covering = entry.getKey();
+                contexts.add(entry.getValue().subtreeContext);
+            } else {
+                contexts.add(entry.getValue().namespaceContext);
+            }
+            if (contexts.size() > MAX_NAMESPACE_CONTEXTS) {
+                throw new PluginException("Too many namespaces start with " + prefix + ", use a longer prefix");
+            }
+        }
+        return contexts;
+    }
+
+    Set<BytesRef> getLabelContexts() {
+        return LABEL_CONTEXTS;
+    }
+
+    BytesRef getEntityIDAsPayload(long id, boolean isLabel) {
+        return getEntityIDAsPayload(id, isLabel, new BytesRefBuilder());
+    }
+
+    /**
+     * Writes the payload into the given scratch instead of allocating it. The returned payload is valid until the
+     * scratch is used again.
+     */
+    BytesRef getEntityIDAsPayload(long id, boolean isLabel, BytesRefBuilder scratch) {
+        return EntityPayload.write(id, isLabel, scratch);
     }
 
     IndexStatus status() {
@@ -182,6 +611,19 @@ class AutocompleteIndex {
         }
     }
 
+    /**
+     * Returns what the running build is doing, or null if it doesn't report its progress.
+     */
+    @Nullable
+    String progress() {
+        return status() == IndexStatus.BUILDING ? buildProgress : null;
+    }
+
+    void reportProgress(String progress) {
+        LOGGER.info("Refreshing the weights: {}", progress);
+        buildProgress = progress;
+    }
+
     String error() {
         if (error != null) {
             if (error instanceof ClosedByInterruptException || error instanceof AlreadyClosedException) {
@@ -204,169 +646,614 @@ class AutocompleteIndex {
 
 
     synchronized void buildIndex(PluginConnection pluginConnection) {
+        buildIndex(pluginConnection, false);
+    }
+
+    /**
+     * Builds the index in the background. With weightsOnly the suggestions are copied from the current index
+     * with their weights computed again from fresh RDF Ranks, e.g. after the ranks were recomputed, falling back
+     * to a full build if the current index can't be copied.
+     */
+    synchronized void buildIndex(PluginConnection pluginConnection, boolean weightsOnly) {
         if (status() == IndexStatus.BUILDING) {
             LOGGER.info("Index is already building.");
             return;
         }
 
-        // Synced to plugin to keep AutocompleteUpdateListener.entityAdded()
-        // and the full build from race conditioning into each other.
-        synchronized (autocompletePlugin) {
-            shouldInterrupt = false;
-            hasBuiltIndex = false;
-            error = null;
-
-            final AutocompleteIndex that = this;
+        shouldInterrupt = false;
+        error = null;
+        buildProgress = null;
 
-            if (threadsafePluginConnecton != null) {
-                // Close previous collections (should be already closed by the finally in the thread but who knows)
-                threadsafePluginConnecton.close();
-            }
+        final AutocompleteIndex that = this;
 
-            threadsafePluginConnecton = pluginConnection.getThreadsafeConnection();
-            Entities threadsafeEntities = threadsafePluginConnecton.getEntities();
-            Statements threadsafeStatements = threadsafePluginConnecton.getStatements();
+        if (threadsafePluginConnecton != null) {
+            // Close previous collections (should be already closed by the finally in the thread but who knows)
+            threadsafePluginConnecton.close();
+        }
 
-            buildIndexTask = executor.submit(() -> {
-                try {
-                    synchronized (autocompletePlugin) {
-                        autocompletePlugin.updateActualConfig(threadsafeEntities);
+        threadsafePluginConnecton = pluginConnection.getThreadsafeConnection();
+        Entities threadsafeEntities = threadsafePluginConnecton.getEntities();
+        Statements threadsafeStatements = threadsafePluginConnecton.getStatements();
 
-                        LOGGER.info("Start Building Index..");
+        AutocompleteUpdateListener updateListener = autocompletePlugin.getUpdateListener();
+        updateListener.startCapturingWhileBuilding();
+        buildIndexTask = executor.submit(() -> {
+            try {
+                if (weightsOnly) {
+                    reportProgress("copying the RDF Ranks");
+                }
+                // The new index is weighted with fresh ranks, the current one keeps its own until the swap
+                createRebuiltRankSnapshot(threadsafeEntities);
 
-                        List<InputIterator> iterators = new ArrayList<>();
+                // The new index is built next to the current one, which keeps serving lookups in the meantime
+                Path rebuiltIndexDir = getShadowIndexDir();
+                deleteDirectory(rebuiltIndexDir);
+                Files.deleteIfExists(getNamespaceIdsMarker(rebuiltIndexDir));
+                Files.deleteIfExists(FstBackend.getFstFile(rebuiltIndexDir));
+                AutocompleteBackend rebuiltSuggester = createBackend(rebuiltIndexDir);
+                boolean swapped = false;
+                try {
+                    // Start from an empty index, the documents are added with their keys so they can be deleted later
+                    rebuiltSuggester.build(InputIterator.EMPTY);
 
-                        if (autocompletePlugin.actualShouldIndexIRIs) {
-                            iterators.add(new EntitiesIterator(threadsafeEntities, that));
+                    if (!weightsOnly || !hasBuiltIndex || !copyWithNewWeights(rebuiltSuggester)) {
+                        synchronized (autocompletePlugin) {
+                            autocompletePlugin.updateActualConfig(threadsafeEntities);
                         }
 
-                        for (LabelConfig labelConfig : autocompletePlugin.labelConfigs) {
-                            if (labelConfig.labelId > 0) { // labelId may not be there yet => skip that label
-                                iterators.add(new LabelsIterator(threadsafeEntities,
-                                        threadsafeStatements, labelConfig, that));
-                            }
-                        }
+                        LOGGER.info("Start Building Index..");
 
-                        if (iterators.isEmpty()) {
+                        if (!autocompletePlugin.actualShouldIndexIRIs && !hasResolvedLabelConfigs()) {
                             LOGGER.warn("Neither IRIs nor labels are configured for autocomplete indexing. The index will be empty.");
                         }
 
-                        try (CompositeInputIterator iterator = new CompositeInputIterator(iterators)){
-                            // Sync so we avoid clashes with clonedEntities being added while we are indexing in the background
-                            suggester.build(iterator);
+                        int parallelism = autocompletePlugin.buildParallelism;
+                        if (parallelism > 1) {
+                            buildPartitioned(rebuiltSuggester, threadsafeEntities, threadsafeStatements, parallelism);
+                        } else {
+                            addAll(rebuiltSuggester, createIterators(threadsafeEntities, threadsafeStatements));
                         }
+                    }
 
-                        if (shouldInterrupt) {
-                            rollback();
-                            LOGGER.info("Building index was interrupted.");
-                        } else {
-                            commitAndRefresh();
+                    if (shouldInterrupt) {
+                        LOGGER.info("Building index was interrupted.");
+                    } else {
+                        if (buildProgress != null) {
+                            reportProgress("applying the updates made meanwhile");
+                        }
+                        // Catch up with the updates made while building, lookups are still served meanwhile
+                        indexAddedWhileBuilding(rebuiltSuggester, threadsafeEntities, threadsafeStatements, false);
+                        Lock writeLock = suggesterLock.writeLock();
+                        writeLock.lock();
+                        try {
+                            // Catch up with the few updates made since the previous call and swap in the new index.
+                            // The updates after that are no longer saved, their transactions index them.
+                            indexAddedWhileBuilding(rebuiltSuggester, threadsafeEntities, threadsafeStatements, true);
+                            swapInRebuiltIndex(rebuiltSuggester, rebuiltIndexDir);
+                            swapped = true;
                             hasBuiltIndex = true;
-                            LOGGER.info("Index built. Ready to use!");
+                        } finally {
+                            writeLock.unlock();
                         }
+                        LOGGER.info("Index built. Ready to use!");
                     }
-                } catch (Exception e) {
-                    LOGGER.error("Index was not built.", e);
-                    that.error = e;
-                } catch (Throwable t) {
-                    LOGGER.error("Index was not built.", t);
-                    that.error = t;
-                    throw new PluginException("Could not build index", t);
                 } finally {
-                    threadsafePluginConnecton.close();
+                    if (!swapped) {
+                        rebuiltSuggester.close();
+                        deleteDirectory(rebuiltIndexDir);
+                        rebuiltRanks = null;
+                        Files.deleteIfExists(getRebuiltRankSnapshotFile());
+                    }
                 }
-            });
+            } catch (Exception e) {
+                LOGGER.error("Index was not built.", e);
+                that.error = e;
+            } catch (Throwable t) {
+                LOGGER.error("Index was not built.", t);
+                that.error = t;
+                throw new PluginException("Could not build index", t);
+            } finally {
+                // Already stopped if the index was swapped in
+                updateListener.stopCapturingWhileBuilding();
+                buildProgress = null;
+                threadsafePluginConnecton.close();
+            }
+        });
+    }
+
+    /**
+     * Copies the suggestions of the current index to the target with their weights computed again. The backend
+     * copies them as a whole if it can, otherwise they are added one by one. Returns false if the current index
+     * has suggestions without keys (built by an older version), the target is emptied then.
+     */
+    private boolean copyWithNewWeights(AutocompleteBackend target) throws IOException {
+        LOGGER.info("Start refreshing the weights of the index..");
+        AutocompleteBackend.Suggestions suggestions;
+        long count;
+        Lock readLock = suggesterLock.readLock();
+        readLock.lock();
+        try {
+            if (namespaceContextsFormat < NAMESPACE_SUBTREE_CONTEXTS) {
+                LOGGER.info("The index must be built again to index the ids of the namespaces");
+                return false;
+            }
+            count = suggester.getCount();
+            reportProgress("reweighting " + count + " suggestions");
+            if (target.addReweighted(suggester, this::getRebuiltWeight)) {
+                return true;
+            }
+            suggestions = suggester.suggestions();
+        } finally {
+            readLock.unlock();
+        }
+        try (AutocompleteBackend.Suggestions source = suggestions) {
+            ReweightedSuggestionsIterator iterator = new ReweightedSuggestionsIterator(source, this, count);
+            addAll(target, Collections.singletonList(iterator));
+            if (iterator.isMissingKey()) {
+                LOGGER.info("The index must be built again to refresh its weights");
+                buildProgress = null;
+                target.build(InputIterator.EMPTY);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void indexAddedWhileBuilding(AutocompleteBackend target, Entities entities, Statements statements,
+                                         boolean last) {
+        autocompletePlugin.getUpdateListener().indexAddedWhileBuilding(entities,
+                (id, iri) -> index(target, id, iri),
+                update -> index(target, update, entities, statements), last);
+    }
+
+    private boolean hasResolvedLabelConfigs() {
+        for (LabelConfig labelConfig : autocompletePlugin.labelConfigs) {
+            if (labelConfig.labelId > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates the input iterators for the IRIs and labels of all entities.
+     */
+    private List<AutocompleteInputIterator> createIterators(Entities entities, Statements statements) {
+        List<AutocompleteInputIterator> iterators = new ArrayList<>();
+
+        if (autocompletePlugin.actualShouldIndexIRIs) {
+            iterators.add(new EntitiesIterator(entities, this));
+        }
+
+        for (LabelConfig labelConfig : autocompletePlugin.labelConfigs) {
+            if (labelConfig.labelId > 0) { // labelId may not be there yet => skip that label
+                iterators.add(new LabelsIterator(entities, statements, labelConfig, this));
+            }
+        }
+
+        return iterators;
+    }
+
+    /**
+     * Creates the input iterators for the IRIs and labels of the entities with ids in the range [firstId, lastId].
+     */
+    private List<AutocompleteInputIterator> createIterators(Entities entities, Statements statements, long firstId, long lastId) {
+        List<AutocompleteInputIterator> iterators = new ArrayList<>();
+
+        if (autocompletePlugin.actualShouldIndexIRIs) {
+            iterators.add(new EntitiesIterator(entities, this, firstId, lastId));
+        }
+
+        for (LabelConfig labelConfig : autocompletePlugin.labelConfigs) {
+            if (labelConfig.labelId > 0) { // labelId may not be there yet => skip that label
+                iterators.add(new LabelsIterator(entities, statements, labelConfig, this, firstId, lastId));
+            }
+        }
+
+        return iterators;
+    }
+
+    /**
+     * Builds the index by splitting the entity id range into partitions that are analyzed and indexed
+     * concurrently. Each partition fetches the labels of its own subjects, so every label is read only once. IndexWriter keeps a separate in-memory segment per indexing thread and flushes each
+     * into its own segment in the suggester directory, so no extra merge from temporary directories is needed.
+     */
+    private void buildPartitioned(AutocompleteBackend target, Entities entities, Statements statements,
+                                  int parallelism) throws Exception {
+        // Resolve the RDF Rank provider upfront so the workers don't race on the lazy lookup
+        getRDFRankProvider();
+
+        long size = entities.size();
+        long partitionSize = size / parallelism + 1;
+        LOGGER.info("Building index in {} partitions of {} entity ids", parallelism, partitionSize);
+
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<?>> partitions = new ArrayList<>(parallelism);
+            for (int i = 0; i < parallelism; i++) {
+                long firstId = i * partitionSize + 1;
+                long lastId = Math.min(firstId + partitionSize - 1, size);
+                List<AutocompleteInputIterator> iterators = createIterators(entities, statements, firstId, lastId);
+                partitions.add(workers.submit(() -> {
+                    addAll(target, iterators);
+                    return null;
+                }));
+            }
+
+            for (Future<?> partition : partitions) {
+                try {
+                    partition.get();
+                } catch (ExecutionException e) {
+                    shouldInterrupt = true;
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception) {
+                        throw (Exception) cause;
+                    }
+                    throw new PluginException("Could not build index partition", cause);
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private void addAll(AutocompleteBackend target, List<AutocompleteInputIterator> iterators) throws IOException {
+        try (CompositeInputIterator iterator = new CompositeInputIterator(iterators)) {
+            BytesRef text;
+            while ((text = iterator.next()) != null) {
+                target.add(iterator.key(), text, iterator.contexts(), iterator.weight(), iterator.payload());
+            }
         }
     }
 
     void index(long id, IRI currentURI) {
+        Lock readLock = suggesterLock.readLock();
+        readLock.lock();
+        try {
+            trackTransactionEntity(id);
+            index(suggester, id, currentURI);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private void index(AutocompleteBackend target, long id, IRI currentURI) {
         try {
             final String localName = currentURI.getLocalName();
             final BytesRef uriLocalNameForIndex = new BytesRef(localName);
-            synchronized (autocompletePlugin) {
-                // Sync so we avoid adding new documents while committing (see commitAndRefresh() and rollback() too)
-                suggester.add(uriLocalNameForIndex, getURINamespaceAsContext(currentURI),
-                        getWeight(id, localName), getEntityIDAsPayload(id, false));
-            }
+            // Update rather than add, an IRI may be seen again (e.g. when catching up after a rebuild)
+            target.update(getDocumentKey(id, 0, localName), uriLocalNameForIndex,
+                    getURINamespaceAsContext(target, currentURI), getWeight(target, id, localName), getEntityIDAsPayload(id, false));
         } catch (IOException e) {
             LOGGER.error("Could not index uri. ", e);
             throw new PluginException("Could not index uri: " + currentURI, e);
         }
     }
 
-    void index(long id, String string) {
+    /**
+     * Indexes an added label or deletes a removed one. The entities and statements must already reflect the update,
+     * a removed label is kept if another statement still gives the subject the same label.
+     */
+    void index(LabelUpdate update, Entities entities, Statements statements) {
+        Lock readLock = suggesterLock.readLock();
+        readLock.lock();
         try {
-            final BytesRef stringForIndex = new BytesRef(string);
-            synchronized (autocompletePlugin) {
-                // Sync so we avoid adding new documents while committing (see commitAndRefresh() and rollback() too)
-                if (id == 0) {
-                    // Zero id means "remove" and it's not an actual remove as the Lucene auto-suggest thing doesn't
-                    // support remove. Instead we fake it by updating the payload to a null one.
-                    suggester.update(stringForIndex, null, 0, null);
-                } else {
-                    suggester.add(stringForIndex, getLabelContexts(),
-                            getWeight(id, string), getEntityIDAsPayload(id, true));
+            trackTransactionEntity(update.subject);
+            index(suggester, update, entities, statements);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private void index(AutocompleteBackend target, LabelUpdate update, Entities entities, Statements statements) {
+        try {
+            final BytesRef key = getDocumentKey(update.subject, update.labelPredicateId, update.label);
+            if (update.isRemoval) {
+                if (!hasLabel(update, entities, statements)) {
+                    target.delete(key);
                 }
+            } else {
+                target.update(key, new BytesRef(update.label), getLabelContexts(),
+                        getWeight(target, update.subject, update.label), getEntityIDAsPayload(update.subject, true));
             }
         } catch (IOException e) {
             LOGGER.error("Could not index string. ", e);
-            throw new PluginException("Could not index string: " + string, e);
+            throw new PluginException("Could not index string: " + update.label, e);
+        }
+    }
+
+    /**
+     * Indexes the IRIs and labels added or removed in a transaction in one batch. The entities and statements must
+     * already reflect the updates, see {@link #index(LabelUpdate, Entities, Statements)}.
+     */
+    void index(TransactionUpdates updates, Entities entities, Statements statements) {
+        if (updates.isEmpty()) {
+            return;
+        }
+        Lock readLock = suggesterLock.readLock();
+        readLock.lock();
+        try {
+            AutocompleteBackend target = suggester;
+            synchronized (commitLock) {
+                updates.collectEntityIds(transactionEntityIds);
+            }
+
+            List<AutocompleteBackend.Suggestion> suggestions = new ArrayList<>(updates.size());
+            List<BytesRef> replacedKeys = new ArrayList<>(updates.size());
+            updates.iris.forEachEntry((id, iri) -> {
+                String localName = iri.getLocalName();
+                // The entities are new, but the first commit after a rebuild may have indexed them already while
+                // catching up with the entities added during the build
+                BytesRef key = getDocumentKey(id, 0, localName);
+                replacedKeys.add(key);
+                suggestions.add(new AutocompleteBackend.Suggestion(key, new BytesRef(localName),
+                        getURINamespaceAsContext(target, iri), getWeight(id, localName), getEntityIDAsPayload(id, false)));
+                return true;
+            });
+
+            // Removed labels are deleted, added ones replace any copy already in the index (e.g. from another context)
+            Set<BytesRef> labelContexts = getLabelContexts();
+            updates.labels.forEachValue(subjectLabels -> {
+                for (LabelUpdate update : subjectLabels) {
+                    if (update.isRemoval && hasLabel(update, entities, statements)) {
+                        continue;
+                    }
+                    BytesRef key = getDocumentKey(update.subject, update.labelPredicateId, update.label);
+                    replacedKeys.add(key);
+                    if (!update.isRemoval) {
+                        suggestions.add(new AutocompleteBackend.Suggestion(key, new BytesRef(update.label), labelContexts,
+                                getWeight(update.subject, update.label), getEntityIDAsPayload(update.subject, true)));
+                    }
+                }
+                return true;
+            });
+
+            target.addAll(replacedKeys, suggestions);
+        } catch (IOException e) {
+            LOGGER.error("Could not index transaction updates. ", e);
+            throw new PluginException("Could not index transaction updates", e);
+        } finally {
+            readLock.unlock();
         }
     }
 
+    /**
+     * Checks whether a statement still gives the subject of a removed label the same text, e.g. in another language
+     * or in another graph. They all have the same document, which must be kept as long as any of them is left.
+     */
+    private boolean hasLabel(LabelUpdate removal, Entities entities, Statements statements) {
+        StatementIterator statementIterator = statements.get(removal.subject, removal.labelPredicateId, 0);
+        try {
+            while (statementIterator.next()) {
+                if (isIndexedLabel(removal.labelPredicateId, entities.getLanguage(statementIterator.object))
+                        && removal.label.equals(entities.get(statementIterator.object).stringValue())) {
+                    return true;
+                }
+            }
+        } finally {
+            statementIterator.close();
+        }
+        return false;
+    }
+
+    private boolean isIndexedLabel(long labelPredicateId, String language) {
+        for (LabelConfig labelConfig : autocompletePlugin.labelConfigs) {
+            if (labelConfig.labelId == labelPredicateId && labelConfig.languageMatches(language)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void trackTransactionEntity(long id) {
+        // Tracked before the index is changed so that a scheduled commit never makes an uncommitted change durable
+        synchronized (commitLock) {
+            transactionEntityIds.add(id);
+        }
+    }
+
+    /**
+     * Makes the updates of the committed transaction visible. Without a commit interval the index is also
+     * committed durably right away. Otherwise the ids of the updated entities are appended to the uncommitted
+     * log, the updates become visible through a near-real-time reopen and the durable commit is done once
+     * the interval elapses or the configured number of transactions is reached.
+     */
     void commitAndRefresh() throws IOException {
         if (suggester == null) {
             return;
         }
-        synchronized (autocompletePlugin) {
-            // Sync so we avoid committing while new entities are being added (see index() too)
-            suggester.commit();
+        Lock readLock = suggesterLock.readLock();
+        readLock.lock();
+        try {
+            synchronized (commitLock) {
+                commitAndRefreshTransaction();
+            }
+            resultCache.invalidate();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private void commitAndRefreshTransaction() throws IOException {
+        int commitInterval = autocompletePlugin.commitInterval;
+        if (commitInterval <= 0) {
+            transactionEntityIds.clear();
+            durableCommit();
+            return;
+        }
+
+        uncommittedLog.append(transactionEntityIds);
+        transactionEntityIds.clear();
+        uncommittedTransactions++;
+
+        int commitMaxTransactions = autocompletePlugin.commitMaxTransactions;
+        if (System.currentTimeMillis() - lastCommitTime >= commitInterval
+                || (commitMaxTransactions > 0 && uncommittedTransactions >= commitMaxTransactions)) {
+            durableCommit();
+        } else {
             suggester.refresh();
+            scheduleCommit(commitInterval);
         }
     }
 
-    void rollback() throws IOException {
-        if (suggester == null) {
+    // Called with commitLock held, as are resetUncommitted() and scheduleCommit()
+    private void durableCommit() throws IOException {
+        namespaces.sync();
+        suggester.commit();
+        suggester.refresh();
+        suggester.compactIfNeeded();
+        resetUncommitted();
+    }
+
+    private void resetUncommitted() throws IOException {
+        uncommittedLog.clear();
+        uncommittedTransactions = 0;
+        lastCommitTime = System.currentTimeMillis();
+        if (scheduledCommit != null) {
+            scheduledCommit.cancel(false);
+            scheduledCommit = null;
+        }
+    }
+
+    private void scheduleCommit(long delay) {
+        if (scheduledCommit == null || scheduledCommit.isDone()) {
+            scheduledCommit = commitScheduler.schedule(this::commitIfDue, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Commits the pending updates when no more transactions arrive before the commit interval elapses.
+     */
+    private void commitIfDue() {
+        Lock readLock = suggesterLock.readLock();
+        readLock.lock();
+        try {
+            synchronized (commitLock) {
+                if (uncommittedTransactions == 0 || suggester == null) {
+                    return;
+                }
+                if (!transactionEntityIds.isEmpty()) {
+                    // A transaction is in progress, its changes must not become durable before it's committed.
+                    // The commit will happen at the end of that transaction or after it's rolled back.
+                    return;
+                }
+                durableCommit();
+            }
+        } catch (Exception e) {
+            // The updates are still in the uncommitted log, we'll try again with the next transaction
+            LOGGER.error("Could not commit autocomplete index", e);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Brings the IRIs and labels of the given entities in the index in line with the current state of the
+     * repository and commits them like a transaction. Reindexing is idempotent since every document is updated
+     * by its key.
+     */
+    void reindex(TLongHashSet ids, Entities entities, Statements statements) throws IOException {
+        Lock readLock = suggesterLock.readLock();
+        readLock.lock();
+        try {
+            synchronized (commitLock) {
+                transactionEntityIds.addAll(ids.toArray());
+            }
+            for (long id : ids.toArray()) {
+                reindexEntity(id, entities, statements);
+            }
+        } finally {
+            readLock.unlock();
+        }
+        commitAndRefresh();
+    }
+
+    /**
+     * Reindexes the entities in the uncommitted log, i.e. the updates that were lost when the index was not
+     * shut down properly.
+     */
+    void replayUncommitted(Entities entities, Statements statements) {
+        try {
+            TLongHashSet ids;
+            synchronized (commitLock) {
+                ids = uncommittedLog.read();
+            }
+            if (ids.isEmpty()) {
+                return;
+            }
+            LOGGER.info("Reindexing {} entities that were not committed to the autocomplete index", ids.size());
+            reindex(ids, entities, statements);
+        } catch (IOException e) {
+            throw new PluginException("Could not replay the uncommitted autocomplete updates", e);
+        }
+    }
+
+    private void reindexEntity(long id, Entities entities, Statements statements) throws IOException {
+        Value value = entities.get(id);
+        if (!(value instanceof IRI)) {
+            // Rolled back entity, drop anything that was indexed for it
+            suggester.deleteByKeyPrefix(getDocumentKeyPrefix(id));
             return;
         }
-        synchronized (autocompletePlugin) {
-            // Sync so we avoid rollbacking while new entities are being added (see index() too)
-            suggester.close();
+        if (autocompletePlugin.actualShouldIndexIRIs) {
+            index(suggester, id, (IRI) value);
+        }
+        for (LabelConfig labelConfig : autocompletePlugin.labelConfigs) {
+            if (labelConfig.labelId <= 0) {
+                continue;
+            }
+            // Removed labels are not in the repository anymore so we drop all labels and add the current ones
+            suggester.deleteByKeyPrefix(getDocumentKeyPrefix(id, labelConfig.labelId));
+            StatementIterator statementIterator = statements.get(id, labelConfig.labelId, 0);
             try {
-                // There is no rollback() without close() so we just restart the Lucene stuff.
-                restartLuceneConfig();
-            } catch (Exception e) {
-                LOGGER.error("Something went wrong when rolling back, disabling plugin.", e);
-                //autocompletePlugin.
+                while (statementIterator.next()) {
+                    if (labelConfig.languageMatches(entities.getLanguage(statementIterator.object))) {
+                        index(suggester, new LabelUpdate(id, labelConfig.labelId,
+                                entities.get(statementIterator.object).stringValue(), false), entities, statements);
+                    }
+                }
+            } finally {
+                statementIterator.close();
             }
         }
     }
 
-    Collection<Result> findEntities(String namespace, String query, Entities entities, int count) {
-        if (suggester == null) {
-            throw new PluginException("Suggester should not be null ");
-        }
+    /**
+     * Finds the entities matching the query and returns the page of them that starts at offset and has at most limit
+     * entities. Only the hits of the first offset + limit entities are looked up in the index and only the entities
+     * on the page are turned into results.
+     * <p>
+     * Queries that name a session are the keystrokes of one user typing: when the previous query of the session had
+     * only a few matches and the new one narrows it, the matches are found among the previous ones without a search.
+     * <p>
+     * Without highlight the results have no highlighted text, which saves highlighting and escaping the matches.
+     */
+    Collection<Result> findEntities(String namespace, String query, Entities entities, int offset, int limit,
+                                    @Nullable String session, boolean highlight) {
         List<Lookup.LookupResult> results;
-        IndexStatus st = status();
-        if (!IndexStatus.statusIsOk(st)) {
-            LOGGER.info("Index is not ready. Status: " + st);
-            if (st == IndexStatus.ERROR) {
-                LOGGER.error("Error is: " + error());
-            }
+        if (!checkCanServeLookups()) {
             return Collections.emptyList();
         }
 
+        // Read before the lookup, a result computed from an older index must not be cached as a newer one
+        long generation = resultCache.generation();
+        List<Result> cachedPage = resultCache.get(generation, namespace, query, offset, limit, highlight);
+        if (cachedPage != null) {
+            return cachedPage;
+        }
+
+        // Lucene can't skip hits, the ones before the page are fetched too
+        int count = (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+
+        // Lookups don't block each other nor the updates, the lock only keeps the suggester from being closed
+        Lock readLock = suggesterLock.readLock();
+        readLock.lock();
         try {
-            if (suggester.getCount() == 0) {
-                results = Collections.emptyList();
+            AutocompleteBackend target = suggester;
+            if (session != null) {
+                results = lookupEntities(hits -> sessionLookup(target, session, generation, namespace, query, hits, highlight), count);
             } else {
-                results = getResultsForQuery(query, namespace, count);
-
-                // Add alternatives for cases like "USR" not matching "USRegion"
-                if (ALL_UPPER_PATTERN.matcher(query).matches()) {
-                    String altQuery = query.substring(0, query.length() - 1) + " " + query.charAt(query.length() - 1);
-                    results = mergeResults(results, getResultsForQuery(altQuery, namespace, count), count);
-                }
+                results = lookupEntities(hits -> lookup(target, target, namespace, query, hits, highlight), count);
             }
         } catch (IOException e) {
             LOGGER.error("Could not execute query. ", e);
@@ -374,16 +1261,172 @@ class AutocompleteIndex {
         } catch (Exception e1) {
             LOGGER.error("Could not lookup results. ", e1);
             throw new PluginException("Could not lookup results. Try index rebuild. ", e1);
+        } finally {
+            readLock.unlock();
         }
 
-        Map<IRI, Result> resultEntities = new LinkedHashMap<>();
+        List<Result> page = toPage(results, entities, offset, limit, highlight);
+        resultCache.put(generation, namespace, query, offset, limit, highlight, page);
+        return page;
+    }
+
+    /**
+     * Finds the entities matching each of the queries, e.g. all mentions in a document, as
+     * {@link #findEntities(String, String, Entities, int, int, String, boolean)} would without sessions.
+     * All lookups run on the suggestions pinned when the batch starts, so a refresh in between doesn't give
+     * the queries of one batch different views of the index. They run in parallel on the lookup pool and the calling
+     * thread turns their hits into results.
+     *
+     * @return the results of each query, in the order of the queries
+     */
+    List<Collection<Result>> findEntities(List<AutocompleteQuery> queries, Entities entities) {
+        if (!checkCanServeLookups()) {
+            return Collections.nCopies(queries.size(), Collections.<Result>emptyList());
+        }
+
+        long generation = resultCache.generation();
+        List<Collection<Result>> pages = new ArrayList<>(Collections.nCopies(queries.size(), null));
+        List<Future<List<Lookup.LookupResult>>> lookups = new ArrayList<>(Collections.nCopies(queries.size(), null));
+        // All lookups of the batch go to the same suggester, the lock keeps it from being closed until they are done
+        Lock readLock = suggesterLock.readLock();
+        readLock.lock();
+        AutocompleteBackend.PinnedView view = null;
+        try {
+            AutocompleteBackend target = suggester;
+            view = target.pin();
+            AutocompleteBackend.PinnedView pinned = view;
+            for (int i = 0; i < queries.size(); i++) {
+                AutocompleteQuery query = queries.get(i);
+                List<Result> cachedPage = resultCache.get(generation, query.namespace, query.query, query.offset,
+                        query.limit, true);
+                if (cachedPage != null) {
+                    pages.set(i, cachedPage);
+                } else {
+                    int count = (int) Math.min((long) query.offset + query.limit, Integer.MAX_VALUE);
+                    lookups.set(i, lookupPool.submit(() ->
+                            lookupEntities(hits -> lookup(target, pinned, query.namespace, query.query, hits, true), count)));
+                }
+            }
+            for (int i = 0; i < queries.size(); i++) {
+                Future<List<Lookup.LookupResult>> lookup = lookups.get(i);
+                if (lookup != null) {
+                    AutocompleteQuery query = queries.get(i);
+                    List<Result> page = toPage(lookup.get(), entities, query.offset, query.limit, true);
+                    resultCache.put(generation, query.namespace, query.query, query.offset, query.limit, true, page);
+                    pages.set(i, page);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("Could not execute batch query. ", e);
+            throw new PluginException("Could not execute batch query", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PluginException("Interrupted while looking up the batch query", e);
+        } catch (ExecutionException e) {
+            LOGGER.error("Could not lookup results. ", e.getCause());
+            throw new PluginException("Could not lookup results. Try index rebuild. ", e.getCause());
+        } finally {
+            awaitStartedLookups(lookups);
+            if (view != null) {
+                try {
+                    view.close();
+                } catch (IOException e) {
+                    LOGGER.warn("Could not release the suggestions of the batch query", e);
+                }
+            }
+            readLock.unlock();
+        }
+        return pages;
+    }
+
+    /**
+     * Drops the lookups that haven't started yet and waits for the others, they use the pinned suggestions until
+     * they are done.
+     */
+    private void awaitStartedLookups(List<Future<List<Lookup.LookupResult>>> lookups) {
+        for (Future<List<Lookup.LookupResult>> lookup : lookups) {
+            if (lookup != null && !lookup.isDone() && !lookupPool.remove((Runnable) lookup)) {
+                try {
+                    Uninterruptibles.getUninterruptibly(lookup);
+                } catch (ExecutionException e) {
+                    // The batch has already failed
+                    LOGGER.debug("Lookup of a failed batch query failed too", e.getCause());
+                }
+            }
+        }
+    }
+
+    private boolean checkCanServeLookups() {
+        if (suggester == null) {
+            throw new PluginException("Suggester should not be null ");
+        }
+        IndexStatus st = status();
+        if (!canServeLookups(st)) {
+            LOGGER.info("Index is not ready. Status: " + st);
+            if (st == IndexStatus.ERROR) {
+                LOGGER.error("Error is: " + error());
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Looks up hits until they name count distinct entities or there are no more. An entity may match by its IRI
+     * and by several labels, so count hits may name fewer entities and the pages after them would be missing.
+     */
+    private static List<Lookup.LookupResult> lookupEntities(HitLookup lookup, int count) throws IOException {
+        int hits = count;
+        while (true) {
+            List<Lookup.LookupResult> results = lookup.lookup(hits);
+            if (results.size() < hits || hits == Integer.MAX_VALUE || countEntities(results) >= count) {
+                return results;
+            }
+            hits = (int) Math.min(2L * hits, Integer.MAX_VALUE);
+        }
+    }
+
+    private static int countEntities(List<Lookup.LookupResult> results) {
+        Set<Long> ids = new HashSet<>();
+        for (Lookup.LookupResult result : results) {
+            if (EntityPayload.hasEntity(result.payload)) {
+                ids.add(EntityPayload.entityId(result.payload));
+            }
+        }
+        return ids.size();
+    }
+
+    /**
+     * A lookup of at most the given number of hits.
+     */
+    @FunctionalInterface
+    private interface HitLookup {
+        List<Lookup.LookupResult> lookup(int count) throws IOException;
+    }
+
+    /**
+     * Turns the hits of a lookup into the page of results that starts at offset and has at most limit entities.
+     */
+    private List<Result> toPage(List<Lookup.LookupResult> results, Entities entities, int offset, int limit,
+                                boolean highlight) {
+        // An entity may match by its IRI and by several labels, keep its best hit at the position of its first hit
+        Map<Long, Lookup.LookupResult> bestHits = new LinkedHashMap<>();
         for (Lookup.LookupResult result : results) {
-            // TODO: old byte array, 64 bytes
-            if (result.payload.bytes.length == 0) {
-                // this is a deleted label
+            if (!EntityPayload.hasEntity(result.payload)) {
+                // this is a deleted label in an index built before labels were really deleted
                 continue;
             }
-            long id = Longs.fromByteArray(result.payload.bytes);
+            long id = EntityPayload.entityId(result.payload);
+            Lookup.LookupResult previousHit = bestHits.get(id);
+            if (previousHit == null || isBetterHit(result, previousHit)) {
+                bestHits.put(id, result);
+            }
+        }
+
+        List<Result> page = new ArrayList<>(Math.min(limit, bestHits.size()));
+        int skipped = 0;
+        for (Map.Entry<Long, Lookup.LookupResult> hit : bestHits.entrySet()) {
+            long id = hit.getKey();
             Value val = entities.get(id);
             if (val == null) {
                 // Value might be missing because we indexed but the entity was rolled back.
@@ -394,20 +1437,107 @@ class AutocompleteIndex {
                 assert false;
                 continue;
             }
-            Result newResult = new Result(id, (IRI) val, result.highlightKey.toString(), result.payload.bytes[8] != 0);
-            Result previousResult = resultEntities.get(newResult.iri);
-            if (previousResult == null || newResult.isBetterThan(previousResult)) {
-                resultEntities.put(newResult.iri, newResult);
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+            Lookup.LookupResult result = hit.getValue();
+            page.add(new Result(id, (IRI) val, highlight ? result.highlightKey.toString() : null, isLabelHit(result)));
+            if (page.size() == limit) {
+                break;
             }
         }
-        return resultEntities.values();
+        return Collections.unmodifiableList(page);
     }
 
-    public void shutDown() {
+    /**
+     * Returns the statistics of the result cache followed by the number of suggestions visible to lookups and
+     * the number of session lookups served from the candidates of the previous query.
+     */
+    String resultCacheStats() {
+        long documents = 0;
+        Lock readLock = suggesterLock.readLock();
+        readLock.lock();
         try {
-            suggester.close();
+            if (suggester != null) {
+                documents = suggester.getCount();
+            }
         } catch (IOException e) {
-            LOGGER.error("Could not shutdown suggester. ", e);
+            throw new PluginException("Could not count the suggestions", e);
+        } finally {
+            readLock.unlock();
+        }
+        return resultCache.stats() + ", documents=" + documents + ", refined=" + refinedLookups.get();
+    }
+
+    /**
+     * Checks whether plain prefix lookups are served by an FST that is up to date with the index.
+     */
+    boolean hasCurrentFst() {
+        AutocompleteBackend current = suggester;
+        return current instanceof FstBackend && ((FstBackend) current).hasCurrentFst();
+    }
+
+    private static boolean isLabelHit(Lookup.LookupResult result) {
+        return EntityPayload.isLabel(result.payload);
+    }
+
+    /**
+     * Compares two hits of the same entity: a label is better than the IRI and a shorter label is better
+     * than a longer one.
+     */
+    private static boolean isBetterHit(Lookup.LookupResult hit, Lookup.LookupResult other) {
+        boolean isLabel = isLabelHit(hit);
+        boolean otherIsLabel = isLabelHit(other);
+        return (isLabel && !otherIsLabel) || (isLabel == otherIsLabel && hitLength(hit) < hitLength(other));
+    }
+
+    private static int hitLength(Lookup.LookupResult hit) {
+        // Hits that are not highlighted have no highlight key
+        return (hit.highlightKey != null ? hit.highlightKey.toString() : hit.key).length();
+    }
+
+    /**
+     * Lookups are served when the index is ready, but also while it is being rebuilt (or after a rebuild was
+     * canceled or failed) as long as there is a previously built index.
+     */
+    private boolean canServeLookups(IndexStatus status) {
+        return IndexStatus.statusIsOk(status) || (hasBuiltIndex && status != IndexStatus.NONE);
+    }
+
+    public void shutDown() {
+        commitScheduler.shutdownNow();
+        lookupPool.shutdownNow();
+        Lock writeLock = suggesterLock.writeLock();
+        writeLock.lock();
+        try {
+            synchronized (commitLock) {
+                if (uncommittedTransactions > 0 && transactionEntityIds.isEmpty()) {
+                    try {
+                        durableCommit();
+                    } catch (IOException e) {
+                        // The uncommitted log will be replayed on the next start
+                        LOGGER.error("Could not commit suggester on shutdown. ", e);
+                    }
+                }
+                try {
+                    uncommittedLog.close();
+                } catch (IOException e) {
+                    LOGGER.error("Could not close the uncommitted log. ", e);
+                }
+            }
+            try {
+                suggester.close();
+            } catch (IOException e) {
+                LOGGER.error("Could not shutdown suggester. ", e);
+            }
+            try {
+                namespaces.close();
+            } catch (IOException e) {
+                LOGGER.error("Could not close the namespace dictionary. ", e);
+            }
+        } finally {
+            writeLock.unlock();
         }
     }
 
@@ -422,12 +1552,105 @@ class AutocompleteIndex {
         return rdfRankPlugin;
     }
 
-    private List<Lookup.LookupResult> getResultsForQuery(String query, String namespace, int maxResults) throws IOException {
-        if (!StringUtils.isEmpty(namespace)) {
-            return suggester.lookup(query, Collections.singleton(new BytesRef(namespace)), false, maxResults);
+    /**
+     * Looks up the query in the view, which shows the suggestions of the target or a pinned part of them.
+     */
+    private List<Lookup.LookupResult> lookup(AutocompleteBackend target, LookupView view, String namespace, String query,
+                                             int count, boolean highlight) throws IOException {
+        if (view.getCount() == 0) {
+            return Collections.emptyList();
+        }
+
+        List<Lookup.LookupResult> results = getResultsForQuery(target, view, query, namespace, count, highlight);
+
+        // Add alternatives for cases like "USR" not matching "USRegion"
+        if (ALL_UPPER_PATTERN.matcher(query).matches()) {
+            String altQuery = query.substring(0, query.length() - 1) + " " + query.charAt(query.length() - 1);
+            results = mergeResults(results, getResultsForQuery(target, view, altQuery, namespace, count, highlight), count);
+        }
+
+        return results;
+    }
+
+    private List<Lookup.LookupResult> sessionLookup(AutocompleteBackend target, String session, long generation,
+                                                    String namespace, String query, int count,
+                                                    boolean highlight) throws IOException {
+        if (StringUtils.isEmpty(query) || ALL_UPPER_PATTERN.matcher(query).matches() || target.getCount() == 0) {
+            // An empty query matches everything, all uppercase ones need an alternative query
+            return lookup(target, target, namespace, query, count, highlight);
+        }
+        if (StringUtils.isEmpty(namespace)) {
+            namespace = null;
+        }
+
+        AnalyzedQuery analyzedQuery = target.analyzeQuery(query);
+        RefinementSession previous = refinementSessions.getIfPresent(session);
+        List<RefinementSession.Candidate> candidates;
+        boolean allMatches;
+        if (previous != null && previous.canRefine(generation, namespace, analyzedQuery)) {
+            refinedLookups.incrementAndGet();
+            candidates = new ArrayList<>();
+            for (RefinementSession.Candidate candidate : previous.candidates) {
+                Lookup.LookupResult rematched = target.rematch(candidate.suggestion, candidate.weight, analyzedQuery);
+                if (rematched != null) {
+                    candidates.add(new RefinementSession.Candidate(rematched, candidate.weight));
+                }
+            }
+            allMatches = true;
+        } else {
+            int maxCandidates = (int) Math.max(count, Math.min((long) count * REFINEMENT_CANDIDATES_FACTOR, MAX_REFINEMENT_CANDIDATES));
+            // The candidates are highlighted, rematching them highlights them anyway
+            List<Lookup.LookupResult> suggestions = getResultsForQuery(target, target, query, namespace, maxCandidates, true);
+            candidates = new ArrayList<>(suggestions.size());
+            for (Lookup.LookupResult suggestion : suggestions) {
+                // The weight isn't returned by the lookup but it's computed the same way as when it was indexed
+                long weight = EntityPayload.hasEntity(suggestion.payload)
+                        ? getWeight(EntityPayload.entityId(suggestion.payload), suggestion.key.toString()) : 0;
+                candidates.add(new RefinementSession.Candidate(suggestion, weight));
+            }
+            allMatches = suggestions.size() < maxCandidates;
+        }
+
+        if (allMatches) {
+            refinementSessions.put(session, new RefinementSession(generation, namespace, analyzedQuery, candidates));
         } else {
-            return suggester.lookup(query, false, maxResults);
+            // Too many matches, the next query will search the index again
+            refinementSessions.invalidate(session);
         }
+        return topSuggestions(candidates, count);
+    }
+
+    /**
+     * Picks the suggestions the blended suggester would return: it takes the count heaviest matches and orders
+     * them by their weight blended with the position of the match.
+     */
+    private static List<Lookup.LookupResult> topSuggestions(List<RefinementSession.Candidate> candidates, int count) {
+        List<RefinementSession.Candidate> heaviest = candidates;
+        if (candidates.size() > count) {
+            heaviest = new ArrayList<>(candidates);
+            heaviest.sort(Comparator.comparingLong((RefinementSession.Candidate candidate) -> candidate.weight).reversed());
+            heaviest = heaviest.subList(0, count);
+        }
+        List<Lookup.LookupResult> suggestions = new ArrayList<>(heaviest.size());
+        for (RefinementSession.Candidate candidate : heaviest) {
+            suggestions.add(candidate.suggestion);
+        }
+        suggestions.sort(LOOKUP_RESULT_ORDER);
+        return suggestions;
+    }
+
+    private List<Lookup.LookupResult> getResultsForQuery(AutocompleteBackend target, LookupView view, String query,
+                                                         String namespace, int maxResults,
+                                                         boolean highlight) throws IOException {
+        if (!StringUtils.isEmpty(namespace)) {
+            Set<BytesRef> contexts = getNamespaceContexts(target, namespace);
+            if (contexts.isEmpty()) {
+                // No IRI in that namespace was ever indexed
+                return Collections.emptyList();
+            }
+            return view.lookup(query, contexts, maxResults, highlight);
+        }
+        return view.lookup(query, null, maxResults, highlight);
     }
 
 
@@ -465,10 +1688,16 @@ class AutocompleteIndex {
         String highlight;
         boolean isLabel;
 
-        Result(long id, IRI iri, String highlight, boolean isLabel) {
+        /**
+         * @param highlight the highlighted text of the hit, null if the result is not highlighted
+         */
+        Result(long id, IRI iri, @Nullable String highlight, boolean isLabel) {
             this.id = id;
             this.iri = iri;
             this.isLabel = isLabel;
+            if (highlight == null) {
+                return;
+            }
             if (isLabel) {
                 this.highlight = highlight + " <" + iri + ">";
             } else {
@@ -476,9 +1705,5 @@ class AutocompleteIndex {
             }
             this.highlight = AutocompleteSuggester.htmlifyHighlight(this.highlight);
         }
-
-        boolean isBetterThan(Result other) {
-            return (this.isLabel && !other.isLabel) || (this.isLabel == other.isLabel && this.highlight.length() < other.highlight.length());
-        }
     }
 }
@@ -0,0 +1,18 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * An InputIterator that also provides the unique key of the current suggestion.
+ * The key allows removing or replacing that single suggestion later.
+ * <p>
+ * Like the text, the key, payload and contexts of a suggestion may be reused for the next one, so whoever keeps
+ * them must copy them.
+ */
+interface AutocompleteInputIterator extends InputIterator {
+    /**
+     * Returns the unique key of the current suggestion.
+     */
+    BytesRef key();
+}
@@ -7,8 +7,10 @@ import org.eclipse.rdf4j.model.ValueFactory;
 import org.eclipse.rdf4j.model.datatypes.XMLDatatypeUtil;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
@@ -22,12 +24,19 @@ public class AutocompletePlugin extends PluginBase
                     EntityListener, PluginTransactionListener, StatementListener {
     private static final ValueFactory VF = SimpleValueFactory.getInstance();
 
-    private static final int RESULTS_COUNT = 100;
+    // The most queries a batch query may have, see AUTOCOMPLETE_BATCH_QUERY_PREDICATE
+    private static final int MAX_BATCH_QUERIES = 10_000;
 
     private static final String AUTOCOMPLETE_NAMESPACE = "http://www.ontotext.com/plugins/autocomplete#%s";
     private static final IRI AUTOCOMPLETE_CONTROL_CONTEXT = VF.createIRI(String.format(AUTOCOMPLETE_NAMESPACE, "control"));
     private static final IRI AUTOCOMPLETE_QUERY_PREDICATE = VF.createIRI(String.format(AUTOCOMPLETE_NAMESPACE, "query"));
+    // Same as query but the results have no highlighted text, for clients that only need the entities
+    private static final IRI AUTOCOMPLETE_QUERY_NO_HIGHLIGHT_PREDICATE = VF.createIRI(String.format(AUTOCOMPLETE_NAMESPACE, "queryNoHighlight"));
+    // Many queries in one literal, one per line. The results are the entities with the query line that found them
+    // and the highlighted text as context, see BatchResultStatementIterator.
+    private static final IRI AUTOCOMPLETE_BATCH_QUERY_PREDICATE = VF.createIRI(String.format(AUTOCOMPLETE_NAMESPACE, "batchQuery"));
     private static final IRI AUTOCOMPLETE_REINDEX_PREDICATE = VF.createIRI(String.format(AUTOCOMPLETE_NAMESPACE, "reIndex"));
+    private static final IRI AUTOCOMPLETE_REWEIGHT_PREDICATE = VF.createIRI(String.format(AUTOCOMPLETE_NAMESPACE, "reweight"));
     private static final IRI AUTOCOMPLETE_ENABLED_PREDICATE = VF.createIRI(String.format(AUTOCOMPLETE_NAMESPACE, "enabled"));
     private static final IRI AUTOCOMPLETE_INDEX_IRIS_PREDICATE = VF.createIRI(String.format(AUTOCOMPLETE_NAMESPACE, "indexIRIs"));
     private static final IRI AUTOCOMPLETE_PRESENT_PREDICATE = VF.createIRI(String.format(AUTOCOMPLETE_NAMESPACE, "present"));
@@ -36,10 +45,17 @@ public class AutocompletePlugin extends PluginBase
     private static final IRI AUTOCOMPLETE_LABEL_CONFIG = VF.createIRI(String.format(AUTOCOMPLETE_NAMESPACE, "labelConfig"));
     private static final IRI AUTOCOMPLETE_ADD_LABEL_CONFIG = VF.createIRI(String.format(AUTOCOMPLETE_NAMESPACE, "addLabelConfig"));
     private static final IRI AUTOCOMPLETE_REMOVE_LABEL_CONFIG = VF.createIRI(String.format(AUTOCOMPLETE_NAMESPACE, "removeLabelConfig"));
+    private static final IRI AUTOCOMPLETE_BUILD_PARALLELISM_PREDICATE = VF.createIRI(String.format(AUTOCOMPLETE_NAMESPACE, "buildParallelism"));
+    private static final IRI AUTOCOMPLETE_COMMIT_INTERVAL_PREDICATE = VF.createIRI(String.format(AUTOCOMPLETE_NAMESPACE, "commitInterval"));
+    private static final IRI AUTOCOMPLETE_COMMIT_MAX_TRANSACTIONS_PREDICATE = VF.createIRI(String.format(AUTOCOMPLETE_NAMESPACE, "commitMaxTransactions"));
+    private static final IRI AUTOCOMPLETE_CACHE_STATS_PREDICATE = VF.createIRI(String.format(AUTOCOMPLETE_NAMESPACE, "cacheStats"));
 
     private long controlContextId;
     private long queryPredicateId;
+    private long queryNoHighlightPredicateId;
+    private long batchQueryPredicateId;
     private long reIndexPredicateId;
+    private long reweightPredicateId;
     private long enabledPredicateId;
     private long indexIRIsPredicateId;
     private long presentPredicateId;
@@ -48,6 +64,10 @@ public class AutocompletePlugin extends PluginBase
     private long labelConfigId;
     private long addLabelConfigId;
     private long removeLabelConfigId;
+    private long buildParallelismPredicateId;
+    private long commitIntervalPredicateId;
+    private long commitMaxTransactionsPredicateId;
+    private long cacheStatsPredicateId;
 
     private Map<IRI, LabelConfig> configuredLabelConfigs;
     boolean configuredAndActualConfigsDiffer;
@@ -61,6 +81,24 @@ public class AutocompletePlugin extends PluginBase
 
     boolean actualShouldIndexIRIs;
 
+    int buildParallelism;
+
+    // Milliseconds between durable commits of incremental updates, 0 commits at the end of every transaction
+    volatile int commitInterval;
+
+    // Number of transactions after which incremental updates are committed regardless of the interval, 0 for no limit
+    volatile int commitMaxTransactions;
+
+    // Maximum number of cached query results (0 disables the cache) and seconds to keep them
+    int resultCacheSize;
+    int resultCacheTtl;
+
+    // Which lookup backend serves the queries, see AutocompletePluginUtils.FST_BACKEND
+    String backend;
+
+    // How the Lucene index is stored and written, applied when the index is opened
+    LuceneIndexSettings luceneIndexSettings;
+
     AutocompleteIndex autocompleteIndex;
 
     private AutocompleteUpdateListener autocompleteUpdateLister;
@@ -81,6 +119,13 @@ public class AutocompletePlugin extends PluginBase
         actualShouldIndexIRIs = actualShouldIndexIRIsFromProperties(pluginConfig);
         configuredLabelConfigs = getConfiguredLabelsFromProperties(pluginConfig);
         labelConfigs = labelConfigMapToArray(getActualLabelsFromProperties(pluginConfig));
+        buildParallelism = buildParallelismFromProperties(pluginConfig);
+        commitInterval = commitIntervalFromProperties(pluginConfig);
+        commitMaxTransactions = commitMaxTransactionsFromProperties(pluginConfig);
+        resultCacheSize = resultCacheSizeFromProperties(pluginConfig);
+        resultCacheTtl = resultCacheTtlFromProperties(pluginConfig);
+        backend = backendFromProperties(pluginConfig);
+        luceneIndexSettings = luceneIndexSettingsFromProperties(pluginConfig);
         
         updateConfiguredVsActualConfig();
 
@@ -89,7 +134,7 @@ public class AutocompletePlugin extends PluginBase
         registerPredicates(pluginConnection.getEntities());
 
         if (isPluginEnabled) {
-            initAutocompleteIndex();
+            initAutocompleteIndex(pluginConnection);
         }
     }
 
@@ -97,7 +142,10 @@ public class AutocompletePlugin extends PluginBase
     private void registerPredicates(Entities entities) {
         controlContextId = entities.put(AUTOCOMPLETE_CONTROL_CONTEXT, Entities.Scope.SYSTEM);
         queryPredicateId = entities.put(AUTOCOMPLETE_QUERY_PREDICATE, Entities.Scope.SYSTEM);
+        queryNoHighlightPredicateId = entities.put(AUTOCOMPLETE_QUERY_NO_HIGHLIGHT_PREDICATE, Entities.Scope.SYSTEM);
+        batchQueryPredicateId = entities.put(AUTOCOMPLETE_BATCH_QUERY_PREDICATE, Entities.Scope.SYSTEM);
         reIndexPredicateId = entities.put(AUTOCOMPLETE_REINDEX_PREDICATE, Entities.Scope.SYSTEM);
+        reweightPredicateId = entities.put(AUTOCOMPLETE_REWEIGHT_PREDICATE, Entities.Scope.SYSTEM);
         enabledPredicateId = entities.put(AUTOCOMPLETE_ENABLED_PREDICATE, Entities.Scope.SYSTEM);
         indexIRIsPredicateId = entities.put(AUTOCOMPLETE_INDEX_IRIS_PREDICATE, Entities.Scope.SYSTEM);
         presentPredicateId = entities.put(AUTOCOMPLETE_PRESENT_PREDICATE, Entities.Scope.SYSTEM);
@@ -106,6 +154,10 @@ public class AutocompletePlugin extends PluginBase
         labelConfigId = entities.put(AUTOCOMPLETE_LABEL_CONFIG, Entities.Scope.SYSTEM);
         addLabelConfigId = entities.put(AUTOCOMPLETE_ADD_LABEL_CONFIG, Entities.Scope.SYSTEM);
         removeLabelConfigId = entities.put(AUTOCOMPLETE_REMOVE_LABEL_CONFIG, Entities.Scope.SYSTEM);
+        buildParallelismPredicateId = entities.put(AUTOCOMPLETE_BUILD_PARALLELISM_PREDICATE, Entities.Scope.SYSTEM);
+        commitIntervalPredicateId = entities.put(AUTOCOMPLETE_COMMIT_INTERVAL_PREDICATE, Entities.Scope.SYSTEM);
+        commitMaxTransactionsPredicateId = entities.put(AUTOCOMPLETE_COMMIT_MAX_TRANSACTIONS_PREDICATE, Entities.Scope.SYSTEM);
+        cacheStatsPredicateId = entities.put(AUTOCOMPLETE_CACHE_STATS_PREDICATE, Entities.Scope.SYSTEM);
 
         resolveActualLabelConfig(entities);
     }
@@ -113,7 +165,8 @@ public class AutocompletePlugin extends PluginBase
     @Override
     public double estimate(long subject, long predicate, long object, long context, PluginConnection pluginConnection,
                            RequestContext requestContext) {
-        if (predicate == queryPredicateId || context == controlContextId)  {
+        if (predicate == queryPredicateId || predicate == queryNoHighlightPredicateId || predicate == batchQueryPredicateId
+                || context == controlContextId)  {
             return Double.POSITIVE_INFINITY;
         } else {
             return 0;
@@ -146,6 +199,27 @@ public class AutocompletePlugin extends PluginBase
             return StatementIterator.create(subject, predicate, statusRequestEntity, context);
         }
 
+        if (predicate == buildParallelismPredicateId) {
+            long parallelismRequestEntity = pluginConnection.getEntities().put(VF.createLiteral(buildParallelism), Entities.Scope.REQUEST);
+            return StatementIterator.create(subject, predicate, parallelismRequestEntity, context);
+        }
+
+        if (predicate == commitIntervalPredicateId) {
+            long commitIntervalRequestEntity = pluginConnection.getEntities().put(VF.createLiteral(commitInterval), Entities.Scope.REQUEST);
+            return StatementIterator.create(subject, predicate, commitIntervalRequestEntity, context);
+        }
+
+        if (predicate == commitMaxTransactionsPredicateId) {
+            long commitMaxTransactionsRequestEntity = pluginConnection.getEntities().put(VF.createLiteral(commitMaxTransactions), Entities.Scope.REQUEST);
+            return StatementIterator.create(subject, predicate, commitMaxTransactionsRequestEntity, context);
+        }
+
+        if (predicate == cacheStatsPredicateId) {
+            String cacheStats = isPluginEnabled ? autocompleteIndex.resultCacheStats() : "disabled";
+            long cacheStatsRequestEntity = pluginConnection.getEntities().put(VF.createLiteral(cacheStats), Entities.Scope.REQUEST);
+            return StatementIterator.create(subject, predicate, cacheStatsRequestEntity, context);
+        }
+
         if (predicate == labelConfigId) {
             long[][] resultStatements = new long[configuredLabelConfigs.size()][];
             int i = 0;
@@ -162,43 +236,42 @@ public class AutocompletePlugin extends PluginBase
             return null;
         }
 
-        if (predicate != queryPredicateId) {
+        if (predicate == batchQueryPredicateId) {
+            return interpretBatchQuery(predicate, object, pluginConnection.getEntities());
+        }
+
+        if (predicate != queryPredicateId && predicate != queryNoHighlightPredicateId) {
             return null;
         }
-        String queryStr = pluginConnection.getEntities().get(object).stringValue();
-        String namespace = null;
-        String query = "";
-
-        if (!queryStr.contains(";")) {
-            // No prefix
-            query = queryStr;
-        } else if (queryStr.endsWith(";")) {
-            // Only a prefix
-            namespace = queryStr.substring(0, queryStr.length() - 1);
-            query = "";
-        } else {
-            String[] split = queryStr.split(";");
-            if (split.length > 1) {
-                namespace = split[0];
-                query = split[1];
+        boolean highlight = predicate == queryPredicateId;
+        AutocompleteQuery query = AutocompleteQuery.parse(pluginConnection.getEntities().get(object).stringValue());
+        Collection<AutocompleteIndex.Result> foundEntities = autocompleteIndex.findEntities(query.namespace, query.query,
+                pluginConnection.getEntities(), query.offset, query.limit, query.session, highlight);
+        return new ResultStatementIterator(foundEntities, predicate, object, pluginConnection.getEntities());
+    }
+
+    private StatementIterator interpretBatchQuery(long predicate, long object, Entities entities) {
+        List<String> queryLines = new ArrayList<>();
+        for (String line : entities.get(object).stringValue().split("\\r?\\n")) {
+            if (!line.trim().isEmpty()) {
+                queryLines.add(line);
             }
         }
-
-        Collection<AutocompleteIndex.Result> foundEntities = autocompleteIndex.findEntities(namespace, query,
-                pluginConnection.getEntities(), RESULTS_COUNT);
-        long[][] resultStatements = new long[foundEntities.size()][];
-        int i = 0;
-        for (AutocompleteIndex.Result result : foundEntities) {
-            resultStatements[i] = new long[] {result.id, predicate, object,
-                    pluginConnection.getEntities().put(VF.createLiteral(result.highlight), Entities.Scope.REQUEST)};
-            i++;
+        if (queryLines.size() > MAX_BATCH_QUERIES) {
+            throw new PluginException("A batch query can have at most " + MAX_BATCH_QUERIES + " queries, it has " + queryLines.size());
+        }
+        List<AutocompleteQuery> queries = new ArrayList<>(queryLines.size());
+        for (String line : queryLines) {
+            queries.add(AutocompleteQuery.parse(line));
         }
-        return StatementIterator.create(resultStatements);
+        List<Collection<AutocompleteIndex.Result>> foundEntities = autocompleteIndex.findEntities(queries, entities);
+        return new BatchResultStatementIterator(queryLines, foundEntities, predicate, object, entities);
     }
 
     @Override
     public long[] getPredicatesToListenFor() {
-        return new long[]{ reIndexPredicateId, enabledPredicateId, indexIRIsPredicateId, interruptIndexingPredicateId, addLabelConfigId, removeLabelConfigId };
+        return new long[]{ reIndexPredicateId, reweightPredicateId, enabledPredicateId, indexIRIsPredicateId, interruptIndexingPredicateId, addLabelConfigId, removeLabelConfigId,
+                buildParallelismPredicateId, commitIntervalPredicateId, commitMaxTransactionsPredicateId };
     }
 
     @Override
@@ -222,6 +295,18 @@ public class AutocompletePlugin extends PluginBase
             }
         }
 
+        if (predicate == reweightPredicateId) {
+            if (!isPluginEnabled) {
+                throw new PluginException("Autocomplete is not enabled.");
+            }
+            try {
+                // Only the weights change, e.g. after RDF Rank was computed again
+                autocompleteIndex.buildIndex(pluginConnection, true);
+            } catch (Exception e) {
+                throw new PluginException("Unable to start refreshing the weights.", e);
+            }
+        }
+
         if (predicate == interruptIndexingPredicateId) {
             autocompleteIndex.interrupt();
         }
@@ -236,7 +321,7 @@ public class AutocompletePlugin extends PluginBase
                 savePluginConfig();
 
                 if (this.isPluginEnabled) {
-                    initAutocompleteIndex();
+                    initAutocompleteIndex(pluginConnection);
                     if (!autocompleteIndex.hasBuiltIndex) {
                         autocompleteIndex.buildIndex(pluginConnection);
                     }
@@ -254,6 +339,33 @@ public class AutocompletePlugin extends PluginBase
             }
         }
 
+        if (predicate == buildParallelismPredicateId) {
+            int parallelism = parseIntegerLiteral(pluginConnection.getEntities().get(object), 1,
+                    "Build parallelism must be a positive integer: ");
+            if (parallelism != buildParallelism) {
+                buildParallelism = parallelism;
+                savePluginConfig();
+            }
+        }
+
+        if (predicate == commitIntervalPredicateId) {
+            int interval = parseIntegerLiteral(pluginConnection.getEntities().get(object), 0,
+                    "Commit interval must be a non-negative number of milliseconds: ");
+            if (interval != commitInterval) {
+                commitInterval = interval;
+                savePluginConfig();
+            }
+        }
+
+        if (predicate == commitMaxTransactionsPredicateId) {
+            int maxTransactions = parseIntegerLiteral(pluginConnection.getEntities().get(object), 0,
+                    "Commit max transactions must be a non-negative integer: ");
+            if (maxTransactions != commitMaxTransactions) {
+                commitMaxTransactions = maxTransactions;
+                savePluginConfig();
+            }
+        }
+
         if (predicate == addLabelConfigId) {
             IRI labelPredicate = (IRI) pluginConnection.getEntities().get(subject);
             LabelConfig labelConfig = new LabelConfig(labelPredicate, subject, pluginConnection.getEntities().get(object).stringValue());
@@ -274,12 +386,33 @@ public class AutocompletePlugin extends PluginBase
         }
     }
 
-    private void initAutocompleteIndex() {
+    private static int parseIntegerLiteral(Value value, int minValue, String errorMessage) {
+        String stringLiteral = value.stringValue();
+        int parsed;
+        try {
+            parsed = Integer.parseInt(stringLiteral.trim());
+        } catch (NumberFormatException e) {
+            throw new PluginException(errorMessage + stringLiteral);
+        }
+        if (parsed < minValue) {
+            throw new PluginException(errorMessage + stringLiteral);
+        }
+        return parsed;
+    }
+
+    private void initAutocompleteIndex(PluginConnection pluginConnection) {
         if (autocompleteIndex == null) {
             autocompleteIndex = new AutocompleteIndex(this);
+            autocompleteIndex.loadRankSnapshot(pluginConnection.getEntities());
+            // Redo the incremental updates that were not committed to the index before the last shutdown
+            autocompleteIndex.replayUncommitted(pluginConnection.getEntities(), pluginConnection.getStatements());
         }
     }
 
+    AutocompleteUpdateListener getUpdateListener() {
+        return autocompleteUpdateLister;
+    }
+
     public PluginLocator getPluginLocator() {
         return pluginLocator;
     }
@@ -287,8 +420,12 @@ public class AutocompletePlugin extends PluginBase
     private String getIndexStatus() {
         if (isPluginEnabled) {
             IndexStatus status = autocompleteIndex.status();
+            String progress = autocompleteIndex.progress();
             if (status == IndexStatus.ERROR) {
                 return status.name() + ": " + autocompleteIndex.error();
+            } else if (progress != null) {
+                // Only reweighting reports its progress
+                return status.name() + ": " + progress;
             } else {
                 return status.name();
             }
@@ -315,6 +452,13 @@ public class AutocompletePlugin extends PluginBase
         setActualShouldIndexIRIsInProperties(pluginConfig, configuredShouldIndexIRIs);
         setConfiguredLabelsInProperties(pluginConfig, configuredLabelConfigs);
         setActualLabelsInProperties(pluginConfig, labelConfigs);
+        setBuildParallelismInProperties(pluginConfig, buildParallelism);
+        setCommitIntervalInProperties(pluginConfig, commitInterval);
+        setCommitMaxTransactionsInProperties(pluginConfig, commitMaxTransactions);
+        setResultCacheSizeInProperties(pluginConfig, resultCacheSize);
+        setResultCacheTtlInProperties(pluginConfig, resultCacheTtl);
+        setBackendInProperties(pluginConfig, backend);
+        setLuceneIndexSettingsInProperties(pluginConfig, luceneIndexSettings);
         updatePluginConfiguration(getDataDir(), pluginConfig);
     }
 
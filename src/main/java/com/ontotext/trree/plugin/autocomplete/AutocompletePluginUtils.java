@@ -25,7 +25,7 @@ class AutocompletePluginUtils {
 
     private static final ValueFactory VF = SimpleValueFactory.getInstance();
 
-    private static final String PLUGIN_CONFIG_FILENAME = "config.properties";
+    static final String PLUGIN_CONFIG_FILENAME = "config.properties";
 
     public static final String AUTOCOMPLETE_ENABLED_PROPERTY = "autocomplete.enabled";
 
@@ -37,6 +37,55 @@ class AutocompletePluginUtils {
 
     public static final String AUTOCOMPLETE_ACTUAL_LABELS_PROPERTY = "autocomplete.labels.actual";
 
+    public static final String AUTOCOMPLETE_BUILD_PARALLELISM_PROPERTY = "autocomplete.build.parallelism";
+
+    static final int DEFAULT_BUILD_PARALLELISM = 1;
+
+    public static final String AUTOCOMPLETE_COMMIT_INTERVAL_PROPERTY = "autocomplete.commit.interval";
+
+    // In milliseconds, 0 means that the index is committed at the end of every transaction
+    static final int DEFAULT_COMMIT_INTERVAL = 0;
+
+    public static final String AUTOCOMPLETE_COMMIT_MAX_TRANSACTIONS_PROPERTY = "autocomplete.commit.maxtransactions";
+
+    // 0 means no limit on the number of transactions between two commits
+    static final int DEFAULT_COMMIT_MAX_TRANSACTIONS = 0;
+
+    public static final String AUTOCOMPLETE_RESULT_CACHE_SIZE_PROPERTY = "autocomplete.cache.size";
+
+    // Maximum number of cached query results, 0 disables the cache
+    static final int DEFAULT_RESULT_CACHE_SIZE = 1000;
+
+    public static final String AUTOCOMPLETE_RESULT_CACHE_TTL_PROPERTY = "autocomplete.cache.ttl";
+
+    // In seconds, 0 means that cached results are evicted only when the index changes or the cache is full
+    static final int DEFAULT_RESULT_CACHE_TTL = 60;
+
+    public static final String AUTOCOMPLETE_BACKEND_PROPERTY = "autocomplete.backend";
+
+    // Lookups are served by the Lucene index only
+    static final String LUCENE_BACKEND = "lucene";
+
+    // Plain prefix lookups are served by an FST built from the Lucene index when it's up to date
+    static final String FST_BACKEND = "fst";
+
+    // The suggestions are kept in memory in an off-heap trie, saved to a single file in the index directory
+    static final String TRIE_BACKEND = "trie";
+
+    // The settings of the Lucene index, applied when it's opened, see LuceneIndexSettings for the values
+
+    public static final String AUTOCOMPLETE_LUCENE_DIRECTORY_PROPERTY = "autocomplete.lucene.directory";
+
+    public static final String AUTOCOMPLETE_LUCENE_RAM_BUFFER_PROPERTY = "autocomplete.lucene.rambuffer";
+
+    public static final String AUTOCOMPLETE_LUCENE_MAX_BUFFERED_DOCS_PROPERTY = "autocomplete.lucene.maxbuffereddocs";
+
+    public static final String AUTOCOMPLETE_LUCENE_MERGE_POLICY_PROPERTY = "autocomplete.lucene.mergepolicy";
+
+    public static final String AUTOCOMPLETE_LUCENE_MAX_MERGED_SEGMENT_PROPERTY = "autocomplete.lucene.maxmergedsegment";
+
+    public static final String AUTOCOMPLETE_LUCENE_COMPOUND_FILE_PROPERTY = "autocomplete.lucene.compoundfile";
+
     /**
      * Load plugin configuration from file or defaults.
      *
@@ -141,6 +190,109 @@ class AutocompletePluginUtils {
         properties.setProperty(AUTOCOMPLETE_ACTUAL_INDEX_IRIS_PROPERTY, Boolean.toString(shouldIndexIRIs));
     }
 
+    public static int buildParallelismFromProperties(Properties properties) {
+        return intFromProperties(properties, AUTOCOMPLETE_BUILD_PARALLELISM_PROPERTY, DEFAULT_BUILD_PARALLELISM, 1);
+    }
+
+    public static void setBuildParallelismInProperties(Properties properties, int parallelism) {
+        properties.setProperty(AUTOCOMPLETE_BUILD_PARALLELISM_PROPERTY, Integer.toString(parallelism));
+    }
+
+    public static int commitIntervalFromProperties(Properties properties) {
+        return intFromProperties(properties, AUTOCOMPLETE_COMMIT_INTERVAL_PROPERTY, DEFAULT_COMMIT_INTERVAL, 0);
+    }
+
+    public static void setCommitIntervalInProperties(Properties properties, int commitInterval) {
+        properties.setProperty(AUTOCOMPLETE_COMMIT_INTERVAL_PROPERTY, Integer.toString(commitInterval));
+    }
+
+    public static int commitMaxTransactionsFromProperties(Properties properties) {
+        return intFromProperties(properties, AUTOCOMPLETE_COMMIT_MAX_TRANSACTIONS_PROPERTY, DEFAULT_COMMIT_MAX_TRANSACTIONS, 0);
+    }
+
+    public static void setCommitMaxTransactionsInProperties(Properties properties, int commitMaxTransactions) {
+        properties.setProperty(AUTOCOMPLETE_COMMIT_MAX_TRANSACTIONS_PROPERTY, Integer.toString(commitMaxTransactions));
+    }
+
+    public static int resultCacheSizeFromProperties(Properties properties) {
+        return intFromProperties(properties, AUTOCOMPLETE_RESULT_CACHE_SIZE_PROPERTY, DEFAULT_RESULT_CACHE_SIZE, 0);
+    }
+
+    public static void setResultCacheSizeInProperties(Properties properties, int resultCacheSize) {
+        properties.setProperty(AUTOCOMPLETE_RESULT_CACHE_SIZE_PROPERTY, Integer.toString(resultCacheSize));
+    }
+
+    public static int resultCacheTtlFromProperties(Properties properties) {
+        return intFromProperties(properties, AUTOCOMPLETE_RESULT_CACHE_TTL_PROPERTY, DEFAULT_RESULT_CACHE_TTL, 0);
+    }
+
+    public static void setResultCacheTtlInProperties(Properties properties, int resultCacheTtl) {
+        properties.setProperty(AUTOCOMPLETE_RESULT_CACHE_TTL_PROPERTY, Integer.toString(resultCacheTtl));
+    }
+
+    public static String backendFromProperties(Properties properties) {
+        String backend = properties.getProperty(AUTOCOMPLETE_BACKEND_PROPERTY, LUCENE_BACKEND).trim().toLowerCase();
+        if (!LUCENE_BACKEND.equals(backend) && !FST_BACKEND.equals(backend) && !TRIE_BACKEND.equals(backend)) {
+            LOG.warn("Unknown value for {}: {}, using {}", AUTOCOMPLETE_BACKEND_PROPERTY, backend, LUCENE_BACKEND);
+            return LUCENE_BACKEND;
+        }
+        return backend;
+    }
+
+    public static void setBackendInProperties(Properties properties, String backend) {
+        properties.setProperty(AUTOCOMPLETE_BACKEND_PROPERTY, backend);
+    }
+
+    public static LuceneIndexSettings luceneIndexSettingsFromProperties(Properties properties) {
+        return new LuceneIndexSettings(
+                choiceFromProperties(properties, AUTOCOMPLETE_LUCENE_DIRECTORY_PROPERTY, LuceneIndexSettings.FS_DIRECTORY,
+                        LuceneIndexSettings.MMAP_DIRECTORY, LuceneIndexSettings.NIO_DIRECTORY,
+                        LuceneIndexSettings.NRT_CACHING_DIRECTORY),
+                intFromProperties(properties, AUTOCOMPLETE_LUCENE_RAM_BUFFER_PROPERTY,
+                        LuceneIndexSettings.DEFAULT_RAM_BUFFER_SIZE_MB, 1),
+                intFromProperties(properties, AUTOCOMPLETE_LUCENE_MAX_BUFFERED_DOCS_PROPERTY,
+                        LuceneIndexSettings.DEFAULT_MAX_BUFFERED_DOCS, 0),
+                choiceFromProperties(properties, AUTOCOMPLETE_LUCENE_MERGE_POLICY_PROPERTY,
+                        LuceneIndexSettings.TIERED_MERGE_POLICY, LuceneIndexSettings.LOG_BYTE_SIZE_MERGE_POLICY),
+                intFromProperties(properties, AUTOCOMPLETE_LUCENE_MAX_MERGED_SEGMENT_PROPERTY,
+                        LuceneIndexSettings.DEFAULT_MAX_MERGED_SEGMENT_MB, 1),
+                XMLDatatypeUtil.parseBoolean(properties.getProperty(AUTOCOMPLETE_LUCENE_COMPOUND_FILE_PROPERTY, "true").trim()));
+    }
+
+    public static void setLuceneIndexSettingsInProperties(Properties properties, LuceneIndexSettings settings) {
+        properties.setProperty(AUTOCOMPLETE_LUCENE_DIRECTORY_PROPERTY, settings.directoryType);
+        properties.setProperty(AUTOCOMPLETE_LUCENE_RAM_BUFFER_PROPERTY, Integer.toString(settings.ramBufferSizeMB));
+        properties.setProperty(AUTOCOMPLETE_LUCENE_MAX_BUFFERED_DOCS_PROPERTY, Integer.toString(settings.maxBufferedDocs));
+        properties.setProperty(AUTOCOMPLETE_LUCENE_MERGE_POLICY_PROPERTY, settings.mergePolicy);
+        properties.setProperty(AUTOCOMPLETE_LUCENE_MAX_MERGED_SEGMENT_PROPERTY, Integer.toString(settings.maxMergedSegmentMB));
+        properties.setProperty(AUTOCOMPLETE_LUCENE_COMPOUND_FILE_PROPERTY, Boolean.toString(settings.useCompoundFile));
+    }
+
+    /**
+     * Reads a property that must have one of the given values, the first one is the default.
+     */
+    private static String choiceFromProperties(Properties properties, String propertyName, String... values) {
+        String value = properties.getProperty(propertyName, values[0]).trim().toLowerCase();
+        if (!Arrays.asList(values).contains(value)) {
+            LOG.warn("Unknown value for {}: {}, using {}", propertyName, value, values[0]);
+            return values[0];
+        }
+        return value;
+    }
+
+    private static int intFromProperties(Properties properties, String propertyName, int defaultValue, int minValue) {
+        String value = properties.getProperty(propertyName);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(minValue, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            LOG.warn("Invalid value for {}: {}. Using the default {}.", propertyName, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
     public static Map<IRI, LabelConfig> getConfiguredLabelsFromProperties(Properties properties) {
         return getLabelsFromProperties(properties, AUTOCOMPLETE_CONFIGURED_LABELS_PROPERTY);
     }
@@ -0,0 +1,84 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import com.ontotext.trree.sdk.PluginException;
+
+import javax.annotation.Nullable;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A query string of the autocomplete query predicates, split into the namespace, the query and the options.
+ */
+final class AutocompleteQuery {
+    private static final int DEFAULT_RESULTS_LIMIT = 100;
+
+    // Options at the end of the query string, e.g. "namespace;query;limit=10;offset=20" or "query;limit=10".
+    // A namespace without a query still needs its trailing semicolon: "namespace;;limit=10".
+    // The session option names a typeahead session, e.g. "query;session=a1b2", see AutocompleteIndex.findEntities().
+    private static final Pattern QUERY_OPTION_PATTERN = Pattern.compile(";(limit|offset|session)=([\\w.-]+)$");
+
+    // A namespace ending with '*' matches all namespaces that start with the rest of it, e.g. "http://example.org/geo/*"
+    @Nullable
+    final String namespace;
+    final String query;
+    final int offset;
+    final int limit;
+    @Nullable
+    final String session;
+
+    private AutocompleteQuery(@Nullable String namespace, String query, int offset, int limit, @Nullable String session) {
+        this.namespace = namespace;
+        this.query = query;
+        this.offset = offset;
+        this.limit = limit;
+        this.session = session;
+    }
+
+    static AutocompleteQuery parse(String queryStr) {
+        int limit = DEFAULT_RESULTS_LIMIT;
+        int offset = 0;
+        String session = null;
+        Matcher optionMatcher = QUERY_OPTION_PATTERN.matcher(queryStr);
+        while (optionMatcher.find()) {
+            String option = optionMatcher.group(1);
+            if ("session".equals(option)) {
+                session = optionMatcher.group(2);
+            } else if ("limit".equals(option)) {
+                limit = parseQueryOption(option, optionMatcher.group(2));
+                if (limit < 1) {
+                    throw new PluginException("The limit must be a positive integer: " + queryStr);
+                }
+            } else {
+                offset = parseQueryOption(option, optionMatcher.group(2));
+            }
+            queryStr = queryStr.substring(0, optionMatcher.start());
+            optionMatcher = QUERY_OPTION_PATTERN.matcher(queryStr);
+        }
+        String namespace = null;
+        String query = "";
+
+        if (!queryStr.contains(";")) {
+            // No prefix
+            query = queryStr;
+        } else if (queryStr.endsWith(";")) {
+            // Only a prefix
+            namespace = queryStr.substring(0, queryStr.length() - 1);
+            query = "";
+        } else {
+            String[] split = queryStr.split(";");
+            if (split.length > 1) {
+                namespace = split[0];
+                query = split[1];
+            }
+        }
+        return new AutocompleteQuery(namespace, query, offset, limit, session);
+    }
+
+    private static int parseQueryOption(String option, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new PluginException("The " + option + " must be a non-negative integer: " + value);
+        }
+    }
+}
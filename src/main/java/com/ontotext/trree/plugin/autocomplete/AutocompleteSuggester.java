@@ -2,29 +2,108 @@ package com.ontotext.trree.plugin.autocomplete;
 
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.AnalyzerWrapper;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.ngram.EdgeNGramTokenFilter;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.codecs.DocValuesProducer;
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.CodecReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.FilterCodecReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafMetaData;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SlowCodecReaderWrapper;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.Lookup;
 import org.apache.lucene.search.suggest.analyzing.BlendedInfixSuggester;
+import org.apache.lucene.store.ByteBuffersDirectory;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 
 /**
- * Our own extension of Lucene's suggester.
+ * Our own extension of Lucene's suggester, the default {@link AutocompleteBackend}.
  *
  * The blended suggester provides better handling of how results are sorted
  * (in connection with weight based on the length of the local part).
  */
-public class AutocompleteSuggester extends BlendedInfixSuggester {
+public class AutocompleteSuggester extends BlendedInfixSuggester implements AutocompleteBackend {
+    /**
+     * Field with a unique key per document, used to delete or replace individual documents.
+     */
+    static final String KEY_FIELD_NAME = "key";
+
+    // When the ratio of deleted documents in the whole index goes above this we expunge them in the background
+    private static final double EXPUNGE_DELETES_RATIO = 0.1;
+
+    // Same as BlendedInfixSuggester.LINEAR_COEF, used to re-score suggestions with BlenderType.POSITION_LINEAR
+    private static final double POSITION_LINEAR_COEF = 0.10;
+
+    private final Directory dir;
+
+    private final LuceneIndexSettings settings;
+
+    // Creates a suggester like this one in another directory, the lookups of a pinned view run on it
+    private final SuggesterFactory lookupsFactory;
+
     public AutocompleteSuggester(Directory dir, Analyzer analyzer) throws IOException {
         super(dir, analyzer);
+        this.dir = dir;
+        this.settings = LuceneIndexSettings.DEFAULT;
+        this.lookupsFactory = lookupsDir -> new AutocompleteSuggester(lookupsDir, analyzer);
     }
 
     public AutocompleteSuggester(Directory dir, Analyzer indexAnalyzer, Analyzer queryAnalyzer, int minPrefixChars, BlenderType blenderType, int numFactor, boolean commitOnBuild) throws IOException {
+        this(dir, indexAnalyzer, queryAnalyzer, minPrefixChars, blenderType, numFactor, commitOnBuild, LuceneIndexSettings.DEFAULT);
+    }
+
+    AutocompleteSuggester(Directory dir, Analyzer indexAnalyzer, Analyzer queryAnalyzer, int minPrefixChars, BlenderType blenderType, int numFactor, boolean commitOnBuild, LuceneIndexSettings settings) throws IOException {
         super(dir, indexAnalyzer, queryAnalyzer, minPrefixChars, blenderType, numFactor, commitOnBuild);
+        this.dir = dir;
+        this.settings = settings;
+        this.lookupsFactory = lookupsDir -> new AutocompleteSuggester(lookupsDir, indexAnalyzer, queryAnalyzer,
+                minPrefixChars, blenderType, numFactor, commitOnBuild, settings);
     }
 
     public AutocompleteSuggester(Directory dir, Analyzer indexAnalyzer, Analyzer queryAnalyzer, int minPrefixChars, BlenderType blenderType, int numFactor, Double exponent, boolean commitOnBuild, boolean allTermsRequired, boolean highlight) throws IOException {
         super(dir, indexAnalyzer, queryAnalyzer, minPrefixChars, blenderType, numFactor, exponent, commitOnBuild, allTermsRequired, highlight);
+        this.dir = dir;
+        this.settings = LuceneIndexSettings.DEFAULT;
+        this.lookupsFactory = lookupsDir -> new AutocompleteSuggester(lookupsDir, indexAnalyzer, queryAnalyzer,
+                minPrefixChars, blenderType, numFactor, exponent, commitOnBuild, allTermsRequired, highlight);
     }
 
     @Override
@@ -32,15 +111,703 @@ public class AutocompleteSuggester extends BlendedInfixSuggester {
         IndexWriterConfig iwConfig = super.getIndexWriterConfig(indexAnalyzer, openMode);
         // This makes close() rollback the transaction.
         iwConfig.setCommitOnClose(false);
+        settings.apply(iwConfig);
         return iwConfig;
     }
 
+    @Override
+    public void build(InputIterator iterator) throws IOException {
+        // Starts with an empty index, the documents are added with their keys so they can be deleted later
+        super.build(InputIterator.EMPTY);
+        AutocompleteInputIterator keyedIterator = iterator instanceof AutocompleteInputIterator
+                ? (AutocompleteInputIterator) iterator : null;
+        boolean added = false;
+        BytesRef text;
+        while ((text = iterator.next()) != null) {
+            add(keyedIterator != null ? keyedIterator.key() : text, text, iterator.hasContexts() ? iterator.contexts() : null,
+                    iterator.weight(), iterator.hasPayloads() ? iterator.payload() : null);
+            added = true;
+        }
+        if (added) {
+            commit();
+            refresh();
+        }
+    }
+
+    @Override
+    public void add(BytesRef key, BytesRef text, Set<BytesRef> contexts, long weight, BytesRef payload) throws IOException {
+        ensureWriterOpen();
+        writer.addDocument(buildDocument(key, text, contexts, weight, payload));
+    }
+
+    @Override
+    public void update(BytesRef key, BytesRef text, Set<BytesRef> contexts, long weight, BytesRef payload) throws IOException {
+        ensureWriterOpen();
+        writer.updateDocument(new Term(KEY_FIELD_NAME, key), buildDocument(key, text, contexts, weight, payload));
+    }
+
+    @Override
+    public void addAll(Collection<BytesRef> replacedKeys, List<Suggestion> suggestions) throws IOException {
+        ensureWriterOpen();
+        if (!replacedKeys.isEmpty()) {
+            Term[] terms = new Term[replacedKeys.size()];
+            int i = 0;
+            for (BytesRef key : replacedKeys) {
+                terms[i++] = new Term(KEY_FIELD_NAME, key);
+            }
+            writer.deleteDocuments(terms);
+        }
+        List<Document> documents = new ArrayList<>(suggestions.size());
+        for (Suggestion suggestion : suggestions) {
+            documents.add(buildDocument(suggestion.key, suggestion.text, suggestion.contexts, suggestion.weight,
+                    suggestion.payload));
+        }
+        writer.addDocuments(documents);
+    }
+
+    @Override
+    public void delete(BytesRef key) throws IOException {
+        ensureWriterOpen();
+        writer.deleteDocuments(new Term(KEY_FIELD_NAME, key));
+    }
+
+    @Override
+    public void deleteByKeyPrefix(BytesRef keyPrefix) throws IOException {
+        ensureWriterOpen();
+        writer.deleteDocuments(new PrefixQuery(new Term(KEY_FIELD_NAME, keyPrefix)));
+    }
+
+    /**
+     * Copies the segments of the source index with IndexWriter.addIndexes, only the weights are computed again and
+     * the documents sorted by them, the texts are not analyzed again.
+     * <p>
+     * Lucene can't update the weights in place with doc values updates because the index is sorted by them.
+     */
+    @Override
+    public boolean addReweighted(AutocompleteBackend source, Reweighter reweighter) throws IOException {
+        if (!(source instanceof AutocompleteSuggester)) {
+            return false;
+        }
+        AutocompleteSuggester sourceSuggester = (AutocompleteSuggester) source;
+        SearcherManager mgr;
+        IndexSearcher searcher;
+        synchronized (sourceSuggester.searcherMgrLock) {
+            mgr = sourceSuggester.searcherMgr;
+            if (mgr == null) {
+                // Nothing was indexed
+                return true;
+            }
+            searcher = mgr.acquire();
+        }
+        try {
+            List<CodecReader> readers = new ArrayList<>();
+            for (LeafReaderContext context : searcher.getIndexReader().leaves()) {
+                LeafReader leaf = context.reader();
+                CodecReader reader = leaf instanceof CodecReader ? (CodecReader) leaf : SlowCodecReaderWrapper.wrap(leaf);
+                readers.add(new ReweightedReader(reader, reweighter));
+            }
+            ensureWriterOpen();
+            writer.addIndexes(readers.toArray(new CodecReader[0]));
+        } finally {
+            mgr.release(searcher);
+        }
+        return true;
+    }
+
+    @Override
+    public void commit() throws IOException {
+        // The writer is opened on the first change, there is nothing to commit before that
+        if (writer != null) {
+            super.commit();
+        }
+    }
+
+    @Override
+    public void rollback() throws IOException {
+        synchronized (searcherMgrLock) {
+            if (writer == null) {
+                return;
+            }
+            writer.rollback();
+            writer = null;
+            // The searcher manager of the closed writer can't be refreshed, search the last commit instead
+            SearcherManager oldSearcherMgr = searcherMgr;
+            searcherMgr = DirectoryReader.indexExists(dir) ? new SearcherManager(dir, null) : null;
+            if (oldSearcherMgr != null) {
+                oldSearcherMgr.close();
+            }
+        }
+    }
+
+    /**
+     * Merges away deleted documents in the background if they make up too much of the index.
+     * The merge policy takes care of most of them on its own, this catches segments that are not merged often.
+     */
+    @Override
+    public void compactIfNeeded() throws IOException {
+        IndexWriter currentWriter = writer;
+        if (currentWriter == null || !currentWriter.hasDeletions()) {
+            return;
+        }
+        IndexWriter.DocStats docStats = currentWriter.getDocStats();
+        if (docStats.maxDoc > 0 && (docStats.maxDoc - docStats.numDocs) > EXPUNGE_DELETES_RATIO * docStats.maxDoc) {
+            currentWriter.forceMergeDeletes(false);
+        }
+    }
+
+    @Override
+    public List<Lookup.LookupResult> lookup(CharSequence query, @Nullable Set<BytesRef> contexts, int count) throws IOException {
+        return lookup(query, contexts == null || contexts.isEmpty() ? null : contexts, false, count);
+    }
+
+    @Override
+    public List<Lookup.LookupResult> lookup(CharSequence query, @Nullable Set<BytesRef> contexts, int count,
+                                            boolean highlight) throws IOException {
+        if (highlight) {
+            return lookup(query, contexts, count);
+        }
+        // All tokens must match, as in the lookups with highlighting
+        return lookup(query, contexts == null || contexts.isEmpty() ? null : contexts, count, true, false);
+    }
+
+    /**
+     * The lookups of the view run on one searcher acquired from the searcher manager, which is released when the view
+     * is closed. They are done by a suggester like this one whose searcher manager has only that searcher, so they
+     * match and score exactly like the lookups of this suggester.
+     */
+    @Override
+    public PinnedView pin() throws IOException {
+        SearcherManager mgr;
+        IndexSearcher searcher;
+        synchronized (searcherMgrLock) {
+            mgr = searcherMgr;
+            searcher = mgr != null ? mgr.acquire() : null;
+        }
+        AutocompleteSuggester lookups = null;
+        boolean success = false;
+        try {
+            // Nothing is written to the directory, the suggester only searches the pinned searcher
+            lookups = lookupsFactory.create(new ByteBuffersDirectory());
+            if (searcher != null) {
+                DirectoryReader reader = (DirectoryReader) searcher.getIndexReader();
+                // Taken by the searcher manager of the lookups, which gives it back when it's closed
+                reader.incRef();
+                lookups.searcherMgr = new SearcherManager(reader, new SearcherFactory() {
+                    @Override
+                    public IndexSearcher newSearcher(IndexReader pinnedReader, IndexReader previousReader) {
+                        return searcher;
+                    }
+                });
+            }
+            PinnedView view = new PinnedSearcher(mgr, searcher, lookups);
+            success = true;
+            return view;
+        } finally {
+            if (!success) {
+                IOUtils.closeWhileHandlingException(lookups);
+                if (mgr != null) {
+                    mgr.release(searcher);
+                }
+            }
+        }
+    }
+
+    @Override
+    public AnalyzedQuery analyzeQuery(String query) throws IOException {
+        return analyzeQuery(queryAnalyzer, query);
+    }
+
+    /**
+     * Splits the query the way the lookups of this suggester do it, also used by the backends that match like it.
+     */
+    static AnalyzedQuery analyzeQuery(Analyzer queryAnalyzer, String query) throws IOException {
+        // Code follows AnalyzingInfixSuggester.lookup(), check for changes upstream when you update the Lucene version
+        AnalyzedQuery analyzedQuery = new AnalyzedQuery();
+        try (TokenStream ts = queryAnalyzer.tokenStream("", new StringReader(query))) {
+            CharTermAttribute termAtt = ts.addAttribute(CharTermAttribute.class);
+            OffsetAttribute offsetAtt = ts.addAttribute(OffsetAttribute.class);
+            ts.reset();
+            String lastToken = null;
+            int maxEndOffset = -1;
+            while (ts.incrementToken()) {
+                if (lastToken != null) {
+                    analyzedQuery.exactTokens.add(lastToken);
+                }
+                lastToken = termAtt.toString();
+                maxEndOffset = Math.max(maxEndOffset, offsetAtt.endOffset());
+            }
+            ts.end();
+            if (lastToken != null) {
+                if (maxEndOffset == offsetAtt.endOffset()) {
+                    analyzedQuery.prefixToken = lastToken;
+                } else {
+                    analyzedQuery.exactTokens.add(lastToken);
+                }
+            }
+        }
+        return analyzedQuery;
+    }
+
+    /**
+     * Assumes all query terms are required and BlenderType.POSITION_LINEAR, which is how the plugin creates
+     * the suggester.
+     */
+    @Override
+    public Lookup.LookupResult rematch(Lookup.LookupResult suggestion, long weight, AnalyzedQuery query) throws IOException {
+        return rematch(indexAnalyzer, queryAnalyzer, suggestion, weight, query);
+    }
+
+    /**
+     * Matches and scores a suggestion the way the lookups of this suggester do it, also used by the backends that
+     * match like it.
+     */
+    @Nullable
+    static Lookup.LookupResult rematch(Analyzer indexAnalyzer, Analyzer queryAnalyzer, Lookup.LookupResult suggestion,
+                                       long weight, AnalyzedQuery query) throws IOException {
+        String text = suggestion.key.toString();
+        Set<String> foundExactTokens = new HashSet<>();
+        boolean foundPrefix = query.prefixToken == null;
+        int firstMatchPosition = Integer.MAX_VALUE;
+        try (TokenStream ts = indexAnalyzer.tokenStream(TEXT_FIELD_NAME, new StringReader(text))) {
+            CharTermAttribute termAtt = ts.addAttribute(CharTermAttribute.class);
+            PositionIncrementAttribute posIncAtt = ts.addAttribute(PositionIncrementAttribute.class);
+            ts.reset();
+            int position = -1;
+            while (ts.incrementToken()) {
+                position += posIncAtt.getPositionIncrement();
+                String token = termAtt.toString();
+                if (query.exactTokens.contains(token)) {
+                    foundExactTokens.add(token);
+                }
+                if (query.prefixToken != null && token.startsWith(query.prefixToken)) {
+                    foundPrefix = true;
+                }
+                if (query.matches(token)) {
+                    firstMatchPosition = Math.min(firstMatchPosition, position);
+                }
+            }
+            ts.end();
+        }
+        if (!foundPrefix || foundExactTokens.size() < query.exactTokens.size()) {
+            return null;
+        }
+
+        long value = (long) (weight * (1 - POSITION_LINEAR_COEF * firstMatchPosition));
+        return new Lookup.LookupResult(text, highlight(queryAnalyzer, text, query.exactTokens, query.prefixToken), value,
+                suggestion.payload, suggestion.contexts);
+    }
+
+    private static String highlight(Analyzer queryAnalyzer, String text, Set<String> matchedTokens,
+                                    @Nullable String prefixToken) throws IOException {
+        // Code copied from super (where it's an instance method), check for changes upstream when you update
+        // the Lucene version
+        try (TokenStream ts = queryAnalyzer.tokenStream("text", new StringReader(text))) {
+            CharTermAttribute termAtt = ts.addAttribute(CharTermAttribute.class);
+            OffsetAttribute offsetAtt = ts.addAttribute(OffsetAttribute.class);
+            ts.reset();
+            StringBuilder sb = new StringBuilder();
+            int upto = 0;
+            while (ts.incrementToken()) {
+                String token = termAtt.toString();
+                int startOffset = offsetAtt.startOffset();
+                int endOffset = offsetAtt.endOffset();
+                if (upto < startOffset) {
+                    sb.append(text, upto, startOffset);
+                    upto = startOffset;
+                } else if (upto > startOffset) {
+                    continue;
+                }
+
+                if (matchedTokens.contains(token)) {
+                    appendWholeMatch(sb, text.substring(startOffset, endOffset));
+                    upto = endOffset;
+                } else if (prefixToken != null && token.startsWith(prefixToken)) {
+                    appendPrefixMatch(sb, text.substring(startOffset, endOffset), prefixToken);
+                    upto = endOffset;
+                }
+            }
+            ts.end();
+            int endOffset = offsetAtt.endOffset();
+            if (upto < endOffset) {
+                sb.append(text.substring(upto));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * The iterator holds a searcher open until it's closed.
+     */
+    @Override
+    public Suggestions suggestions() throws IOException {
+        synchronized (searcherMgrLock) {
+            SearcherManager mgr = searcherMgr;
+            return mgr == null ? new IndexedSuggestions(null, null) : new IndexedSuggestions(mgr, mgr.acquire());
+        }
+    }
+
+    /**
+     * Reads the key, text, weight, payload and contexts of the live documents from their doc values.
+     */
+    private static final class IndexedSuggestions implements Suggestions {
+        private final SearcherManager mgr;
+        private final IndexSearcher searcher;
+        private final Iterator<LeafReaderContext> leaves;
+        private LeafReader leaf;
+        private Bits liveDocs;
+        private BinaryDocValues keys;
+        private BinaryDocValues texts;
+        private NumericDocValues weights;
+        private BinaryDocValues payloads;
+        private SortedSetDocValues contexts;
+        private int doc;
+        private BytesRef key;
+        private long weight;
+        private BytesRef payload;
+        private Set<BytesRef> docContexts;
+
+        private IndexedSuggestions(SearcherManager mgr, IndexSearcher searcher) {
+            this.mgr = mgr;
+            this.searcher = searcher;
+            this.leaves = searcher == null ? Collections.<LeafReaderContext>emptyIterator() : searcher.getIndexReader().leaves().iterator();
+        }
+
+        @Override
+        public BytesRef next() throws IOException {
+            while (true) {
+                if (leaf == null || ++doc >= leaf.maxDoc()) {
+                    if (!leaves.hasNext()) {
+                        return null;
+                    }
+                    leaf = leaves.next().reader();
+                    liveDocs = leaf.getLiveDocs();
+                    keys = DocValues.getBinary(leaf, KEY_FIELD_NAME);
+                    texts = DocValues.getBinary(leaf, TEXT_FIELD_NAME);
+                    weights = DocValues.getNumeric(leaf, "weight");
+                    payloads = DocValues.getBinary(leaf, "payloads");
+                    contexts = DocValues.getSortedSet(leaf, CONTEXTS_FIELD_NAME);
+                    doc = -1;
+                    continue;
+                }
+                if ((liveDocs != null && !liveDocs.get(doc)) || !texts.advanceExact(doc)) {
+                    continue;
+                }
+                BytesRef text = BytesRef.deepCopyOf(texts.binaryValue());
+                // Documents indexed by older versions have no key doc values
+                key = keys.advanceExact(doc) ? BytesRef.deepCopyOf(keys.binaryValue()) : null;
+                weight = weights.advanceExact(doc) ? weights.longValue() : 0;
+                payload = payloads.advanceExact(doc) ? BytesRef.deepCopyOf(payloads.binaryValue()) : new BytesRef();
+                docContexts = new HashSet<>();
+                if (contexts.advanceExact(doc)) {
+                    for (long ord = contexts.nextOrd(); ord != SortedSetDocValues.NO_MORE_ORDS; ord = contexts.nextOrd()) {
+                        docContexts.add(BytesRef.deepCopyOf(contexts.lookupOrd(ord)));
+                    }
+                }
+                return text;
+            }
+        }
+
+        @Override
+        public BytesRef key() {
+            return key;
+        }
+
+        @Override
+        public long weight() {
+            return weight;
+        }
+
+        @Override
+        public BytesRef payload() {
+            return payload;
+        }
+
+        @Override
+        public boolean hasPayloads() {
+            return true;
+        }
+
+        @Override
+        public Set<BytesRef> contexts() {
+            return docContexts;
+        }
+
+        @Override
+        public boolean hasContexts() {
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mgr != null) {
+                mgr.release(searcher);
+            }
+        }
+    }
+
+    /**
+     * A view of the suggestions in one searcher, see {@link #pin()}.
+     */
+    private static final class PinnedSearcher implements PinnedView {
+        private final SearcherManager mgr;
+        private final IndexSearcher searcher;
+        private final AutocompleteSuggester lookups;
+
+        private PinnedSearcher(@Nullable SearcherManager mgr, @Nullable IndexSearcher searcher,
+                               AutocompleteSuggester lookups) {
+            this.mgr = mgr;
+            this.searcher = searcher;
+            this.lookups = lookups;
+        }
+
+        @Override
+        public long getCount() throws IOException {
+            return lookups.getCount();
+        }
+
+        @Override
+        public List<Lookup.LookupResult> lookup(CharSequence query, @Nullable Set<BytesRef> contexts, int count,
+                                                boolean highlight) throws IOException {
+            return lookups.lookup(query, contexts, count, highlight);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                lookups.close();
+            } finally {
+                if (mgr != null) {
+                    mgr.release(searcher);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a suggester in the given directory.
+     */
+    private interface SuggesterFactory {
+        AutocompleteSuggester create(Directory dir) throws IOException;
+    }
+
+    /**
+     * A segment whose weights are computed again, the rest is read as is. It claims to be unsorted, which makes
+     * addIndexes sort the documents by their new weights as the index sort requires.
+     */
+    private static final class ReweightedReader extends FilterCodecReader {
+        private final Reweighter reweighter;
+
+        private ReweightedReader(CodecReader in, Reweighter reweighter) {
+            super(in);
+            this.reweighter = reweighter;
+        }
+
+        @Override
+        public DocValuesProducer getDocValuesReader() {
+            DocValuesProducer producer = in.getDocValuesReader();
+            return producer == null ? null : new ReweightedDocValuesProducer(producer, in.getFieldInfos(), reweighter);
+        }
+
+        @Override
+        public LeafMetaData getMetaData() {
+            LeafMetaData metaData = in.getMetaData();
+            return new LeafMetaData(metaData.getCreatedVersionMajor(), metaData.getMinVersion(), null);
+        }
+
+        @Override
+        public CacheHelper getCoreCacheHelper() {
+            return null;
+        }
+
+        @Override
+        public CacheHelper getReaderCacheHelper() {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the doc values of a segment, the weights are computed from the text and payload of each document.
+     */
+    private static final class ReweightedDocValuesProducer extends DocValuesProducer {
+        private final DocValuesProducer in;
+        private final FieldInfos fieldInfos;
+        private final Reweighter reweighter;
+
+        private ReweightedDocValuesProducer(DocValuesProducer in, FieldInfos fieldInfos, Reweighter reweighter) {
+            this.in = in;
+            this.fieldInfos = fieldInfos;
+            this.reweighter = reweighter;
+        }
+
+        @Override
+        public NumericDocValues getNumeric(FieldInfo field) throws IOException {
+            NumericDocValues weights = in.getNumeric(field);
+            if (!"weight".equals(field.name)) {
+                return weights;
+            }
+            FieldInfo textField = fieldInfos.fieldInfo(TEXT_FIELD_NAME);
+            FieldInfo payloadField = fieldInfos.fieldInfo("payloads");
+            BinaryDocValues texts = textField != null ? in.getBinary(textField) : DocValues.emptyBinary();
+            BinaryDocValues payloads = payloadField != null ? in.getBinary(payloadField) : DocValues.emptyBinary();
+            return new NumericDocValues() {
+                private int weightDoc = -1;
+                private long weight;
+
+                @Override
+                public long longValue() throws IOException {
+                    // Computed once per document, the doc values of the text and payload can't go back
+                    int doc = weights.docID();
+                    if (doc != weightDoc) {
+                        BytesRef text = texts.advanceExact(doc) ? texts.binaryValue() : new BytesRef();
+                        BytesRef payload = payloads.advanceExact(doc) ? payloads.binaryValue() : new BytesRef();
+                        weight = reweighter.weight(text, payload, weights.longValue());
+                        weightDoc = doc;
+                    }
+                    return weight;
+                }
+
+                @Override
+                public boolean advanceExact(int target) throws IOException {
+                    return weights.advanceExact(target);
+                }
+
+                @Override
+                public int docID() {
+                    return weights.docID();
+                }
+
+                @Override
+                public int nextDoc() throws IOException {
+                    return weights.nextDoc();
+                }
+
+                @Override
+                public int advance(int target) throws IOException {
+                    return weights.advance(target);
+                }
+
+                @Override
+                public long cost() {
+                    return weights.cost();
+                }
+            };
+        }
+
+        @Override
+        public BinaryDocValues getBinary(FieldInfo field) throws IOException {
+            return in.getBinary(field);
+        }
+
+        @Override
+        public SortedDocValues getSorted(FieldInfo field) throws IOException {
+            return in.getSorted(field);
+        }
+
+        @Override
+        public SortedNumericDocValues getSortedNumeric(FieldInfo field) throws IOException {
+            return in.getSortedNumeric(field);
+        }
+
+        @Override
+        public SortedSetDocValues getSortedSet(FieldInfo field) throws IOException {
+            return in.getSortedSet(field);
+        }
+
+        @Override
+        public void checkIntegrity() throws IOException {
+            in.checkIntegrity();
+        }
+
+        @Override
+        public void close() {
+            // The producer belongs to the segment that is copied
+        }
+
+        @Override
+        public long ramBytesUsed() {
+            return in.ramBytesUsed();
+        }
+    }
+
+    Document buildDocument(BytesRef key, BytesRef text, Set<BytesRef> contexts, long weight, BytesRef payload) {
+        // Code copied from super (where it's private) so we can add the key field, check for changes upstream when you
+        // update the Lucene version
+        String textString = text.utf8ToString();
+        Document doc = new Document();
+        FieldType ft = getTextFieldType();
+        doc.add(new Field(TEXT_FIELD_NAME, textString, ft));
+        if (minPrefixChars > 0) {
+            doc.add(new Field(TEXTGRAMS_FIELD_NAME, textString, ft));
+        }
+        doc.add(new StringField(EXACT_TEXT_FIELD_NAME, textString, Field.Store.NO));
+        doc.add(new BinaryDocValuesField(TEXT_FIELD_NAME, text));
+        doc.add(new NumericDocValuesField("weight", weight));
+        if (payload != null) {
+            doc.add(new BinaryDocValuesField("payloads", payload));
+        }
+        if (contexts != null) {
+            for (BytesRef context : contexts) {
+                doc.add(new StringField(CONTEXTS_FIELD_NAME, context, Field.Store.NO));
+                doc.add(new SortedSetDocValuesField(CONTEXTS_FIELD_NAME, context));
+            }
+        }
+        doc.add(new StringField(KEY_FIELD_NAME, key, Field.Store.NO));
+        // Lets the suggestions be read back with their keys, e.g. to change their weights
+        doc.add(new BinaryDocValuesField(KEY_FIELD_NAME, key));
+        return doc;
+    }
+
+    private void ensureWriterOpen() throws IOException {
+        // Code copied from super (where it's private), check for changes upstream when you update the Lucene version
+        synchronized (searcherMgrLock) {
+            if (writer == null) {
+                IndexWriterConfig.OpenMode openMode = DirectoryReader.indexExists(dir)
+                        ? IndexWriterConfig.OpenMode.APPEND : IndexWriterConfig.OpenMode.CREATE;
+                writer = new IndexWriter(dir, getIndexWriterConfig(getGramAnalyzer(), openMode));
+                SearcherManager oldSearcherMgr = searcherMgr;
+                searcherMgr = new SearcherManager(writer, null);
+                if (oldSearcherMgr != null) {
+                    oldSearcherMgr.close();
+                }
+            }
+        }
+    }
+
+    private Analyzer getGramAnalyzer() {
+        // Code copied from super (where it's private), check for changes upstream when you update the Lucene version
+        return new AnalyzerWrapper(Analyzer.PER_FIELD_REUSE_STRATEGY) {
+            @Override
+            protected Analyzer getWrappedAnalyzer(String fieldName) {
+                return indexAnalyzer;
+            }
+
+            @Override
+            protected TokenStreamComponents wrapComponents(String fieldName, TokenStreamComponents components) {
+                if (minPrefixChars > 0 && fieldName.equals(TEXTGRAMS_FIELD_NAME)) {
+                    TokenFilter filter = new EdgeNGramTokenFilter(components.getTokenStream(), 1, minPrefixChars, false);
+                    return new TokenStreamComponents(components.getSource(), filter);
+                } else {
+                    return components;
+                }
+            }
+        };
+    }
+
     @Override
     protected void addPrefixMatch(StringBuilder sb, String surface, String analyzed, String prefixToken) {
+        appendPrefixMatch(sb, surface, prefixToken);
+    }
+
+    @Override
+    protected void addWholeMatch(StringBuilder sb, String surface, String analyzed) {
+        appendWholeMatch(sb, surface);
+    }
+
+    private static void appendPrefixMatch(StringBuilder sb, String surface, String prefixToken) {
         // Code copied from super so we can use another tag instead of <b>, check for changes upstream when you
         // update the Lucene version
         if (prefixToken.length() >= surface.length()) {
-            addWholeMatch(sb, surface, analyzed);
+            appendWholeMatch(sb, surface);
             return;
         }
         sb.append(getOpeningHighlightTag());
@@ -49,8 +816,7 @@ public class AutocompleteSuggester extends BlendedInfixSuggester {
         sb.append(surface.substring(prefixToken.length()));
     }
 
-    @Override
-    protected void addWholeMatch(StringBuilder sb, String surface, String analyzed) {
+    private static void appendWholeMatch(StringBuilder sb, String surface) {
         // Code copied from super so we can use another tag instead of <b>, check for changes upstream when you
         // update the Lucene version
         sb.append(getOpeningHighlightTag());
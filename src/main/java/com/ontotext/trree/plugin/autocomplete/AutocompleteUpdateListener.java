@@ -1,15 +1,19 @@
 package com.ontotext.trree.plugin.autocomplete;
 
 import com.ontotext.trree.sdk.*;
-import gnu.trove.TLongObjectHashMap;
+import gnu.trove.TLongHashSet;
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 /**
  * Created by desislava on 11/11/15.
@@ -18,21 +22,33 @@ class AutocompleteUpdateListener implements EntityListener, PluginTransactionLis
 
     private boolean newEntitiesAdded = false;
 
+    // Transactions with more pending updates than this are indexed right away to bound the memory use
+    private static final int MAX_PENDING_UPDATES = 100_000;
+
+    // The updates of the current transaction, indexed when it's committed
+    private final TransactionUpdates transactionUpdates = new TransactionUpdates();
+
+    // Entities of the current transaction whose updates were indexed early, reindexed if the transaction is aborted
+    private final TLongHashSet flushedEntityIds = new TLongHashSet();
+
     private static final Logger LOGGER = LoggerFactory.getLogger(AutocompleteUpdateListener.class);
 
     private final AutocompletePlugin plugin;
 
-    // If entities are added while index rebuilding, we just save them and add them afterwards
+    // If entities are added while index rebuilding, we just save them and add them afterwards.
+    // All of this is guarded by the listener.
+    private boolean capturingWhileBuilding;
+
     private long firstEntityAddedWhileBuilding;
 
-    private TLongObjectHashMap<String> labelsAddedWhileBuilding;
+    private List<LabelUpdate> labelsAddedWhileBuilding;
 
     private final Map<IRI, LabelConfig> unresolvedLabelConfigs;
 
     private boolean shutDownInitiated = false;
     public AutocompleteUpdateListener(AutocompletePlugin plugin) {
         this.plugin = plugin;
-        this.labelsAddedWhileBuilding = new TLongObjectHashMap<>();
+        this.labelsAddedWhileBuilding = new ArrayList<>();
         this.unresolvedLabelConfigs = new HashMap<>();
     }
 
@@ -62,35 +78,66 @@ class AutocompleteUpdateListener implements EntityListener, PluginTransactionLis
                 return;
             }
 
-            if (plugin.autocompleteIndex.status() == IndexStatus.BUILDING) {
-                if (firstEntityAddedWhileBuilding == 0) {
-                    firstEntityAddedWhileBuilding = id;
-                }
-                //System.out.println("During build " + value);
-            } else {
-                //System.out.println("After build " + value);
+            if (!captureEntityWhileBuilding(id)) {
                 newEntitiesAdded = true;
-                plugin.autocompleteIndex.index(id, (IRI) value);
+                transactionUpdates.addIRI(id, (IRI) value);
+                flushIfTooManyPending(pluginConnection);
             }
         }
     }
 
 
 
+    private void flushIfTooManyPending(PluginConnection pluginConnection) {
+        if (transactionUpdates.size() >= MAX_PENDING_UPDATES) {
+            transactionUpdates.collectEntityIds(flushedEntityIds);
+            plugin.autocompleteIndex.index(transactionUpdates, pluginConnection.getEntities(),
+                    pluginConnection.getStatements());
+            transactionUpdates.clear();
+        }
+    }
+
+    private synchronized boolean captureEntityWhileBuilding(long id) {
+        if (!capturingWhileBuilding) {
+            return false;
+        }
+        if (firstEntityAddedWhileBuilding == 0) {
+            firstEntityAddedWhileBuilding = id;
+        }
+        return true;
+    }
+
+    private synchronized boolean captureLabelWhileBuilding(LabelUpdate update) {
+        if (!capturingWhileBuilding) {
+            return false;
+        }
+        labelsAddedWhileBuilding.add(update);
+        return true;
+    }
+
     @Override
     public void transactionCommit(PluginConnection pluginConnection) {
-        checkForEntitiesAddedWhileBuilding(pluginConnection.getEntities());
+        if (plugin.autocompleteIndex != null && !isCapturingWhileBuilding()) {
+            // While building, the saved entities are indexed into the new index right before it is swapped in.
+            // What is left here was not visible then or was saved by a build that was not swapped in.
+            checkForEntitiesAddedWhileBuilding(pluginConnection);
+        }
         if (!newEntitiesAdded) {
             return;
         }
         if (plugin.autocompleteIndex == null) {
+            transactionUpdates.clear();
             return;
         }
         try {
+            plugin.autocompleteIndex.index(transactionUpdates, pluginConnection.getEntities(),
+                    pluginConnection.getStatements());
             plugin.autocompleteIndex.commitAndRefresh();
         } catch (IOException e) {
             throw new PluginException("Could not commit autocomplete index", e);
         } finally {
+            transactionUpdates.clear();
+            flushedEntityIds.clear();
             newEntitiesAdded = false;
         }
 
@@ -105,7 +152,7 @@ class AutocompleteUpdateListener implements EntityListener, PluginTransactionLis
                     return false;
                 }
 
-                updateLabel(subject, object, labelConfig, pluginConnection.getEntities());
+                updateLabel(subject, object, labelConfig, pluginConnection, false);
             }
         }
         return false;
@@ -120,21 +167,24 @@ class AutocompleteUpdateListener implements EntityListener, PluginTransactionLis
                     return false;
                 }
 
-                updateLabel(0, object, labelConfig, pluginConnection.getEntities());
+                updateLabel(subject, object, labelConfig, pluginConnection, true);
             }
         }
         return false;
     }
 
-    private void updateLabel(long subject, long object, LabelConfig labelConfig, Entities entities) {
+    private void updateLabel(long subject, long object, LabelConfig labelConfig, PluginConnection pluginConnection,
+                             boolean isRemoval) {
+        Entities entities = pluginConnection.getEntities();
         String language = entities.getLanguage(object);
         if (labelConfig.languageMatches(language)) {
-            String label = entities.get(object).stringValue();
-            if (plugin.autocompleteIndex.status() == IndexStatus.BUILDING) {
-                labelsAddedWhileBuilding.put(subject, label);
-            } else {
+            LabelUpdate update = new LabelUpdate(subject, labelConfig.labelId, entities.get(object).stringValue(), isRemoval);
+            if (!captureLabelWhileBuilding(update)) {
+                // Flushed before this update is added, the statement of a removal may still be in the repository
+                // until the listener returns and the removal of a label checks that no statement has it anymore
+                flushIfTooManyPending(pluginConnection);
                 newEntitiesAdded = true;
-                plugin.autocompleteIndex.index(subject, label);
+                transactionUpdates.updateLabel(update);
             }
         }
     }
@@ -150,43 +200,124 @@ class AutocompleteUpdateListener implements EntityListener, PluginTransactionLis
 
     @Override
     public void transactionAborted(PluginConnection pluginConnection) {
-        if (!newEntitiesAdded) {
-            return;
-        }
-        if (plugin.autocompleteIndex == null) {
+        // The pending updates never reached the index so we just drop them
+        transactionUpdates.clear();
+        newEntitiesAdded = false;
+        if (flushedEntityIds.isEmpty()) {
             return;
         }
         try {
-            plugin.autocompleteIndex.rollback();
+            if (plugin.autocompleteIndex != null) {
+                // Undo the updates that were indexed early by reindexing their entities from the repository
+                plugin.autocompleteIndex.reindex(flushedEntityIds, pluginConnection.getEntities(),
+                        pluginConnection.getStatements());
+            }
         } catch (IOException e) {
-            LOGGER.debug("Could not rollback autocomplete index when transaction was aborted", e);
+            LOGGER.error("Could not undo the autocomplete updates of the aborted transaction", e);
         } finally {
-            newEntitiesAdded = false;
+            flushedEntityIds.clear();
         }
     }
 
-    private void checkForEntitiesAddedWhileBuilding(Entities entities) {
+    private void checkForEntitiesAddedWhileBuilding(PluginConnection pluginConnection) {
+        Entities entities = pluginConnection.getEntities();
+        long firstEntity;
+        List<LabelUpdate> labels;
+        synchronized (this) {
+            firstEntity = firstEntityAddedWhileBuilding;
+            labels = labelsAddedWhileBuilding;
+            // reset the tracking variables
+            firstEntityAddedWhileBuilding = 0;
+            if (!labels.isEmpty()) {
+                labelsAddedWhileBuilding = new ArrayList<>();
+            }
+        }
+
         // Add the entities that were added while we were building
-        if (firstEntityAddedWhileBuilding > 0) {
-            while (firstEntityAddedWhileBuilding <= entities.size()) {
-                Value value = entities.get(firstEntityAddedWhileBuilding);
+        if (firstEntity > 0) {
+            while (firstEntity <= entities.size()) {
+                Value value = entities.get(firstEntity);
                 if (value instanceof IRI) {
                     newEntitiesAdded = true;
-                    plugin.autocompleteIndex.index(firstEntityAddedWhileBuilding, (IRI) value);
+                    plugin.autocompleteIndex.index(firstEntity, (IRI) value);
                     // System.out.println("Index entity saved while building " + value);
                 }
 
-                firstEntityAddedWhileBuilding++;
+                firstEntity++;
+            }
+        }
+
+        if (!labels.isEmpty()) {
+            newEntitiesAdded = true;
+            for (LabelUpdate label : labels) {
+                plugin.autocompleteIndex.index(label, entities, pluginConnection.getStatements());
+            }
+        }
+    }
+
+    /**
+     * Starts saving the entities and labels that are added from now on, they are indexed into the index that is
+     * being built by {@link #indexAddedWhileBuilding(Entities, BiConsumer, Consumer, boolean)}.
+     */
+    synchronized void startCapturingWhileBuilding() {
+        capturingWhileBuilding = true;
+    }
+
+    /**
+     * Stops saving the added entities and labels, e.g. when the build failed. Those already saved are indexed
+     * into the current index by the next transaction commit.
+     */
+    synchronized void stopCapturingWhileBuilding() {
+        capturingWhileBuilding = false;
+    }
+
+    private synchronized boolean isCapturingWhileBuilding() {
+        return capturingWhileBuilding;
+    }
+
+    /**
+     * Indexes the entities and labels that were added while the index was building into the rebuilt index.
+     * Called by the build while building and, as the last call, right before the rebuilt index is swapped in,
+     * which also stops saving the updates so the following ones are indexed by their own transactions. Entities
+     * that are not yet visible through the given {@link Entities} are left for
+     * {@link #transactionCommit(PluginConnection)}.
+     */
+    void indexAddedWhileBuilding(Entities entities, BiConsumer<Long, IRI> iriIndexer,
+                                 Consumer<LabelUpdate> labelIndexer, boolean last) {
+        long firstEntity;
+        List<LabelUpdate> labels;
+        synchronized (this) {
+            if (last) {
+                capturingWhileBuilding = false;
             }
-            // reset the tracking variable
+            firstEntity = firstEntityAddedWhileBuilding;
+            labels = labelsAddedWhileBuilding;
             firstEntityAddedWhileBuilding = 0;
+            if (!labels.isEmpty()) {
+                labelsAddedWhileBuilding = new ArrayList<>();
+            }
+        }
+
+        if (firstEntity > 0) {
+            while (firstEntity <= entities.size()) {
+                Value value = entities.get(firstEntity);
+                if (value instanceof IRI) {
+                    iriIndexer.accept(firstEntity, (IRI) value);
+                }
+
+                firstEntity++;
+            }
+
+            // Anything after what we could see here will be picked up on the next commit
+            synchronized (this) {
+                if (firstEntityAddedWhileBuilding == 0 || firstEntityAddedWhileBuilding > firstEntity) {
+                    firstEntityAddedWhileBuilding = firstEntity;
+                }
+            }
         }
 
-        if (!labelsAddedWhileBuilding.isEmpty()) {
-            labelsAddedWhileBuilding.forEachEntry((id, label) -> {
-                plugin.autocompleteIndex.index(id, label); return true;
-            });
-            labelsAddedWhileBuilding = new TLongObjectHashMap<>();
+        for (LabelUpdate label : labels) {
+            labelIndexer.accept(label);
         }
     }
 
@@ -0,0 +1,59 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import com.ontotext.trree.sdk.Entities;
+import com.ontotext.trree.sdk.StatementIterator;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Returns the results of a batch query as statements with the entity as subject and a literal with the query line
+ * that found it and the highlighted text as context. The two are separated by a new line, which a query line can't
+ * have. The literal is put in the entities only when its statement is read.
+ */
+class BatchResultStatementIterator extends StatementIterator {
+    private static final ValueFactory VF = SimpleValueFactory.getInstance();
+
+    // Between the query line and the highlighted text in the context
+    static final String SEPARATOR = "\n";
+
+    private final List<String> queries;
+    private final List<Collection<AutocompleteIndex.Result>> results;
+    private final Entities entities;
+    private int queryIndex = -1;
+    private Iterator<AutocompleteIndex.Result> queryResults = Collections.emptyIterator();
+
+    /**
+     * @param results the results of each query, in the order of the queries
+     */
+    BatchResultStatementIterator(List<String> queries, List<Collection<AutocompleteIndex.Result>> results,
+                                 long predicate, long object, Entities entities) {
+        this.queries = queries;
+        this.results = results;
+        this.entities = entities;
+        this.predicate = predicate;
+        this.object = object;
+    }
+
+    @Override
+    public boolean next() {
+        while (!queryResults.hasNext()) {
+            if (++queryIndex >= results.size()) {
+                return false;
+            }
+            queryResults = results.get(queryIndex).iterator();
+        }
+        AutocompleteIndex.Result result = queryResults.next();
+        subject = result.id;
+        context = entities.put(VF.createLiteral(queries.get(queryIndex) + SEPARATOR + result.highlight), Entities.Scope.REQUEST);
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -12,21 +12,24 @@ import java.util.Set;
 /**
  * Combines multiple InputIterators into a single virtual InputIterator.
  */
-public class CompositeInputIterator implements InputIterator, Closeable, AutoCloseable {
-    private Collection<InputIterator> delegates;
-    private Iterator<InputIterator> delegatesIterator;
-    private InputIterator delegate;
+public class CompositeInputIterator implements AutocompleteInputIterator, Closeable, AutoCloseable {
+    private Collection<? extends AutocompleteInputIterator> delegates;
+    private Iterator<? extends AutocompleteInputIterator> delegatesIterator;
+    private AutocompleteInputIterator delegate;
 
-    CompositeInputIterator(Collection<InputIterator> delegates) {
+    CompositeInputIterator(Collection<? extends AutocompleteInputIterator> delegates) {
         this.delegates = delegates;
         delegatesIterator = delegates.iterator();
         if (delegatesIterator.hasNext()) {
             delegate = delegatesIterator.next();
-        } else {
-            delegate = InputIterator.EMPTY;
         }
     }
 
+    @Override
+    public BytesRef key() {
+        return delegate.key();
+    }
+
     @Override
     public long weight() {
         return delegate.weight();
@@ -54,6 +57,9 @@ public class CompositeInputIterator implements InputIterator, Closeable, AutoClo
 
     @Override
     public BytesRef next() throws IOException {
+        if (delegate == null) {
+            return null;
+        }
         BytesRef next = delegate.next();
         if (next == null && delegatesIterator.hasNext()) {
             delegate = delegatesIterator.next();
@@ -1,8 +1,8 @@
 package com.ontotext.trree.plugin.autocomplete;
 
 import com.ontotext.trree.sdk.Entities;
-import org.apache.lucene.search.suggest.InputIterator;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Value;
 
@@ -12,27 +12,47 @@ import java.util.Set;
 /**
  * Created by desislava on 12/11/15.
  */
-class EntitiesIterator implements InputIterator {
+class EntitiesIterator implements AutocompleteInputIterator {
 
     private final Entities entities;
-    private long currentIteratorIndex = 0L;
+    private final long lastId;
+    private long currentIteratorIndex;
     private IRI currentURI;
     private String currentLocalName;
     private final AutocompleteIndex autocompleteIndex;
 
+    // Reused for every entity, the backends copy what they keep before the next one
+    private final BytesRefBuilder text = new BytesRefBuilder();
+    private final BytesRefBuilder key = new BytesRefBuilder();
+    private final BytesRefBuilder payload = new BytesRefBuilder();
+
     EntitiesIterator(Entities entities, AutocompleteIndex autocompleteIndex) {
+        this(entities, autocompleteIndex, 1, Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates an iterator that walks only the entity ids in the range [firstId, lastId].
+     */
+    EntitiesIterator(Entities entities, AutocompleteIndex autocompleteIndex, long firstId, long lastId) {
         this.autocompleteIndex = autocompleteIndex;
         this.entities = entities;
+        this.currentIteratorIndex = firstId - 1;
+        this.lastId = lastId;
     }
 
     @Override
     public long weight() {
-        return autocompleteIndex.getWeight(currentIteratorIndex, currentLocalName);
+        return autocompleteIndex.getRebuiltWeight(currentIteratorIndex, currentLocalName);
+    }
+
+    @Override
+    public BytesRef key() {
+        return autocompleteIndex.getDocumentKey(currentIteratorIndex, 0, text.get(), key);
     }
 
     @Override
     public BytesRef payload() {
-        return autocompleteIndex.getEntityIDAsPayload(currentIteratorIndex, false);
+        return autocompleteIndex.getEntityIDAsPayload(currentIteratorIndex, false, payload);
     }
 
     @Override
@@ -52,14 +72,15 @@ class EntitiesIterator implements InputIterator {
 
     @Override
     public BytesRef next() throws IOException {
-        while (++currentIteratorIndex <= entities.size() && !autocompleteIndex.isShouldInterrupt()) {
+        while (++currentIteratorIndex <= Math.min(lastId, entities.size()) && !autocompleteIndex.isShouldInterrupt()) {
             Value v = entities.get(currentIteratorIndex);
             if (v instanceof IRI) {
                 if (!AutocompleteIndex.SPECIAL_ENTITIES.contains(v.stringValue())) {
                     currentURI = (IRI) v;
                     currentLocalName = currentURI.getLocalName();
 
-                    return new BytesRef(currentLocalName);
+                    text.copyChars(currentLocalName);
+                    return text.get();
                 }
             }
         }
@@ -0,0 +1,90 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+
+/**
+ * The payload of a suggestion: the entity it suggests and whether its text is a label.
+ * <p>
+ * A payload starts with a header byte with the high bit set and the format version in the low bits, followed by
+ * the entity id shifted left by one with the label flag in the lowest bit, as an unsigned varint (7 bits per byte,
+ * least significant first). A later format would get a new version in the header.
+ * <p>
+ * Indexes built by older versions have a legacy payload of 9 bytes: the id as a big-endian long followed by the
+ * label flag. Its first byte is the highest byte of a non-negative id, so it never has the high bit set.
+ * Suggestions without an entity (deleted labels in indexes built before labels were really deleted) have an empty
+ * payload.
+ */
+final class EntityPayload {
+    private static final int VERSION = 1;
+    private static final int VERSIONED = 0x80;
+
+    private static final int LEGACY_LENGTH = Long.BYTES + 1;
+
+    private EntityPayload() {
+    }
+
+    /**
+     * Writes the payload into the given scratch, which is cleared first. The returned payload is valid until the
+     * scratch is used again.
+     */
+    static BytesRef write(long id, boolean isLabel, BytesRefBuilder scratch) {
+        scratch.clear();
+        scratch.append((byte) (VERSIONED | VERSION));
+        writeVLong(scratch, id << 1 | (isLabel ? 1 : 0));
+        return scratch.get();
+    }
+
+    /**
+     * Checks whether the payload names an entity, see the class comment for the payloads that don't.
+     */
+    static boolean hasEntity(BytesRef payload) {
+        return payload.length > 0 && (isVersioned(payload) || payload.length == LEGACY_LENGTH);
+    }
+
+    static long entityId(BytesRef payload) {
+        return isVersioned(payload) ? readIdAndFlag(payload) >>> 1 : readLegacyId(payload);
+    }
+
+    static boolean isLabel(BytesRef payload) {
+        return isVersioned(payload)
+                ? (readIdAndFlag(payload) & 1) != 0
+                : payload.bytes[payload.offset + Long.BYTES] != 0;
+    }
+
+    private static boolean isVersioned(BytesRef payload) {
+        return (payload.bytes[payload.offset] & VERSIONED) != 0;
+    }
+
+    private static long readIdAndFlag(BytesRef payload) {
+        return readVLong(payload.bytes, payload.offset + 1, payload.offset + payload.length);
+    }
+
+    private static long readLegacyId(BytesRef payload) {
+        long id = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            id = (id << 8) | (payload.bytes[payload.offset + i] & 0xFF);
+        }
+        return id;
+    }
+
+    private static long readVLong(byte[] bytes, int position, int end) {
+        long value = 0;
+        for (int shift = 0; position < end; shift += 7) {
+            byte b = bytes[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Truncated payload");
+    }
+
+    private static void writeVLong(BytesRefBuilder scratch, long value) {
+        while ((value & ~0x7FL) != 0) {
+            scratch.append((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        scratch.append((byte) value);
+    }
+}
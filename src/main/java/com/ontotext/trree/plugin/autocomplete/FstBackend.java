@@ -0,0 +1,356 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The FST backend: another backend whose plain prefix lookups without contexts are served by an {@link FstLookup}
+ * built from its suggestions. The FST is built in the background only after the index is built or reweighted
+ * (see {@link #rebuildFst()}) and is only used while it's up to date. The incremental updates are served by
+ * the other backend until the next build, as are all other lookups and all changes.
+ * <p>
+ * The FST is saved next to the index directory (see {@link #getFstFile}) so it's not rebuilt on every start and
+ * survives the swap of a rebuilt index. The file is deleted before the first change after it was saved, so a saved
+ * FST always matches the committed index.
+ */
+class FstBackend implements AutocompleteBackend {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FstBackend.class);
+
+    private static final String FST_FILE_SUFFIX = ".fst";
+
+    private final AutocompleteBackend delegate;
+    private final Analyzer analyzer;
+    private final FSDirectory dir;
+    private final Path fstFile;
+
+    private volatile FstLookup fst;
+
+    // Every change gets a version, visibleVersion is the last one that was made visible by a refresh. The generation
+    // is bumped by refreshes that make new changes visible. All are guarded by versionLock.
+    private final Object versionLock = new Object();
+    private long version;
+    private long visibleVersion;
+    private volatile long generation;
+    private boolean hasFile;
+
+    private final ExecutorService builder = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "autocomplete-fst");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Future<?> scheduledBuild;
+
+    /**
+     * @param fstFile where the FST is saved, outside the directory of the other backend
+     */
+    FstBackend(AutocompleteBackend delegate, Analyzer analyzer, Path fstFile) throws IOException {
+        this.delegate = delegate;
+        this.analyzer = analyzer;
+        this.dir = FSDirectory.open(fstFile.getParent());
+        this.fstFile = fstFile;
+        if (Files.exists(fstFile)) {
+            try {
+                fst = FstLookup.load(generation, dir, fstFile.getFileName().toString(), analyzer);
+                hasFile = true;
+                LOGGER.info("Loaded the autocomplete FST");
+            } catch (IOException e) {
+                LOGGER.warn("Could not load the autocomplete FST, it will be built with the next index build", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the file of the FST of the index in the given directory, a sibling of the directory.
+     */
+    static Path getFstFile(Path indexDir) {
+        return indexDir.resolveSibling(indexDir.getFileName() + FST_FILE_SUFFIX);
+    }
+
+    /**
+     * Checks whether plain prefix lookups are served by an FST that is up to date.
+     */
+    boolean hasCurrentFst() {
+        return currentFst() != null;
+    }
+
+    @Override
+    public void build(InputIterator iterator) throws IOException {
+        long buildVersion = beforeChange();
+        delegate.build(iterator);
+        afterRefresh(buildVersion);
+        rebuildFst();
+    }
+
+    /**
+     * Builds the FST from the visible suggestions in the background, called after the index was built or reweighted.
+     * The lookups are served by the other backend until it's built.
+     */
+    void rebuildFst() {
+        synchronized (builder) {
+            if (scheduledBuild == null || scheduledBuild.isDone()) {
+                scheduledBuild = builder.submit(this::buildFst);
+            }
+        }
+    }
+
+    @Override
+    public void add(BytesRef key, BytesRef text, @Nullable Set<BytesRef> contexts, long weight, BytesRef payload) throws IOException {
+        beforeChange();
+        delegate.add(key, text, contexts, weight, payload);
+    }
+
+    @Override
+    public void update(BytesRef key, BytesRef text, @Nullable Set<BytesRef> contexts, long weight, BytesRef payload) throws IOException {
+        beforeChange();
+        delegate.update(key, text, contexts, weight, payload);
+    }
+
+    @Override
+    public void addAll(Collection<BytesRef> replacedKeys, List<Suggestion> suggestions) throws IOException {
+        beforeChange();
+        delegate.addAll(replacedKeys, suggestions);
+    }
+
+    @Override
+    public void delete(BytesRef key) throws IOException {
+        beforeChange();
+        delegate.delete(key);
+    }
+
+    @Override
+    public void deleteByKeyPrefix(BytesRef keyPrefix) throws IOException {
+        beforeChange();
+        delegate.deleteByKeyPrefix(keyPrefix);
+    }
+
+    @Override
+    public boolean addReweighted(AutocompleteBackend source, Reweighter reweighter) throws IOException {
+        beforeChange();
+        return delegate.addReweighted(source instanceof FstBackend ? ((FstBackend) source).delegate : source, reweighter);
+    }
+
+    @Override
+    public void commit() throws IOException {
+        delegate.commit();
+    }
+
+    @Override
+    public void refresh() throws IOException {
+        long refreshedVersion;
+        synchronized (versionLock) {
+            refreshedVersion = version;
+        }
+        delegate.refresh();
+        afterRefresh(refreshedVersion);
+    }
+
+    @Override
+    public void rollback() throws IOException {
+        // The lookups see another state afterwards, just like after a change and a refresh
+        long rollbackVersion = beforeChange();
+        delegate.rollback();
+        afterRefresh(rollbackVersion);
+    }
+
+    @Override
+    public void compactIfNeeded() throws IOException {
+        delegate.compactIfNeeded();
+    }
+
+    @Override
+    public long getCount() throws IOException {
+        return delegate.getCount();
+    }
+
+    @Override
+    public List<Lookup.LookupResult> lookup(CharSequence query, @Nullable Set<BytesRef> contexts, int count) throws IOException {
+        return lookup(query, contexts, count, true);
+    }
+
+    /**
+     * The results served by the FST are always highlighted.
+     */
+    @Override
+    public List<Lookup.LookupResult> lookup(CharSequence query, @Nullable Set<BytesRef> contexts, int count,
+                                            boolean highlight) throws IOException {
+        return lookup(currentFst(), delegate, query, contexts, count, highlight);
+    }
+
+    /**
+     * Pins the suggestions of the other backend, the FST keeps serving the lookups of the view if it was up to date.
+     */
+    @Override
+    public PinnedView pin() throws IOException {
+        PinnedView pinned = delegate.pin();
+        FstLookup pinnedFst = currentFst();
+        return new PinnedView() {
+            @Override
+            public long getCount() throws IOException {
+                return pinned.getCount();
+            }
+
+            @Override
+            public List<Lookup.LookupResult> lookup(CharSequence query, @Nullable Set<BytesRef> contexts, int count,
+                                                    boolean highlight) throws IOException {
+                return FstBackend.this.lookup(pinnedFst, pinned, query, contexts, count, highlight);
+            }
+
+            @Override
+            public void close() throws IOException {
+                pinned.close();
+            }
+        };
+    }
+
+    @Nullable
+    private FstLookup currentFst() {
+        FstLookup current = fst;
+        return current != null && current.generation == generation ? current : null;
+    }
+
+    private List<Lookup.LookupResult> lookup(@Nullable FstLookup current, LookupView suggestions, CharSequence query,
+                                             @Nullable Set<BytesRef> contexts, int count,
+                                             boolean highlight) throws IOException {
+        if (current != null && (contexts == null || contexts.isEmpty()) && query.length() > 0) {
+            List<Lookup.LookupResult> results = current.lookup(delegate, query.toString(), count);
+            if (results != null) {
+                results.sort(AutocompleteIndex.LOOKUP_RESULT_ORDER);
+                return results;
+            }
+        }
+        return suggestions.lookup(query, contexts, count, highlight);
+    }
+
+    @Override
+    public AnalyzedQuery analyzeQuery(String query) throws IOException {
+        return delegate.analyzeQuery(query);
+    }
+
+    @Override
+    public Lookup.LookupResult rematch(Lookup.LookupResult suggestion, long weight, AnalyzedQuery query) throws IOException {
+        return delegate.rematch(suggestion, weight, query);
+    }
+
+    @Override
+    public Suggestions suggestions() throws IOException {
+        return delegate.suggestions();
+    }
+
+    @Override
+    public void close() throws IOException {
+        builder.shutdownNow();
+        try {
+            delegate.close();
+        } finally {
+            dir.close();
+        }
+    }
+
+    /**
+     * Called before every change, the saved FST no longer matches the index after that.
+     */
+    private long beforeChange() throws IOException {
+        synchronized (versionLock) {
+            version++;
+            if (hasFile) {
+                Files.deleteIfExists(fstFile);
+                hasFile = false;
+            }
+            return version;
+        }
+    }
+
+    /**
+     * The FST no longer serves lookups once a refresh makes new changes visible, the other backend serves them until
+     * the FST is built again.
+     */
+    private void afterRefresh(long refreshedVersion) {
+        synchronized (versionLock) {
+            if (refreshedVersion <= visibleVersion) {
+                // Nothing new became visible
+                return;
+            }
+            visibleVersion = refreshedVersion;
+            generation++;
+        }
+    }
+
+    /**
+     * Builds the FST from the current suggestions and saves it, unless they changed in the meantime.
+     */
+    private void buildFst() {
+        synchronized (builder) {
+            // Another build may be requested while this one runs
+            scheduledBuild = null;
+        }
+        long buildGeneration;
+        long buildVersion;
+        boolean allVisible;
+        synchronized (versionLock) {
+            buildGeneration = generation;
+            buildVersion = version;
+            allVisible = version == visibleVersion;
+        }
+
+        try {
+            if (delegate.getCount() == 0) {
+                // Nothing to build from, e.g. a new index that is being built
+                return;
+            }
+            FstLookup built;
+            try (Suggestions suggestions = delegate.suggestions()) {
+                built = FstLookup.build(buildGeneration, dir, analyzer, suggestions);
+            }
+            synchronized (versionLock) {
+                if (buildGeneration != generation) {
+                    return;
+                }
+                fst = built;
+            }
+            LOGGER.info("Built the autocomplete FST");
+            // Only an FST that has all changes is saved, it must match the index after a restart
+            if (allVisible) {
+                saveFst(built, buildVersion);
+            }
+        } catch (AlreadyClosedException e) {
+            // The backend was closed while building
+            LOGGER.debug("Building the autocomplete FST was interrupted", e);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Could not build the autocomplete FST", e);
+        }
+    }
+
+    private void saveFst(FstLookup built, long buildVersion) throws IOException {
+        Path tmpFstFile = fstFile.resolveSibling(fstFile.getFileName() + ".tmp");
+        Files.deleteIfExists(tmpFstFile);
+        built.store(dir, tmpFstFile.getFileName().toString());
+        dir.sync(Collections.singleton(tmpFstFile.getFileName().toString()));
+        synchronized (versionLock) {
+            if (buildVersion == version) {
+                Files.move(tmpFstFile, fstFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                hasFile = true;
+                return;
+            }
+        }
+        Files.deleteIfExists(tmpFstFile);
+    }
+}
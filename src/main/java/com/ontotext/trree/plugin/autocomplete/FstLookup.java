@@ -0,0 +1,312 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.search.suggest.analyzing.AnalyzingSuggester;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.ByteArrayDataOutput;
+import org.apache.lucene.store.ChecksumIndexInput;
+import org.apache.lucene.store.DataOutput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A weighted finite state transducer over the suggestions of a backend that serves plain prefix lookups,
+ * i.e. queries that are a single token matched as a prefix, without a namespace.
+ * <p>
+ * Infix matching is done by adding every suggestion once for each of its tokens, with the text starting at that
+ * token as the surface form. The weight of every entry is the weight of the suggestion, so the transducer returns
+ * the heaviest matching suggestions just like the blended suggester (which is created with a factor of 1), and
+ * the matches are then scored and highlighted by the backend itself. The payload of an entry is the payload of
+ * the suggestion followed by the text before the token, which restores the whole text.
+ * <p>
+ * The transducer is a snapshot of the suggestions at a given generation and is only used while the generation of
+ * the backend is the same, see FstBackend.
+ */
+class FstLookup {
+    private static final String CODEC_NAME = "AutocompleteFst";
+    private static final int VERSION = 0;
+
+    // No more than this many suggestions with the same analyzed text are kept, the lookups ask for no more than that
+    static final int MAX_SURFACE_FORMS_PER_ANALYZED_FORM = 255;
+
+    // Longer texts are kept aside, the analyzed form of an entry must fit in a short
+    private static final int MAX_SURFACE_FORM_LENGTH = 4096;
+
+    // The separator AnalyzingSuggester puts between the surface form and the payload
+    private static final char PAYLOAD_SEPARATOR = '\u001F';
+
+    // A lookup asks for twice as many entries as suggestions since a suggestion may match with several tokens
+    private static final int ENTRIES_PER_SUGGESTION = 2;
+
+    final long generation;
+    private final AnalyzingSuggester suggester;
+    // Suggestions that cannot be entries of the transducer, they are matched one by one
+    private final List<KeptAside> keptAside;
+
+    private FstLookup(long generation, AnalyzingSuggester suggester, List<KeptAside> keptAside) {
+        this.generation = generation;
+        this.suggester = suggester;
+        this.keptAside = keptAside;
+    }
+
+    /**
+     * Builds the transducer from the suggestions of the index.
+     *
+     * @param tempDir where the entries are sorted
+     */
+    static FstLookup build(long generation, Directory tempDir, Analyzer analyzer, InputIterator suggestions) throws IOException {
+        AnalyzingSuggester suggester = createSuggester(tempDir, analyzer);
+        List<KeptAside> keptAside = new ArrayList<>();
+        suggester.build(new EntriesIterator(analyzer, suggestions, keptAside));
+        return new FstLookup(generation, suggester, keptAside);
+    }
+
+    /**
+     * Loads a transducer saved with store(), it's assigned the given generation.
+     */
+    static FstLookup load(long generation, Directory dir, String fileName, Analyzer analyzer) throws IOException {
+        try (ChecksumIndexInput input = dir.openChecksumInput(fileName, IOContext.READONCE)) {
+            CodecUtil.checkHeader(input, CODEC_NAME, VERSION, VERSION);
+            AnalyzingSuggester suggester = createSuggester(dir, analyzer);
+            if (input.readByte() == 1) {
+                suggester.load(input);
+            }
+            int keptAsideCount = input.readVInt();
+            List<KeptAside> keptAside = new ArrayList<>(keptAsideCount);
+            for (int i = 0; i < keptAsideCount; i++) {
+                String text = input.readString();
+                long weight = input.readVLong();
+                byte[] payload = new byte[input.readVInt()];
+                input.readBytes(payload, 0, payload.length);
+                keptAside.add(new KeptAside(text, weight, new BytesRef(payload)));
+            }
+            CodecUtil.checkFooter(input);
+            return new FstLookup(generation, suggester, keptAside);
+        }
+    }
+
+    /**
+     * Saves the transducer to a file in the given directory, which must not exist.
+     */
+    void store(Directory dir, String fileName) throws IOException {
+        try (IndexOutput output = dir.createOutput(fileName, IOContext.DEFAULT)) {
+            CodecUtil.writeHeader(output, CODEC_NAME, VERSION);
+            // An empty transducer can't be stored
+            if (suggester.getCount() > 0) {
+                output.writeByte((byte) 1);
+                suggester.store(output);
+            } else {
+                output.writeByte((byte) 0);
+            }
+            output.writeVInt(keptAside.size());
+            for (KeptAside suggestion : keptAside) {
+                suggestion.writeTo(output);
+            }
+            CodecUtil.writeFooter(output);
+        }
+    }
+
+    /**
+     * Returns the suggestions the given backend would return for the query, or null if the query is not
+     * a plain prefix query or asks for too many results.
+     */
+    List<Lookup.LookupResult> lookup(AutocompleteBackend target, String query, int count) throws IOException {
+        if (count > MAX_SURFACE_FORMS_PER_ANALYZED_FORM) {
+            return null;
+        }
+        AnalyzedQuery analyzedQuery = target.analyzeQuery(query);
+        if (analyzedQuery.prefixToken == null || !analyzedQuery.exactTokens.isEmpty()) {
+            return null;
+        }
+
+        List<Lookup.LookupResult> results = new ArrayList<>(count);
+        Set<BytesRef> seen = new HashSet<>();
+        int entriesCount = count * ENTRIES_PER_SUGGESTION;
+        while (results.size() < count) {
+            List<Lookup.LookupResult> entries = suggester.getCount() > 0
+                    ? suggester.lookup(query, null, false, entriesCount) : Collections.<Lookup.LookupResult>emptyList();
+            // The entries are returned heaviest first, the suggestions already added are skipped
+            for (Lookup.LookupResult entry : entries) {
+                if (results.size() == count) {
+                    break;
+                }
+                addSuggestion(restore(entry), results, seen);
+            }
+            if (entries.size() < entriesCount) {
+                break;
+            }
+            // Some suggestions matched more than once, get more entries
+            entriesCount *= 2;
+        }
+
+        for (KeptAside suggestion : keptAside) {
+            Lookup.LookupResult result = new Lookup.LookupResult(suggestion.text, suggestion.weight, suggestion.payload);
+            if (target.rematch(result, result.value, analyzedQuery) != null) {
+                addSuggestion(result, results, seen);
+            }
+        }
+        if (results.size() > count) {
+            results.sort((result1, result2) -> Long.compare(result2.value, result1.value));
+            results = new ArrayList<>(results.subList(0, count));
+        }
+
+        // The matches are rescored like the backend does it
+        List<Lookup.LookupResult> suggestions = new ArrayList<>(results.size());
+        for (Lookup.LookupResult result : results) {
+            Lookup.LookupResult rematched = target.rematch(result, result.value, analyzedQuery);
+            if (rematched != null) {
+                suggestions.add(rematched);
+            }
+        }
+        return suggestions;
+    }
+
+    private static void addSuggestion(Lookup.LookupResult suggestion, List<Lookup.LookupResult> results, Set<BytesRef> seen) {
+        // A suggestion is identified by its payload (the entity and whether it's a label) and its text
+        BytesRefBuilder identity = new BytesRefBuilder();
+        identity.append(suggestion.payload);
+        identity.append(new BytesRef(suggestion.key));
+        if (seen.add(identity.toBytesRef())) {
+            results.add(suggestion);
+        }
+    }
+
+    /**
+     * Restores the suggestion from an entry: the text before the token is stored after the payload.
+     */
+    private static Lookup.LookupResult restore(Lookup.LookupResult entry) {
+        ByteArrayDataInput input = new ByteArrayDataInput(entry.payload.bytes, entry.payload.offset, entry.payload.length);
+        byte[] payload = new byte[input.readVInt()];
+        input.readBytes(payload, 0, payload.length);
+        int end = entry.payload.offset + entry.payload.length;
+        String before = new String(entry.payload.bytes, input.getPosition(), end - input.getPosition(), StandardCharsets.UTF_8);
+        return new Lookup.LookupResult(before + entry.key, entry.value, new BytesRef(payload));
+    }
+
+    private static AnalyzingSuggester createSuggester(Directory tempDir, Analyzer analyzer) {
+        return new AnalyzingSuggester(tempDir, "fst", analyzer, analyzer, AnalyzingSuggester.PRESERVE_SEP,
+                MAX_SURFACE_FORMS_PER_ANALYZED_FORM, -1, true);
+    }
+
+    private static final class KeptAside {
+        final String text;
+        final long weight;
+        final BytesRef payload;
+
+        KeptAside(String text, long weight, BytesRef payload) {
+            this.text = text;
+            this.weight = weight;
+            this.payload = payload;
+        }
+
+        void writeTo(DataOutput output) throws IOException {
+            output.writeString(text);
+            output.writeVLong(weight);
+            output.writeVInt(payload.length);
+            output.writeBytes(payload.bytes, payload.offset, payload.length);
+        }
+    }
+
+    /**
+     * Turns every suggestion into one entry per token.
+     */
+    private static final class EntriesIterator implements InputIterator {
+        private final Analyzer analyzer;
+        private final InputIterator suggestions;
+        private final List<KeptAside> keptAside;
+        private final List<Integer> tokenStarts = new ArrayList<>();
+        private String text;
+        private long weight;
+        private BytesRef payload;
+        private int nextToken;
+        private byte[] entryPayload = new byte[64];
+        private int entryPayloadLength;
+
+        EntriesIterator(Analyzer analyzer, InputIterator suggestions, List<KeptAside> keptAside) {
+            this.analyzer = analyzer;
+            this.suggestions = suggestions;
+            this.keptAside = keptAside;
+        }
+
+        @Override
+        public BytesRef next() throws IOException {
+            while (nextToken >= tokenStarts.size()) {
+                BytesRef next = suggestions.next();
+                if (next == null) {
+                    return null;
+                }
+                text = next.utf8ToString();
+                // The transducer can't take negative weights, such suggestions are last anyway
+                weight = Math.max(0, suggestions.weight());
+                payload = BytesRef.deepCopyOf(suggestions.payload());
+                tokenStarts.clear();
+                nextToken = 0;
+                if (text.length() > MAX_SURFACE_FORM_LENGTH || text.indexOf(PAYLOAD_SEPARATOR) >= 0) {
+                    keptAside.add(new KeptAside(text, weight, payload));
+                    continue;
+                }
+                try (TokenStream ts = analyzer.tokenStream("", new StringReader(text))) {
+                    OffsetAttribute offsetAtt = ts.addAttribute(OffsetAttribute.class);
+                    ts.reset();
+                    while (ts.incrementToken()) {
+                        tokenStarts.add(offsetAtt.startOffset());
+                    }
+                    ts.end();
+                }
+            }
+
+            int start = tokenStarts.get(nextToken++);
+            byte[] before = text.substring(0, start).getBytes(StandardCharsets.UTF_8);
+            entryPayload = ArrayUtil.grow(entryPayload, 5 + payload.length + before.length);
+            ByteArrayDataOutput output = new ByteArrayDataOutput(entryPayload);
+            output.writeVInt(payload.length);
+            output.writeBytes(payload.bytes, payload.offset, payload.length);
+            output.writeBytes(before, 0, before.length);
+            entryPayloadLength = output.getPosition();
+            return new BytesRef(text.substring(start));
+        }
+
+        @Override
+        public long weight() {
+            return weight;
+        }
+
+        @Override
+        public BytesRef payload() {
+            return new BytesRef(entryPayload, 0, entryPayloadLength);
+        }
+
+        @Override
+        public boolean hasPayloads() {
+            return true;
+        }
+
+        @Override
+        public Set<BytesRef> contexts() {
+            return null;
+        }
+
+        @Override
+        public boolean hasContexts() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+/**
+ * An addition or removal of a single label of an entity.
+ */
+class LabelUpdate {
+    final long subject;
+    final long labelPredicateId;
+    final String label;
+    final boolean isRemoval;
+
+    LabelUpdate(long subject, long labelPredicateId, String label, boolean isRemoval) {
+        this.subject = subject;
+        this.labelPredicateId = labelPredicateId;
+        this.label = label;
+        this.isRemoval = isRemoval;
+    }
+}
@@ -3,8 +3,8 @@ package com.ontotext.trree.plugin.autocomplete;
 import com.ontotext.trree.sdk.Entities;
 import com.ontotext.trree.sdk.StatementIterator;
 import com.ontotext.trree.sdk.Statements;
-import org.apache.lucene.search.suggest.InputIterator;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -13,30 +13,67 @@ import java.util.Set;
 /**
  * An InputIterator over labels (label predicate and language(s) are determined by LabelConfig).
  */
-class LabelsIterator implements InputIterator, AutoCloseable, Closeable {
+class LabelsIterator implements AutocompleteInputIterator, AutoCloseable, Closeable {
     private final LabelConfig labelConfig;
     private final Entities entities;
     private final AutocompleteIndex autocompleteIndex;
-    private final StatementIterator statementIterator;
+    private final Statements statements;
+    // Whether the labels are fetched subject by subject instead of by one scan of the label predicate
+    private final boolean bySubject;
+    private final long lastSubject;
+    private long nextSubject;
+    private StatementIterator statementIterator;
 
     private long currentSubject = 0L;
     private String currentLabel;
 
+    // Reused for every label, the backends copy what they keep before the next one
+    private final BytesRefBuilder text = new BytesRefBuilder();
+    private final BytesRefBuilder key = new BytesRefBuilder();
+    private final BytesRefBuilder payload = new BytesRefBuilder();
+
+    /**
+     * Creates an iterator over the labels of all subjects, found by one scan of the label predicate.
+     */
     LabelsIterator(Entities entities, Statements statements, LabelConfig labelConfig, AutocompleteIndex autocompleteIndex) {
+        this(entities, statements, labelConfig, autocompleteIndex, false, 1, Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates an iterator that returns only the labels of subjects with ids in the range [firstSubject, lastSubject].
+     * It walks the ids in the range and fetches the labels of each IRI, so iterators over disjoint ranges never
+     * visit the same label statement.
+     */
+    LabelsIterator(Entities entities, Statements statements, LabelConfig labelConfig, AutocompleteIndex autocompleteIndex,
+                   long firstSubject, long lastSubject) {
+        this(entities, statements, labelConfig, autocompleteIndex, true, firstSubject, lastSubject);
+    }
+
+    private LabelsIterator(Entities entities, Statements statements, LabelConfig labelConfig,
+                           AutocompleteIndex autocompleteIndex, boolean bySubject, long firstSubject, long lastSubject) {
         this.autocompleteIndex = autocompleteIndex;
         this.entities = entities;
+        this.statements = statements;
         this.labelConfig = labelConfig;
-        this.statementIterator = statements.get(0, labelConfig.labelId, 0);
+        this.bySubject = bySubject;
+        this.nextSubject = firstSubject;
+        this.lastSubject = lastSubject;
+        this.statementIterator = bySubject ? StatementIterator.EMPTY : statements.get(0, labelConfig.labelId, 0);
     }
 
     @Override
     public long weight() {
-        return autocompleteIndex.getWeight(currentSubject, currentLabel);
+        return autocompleteIndex.getRebuiltWeight(currentSubject, currentLabel);
+    }
+
+    @Override
+    public BytesRef key() {
+        return autocompleteIndex.getDocumentKey(currentSubject, labelConfig.labelId, text.get(), key);
     }
 
     @Override
     public BytesRef payload() {
-        return autocompleteIndex.getEntityIDAsPayload(currentSubject, true);
+        return autocompleteIndex.getEntityIDAsPayload(currentSubject, true, payload);
     }
 
     @Override
@@ -56,21 +93,47 @@ class LabelsIterator implements InputIterator, AutoCloseable, Closeable {
 
     @Override
     public BytesRef next() throws IOException {
-        while (statementIterator.next() && !autocompleteIndex.isShouldInterrupt()) {
+        while (!autocompleteIndex.isShouldInterrupt()) {
+            if (!statementIterator.next()) {
+                if (nextSubjectLabels()) {
+                    continue;
+                }
+                break;
+            }
             currentSubject = statementIterator.subject;
-            if (entities.getType(currentSubject) == Entities.Type.URI) {
+            if (bySubject || entities.getType(currentSubject) == Entities.Type.URI) {
                 String language = entities.getLanguage(statementIterator.object);
                 if (!labelConfig.languageMatches(language)) {
                     continue;
                 }
                 currentLabel = entities.get(statementIterator.object).stringValue();
-                return new BytesRef(currentLabel);
+                text.copyChars(currentLabel);
+                return text.get();
             }
         }
 
         return null;
     }
 
+    /**
+     * Moves on to the labels of the next IRI in the subject range, returns false if there are no more subjects.
+     */
+    private boolean nextSubjectLabels() {
+        if (!bySubject) {
+            return false;
+        }
+        long last = Math.min(lastSubject, entities.size());
+        while (nextSubject <= last && !autocompleteIndex.isShouldInterrupt()) {
+            long subject = nextSubject++;
+            if (entities.getType(subject) == Entities.Type.URI) {
+                statementIterator.close();
+                statementIterator = statements.get(subject, labelConfig.labelId, 0);
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public void close() {
         statementIterator.close();
@@ -0,0 +1,27 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.util.BytesRef;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The suggestions that lookups see, either those of an {@link AutocompleteBackend} after its last refresh or those
+ * pinned by {@link AutocompleteBackend#pin()}.
+ */
+interface LookupView {
+    /**
+     * Returns the number of suggestions visible to lookups.
+     */
+    long getCount() throws IOException;
+
+    /**
+     * Looks up the suggestions as {@link AutocompleteBackend#lookup(CharSequence, Set, int)} does, but when highlight
+     * is false the highlight keys of the results may be null to save the work of computing them.
+     */
+    List<Lookup.LookupResult> lookup(CharSequence query, @Nullable Set<BytesRef> contexts, int count,
+                                     boolean highlight) throws IOException;
+}
@@ -0,0 +1,104 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LogByteSizeMergePolicy;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.NRTCachingDirectory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * How the Lucene index of the autocomplete plugin is stored and written, see the properties in
+ * {@link AutocompletePluginUtils}. The defaults are what Lucene picks on its own, apart from the merge policy
+ * that merges away deleted documents more eagerly. The settings are applied when the index is opened.
+ */
+final class LuceneIndexSettings {
+    // Let Lucene pick the best directory for the platform, that's MMapDirectory on 64-bit JVMs
+    static final String FS_DIRECTORY = "fs";
+    static final String MMAP_DIRECTORY = "mmap";
+    static final String NIO_DIRECTORY = "nio";
+    // Small freshly flushed segments are kept in memory, which makes near real-time refreshes cheaper
+    static final String NRT_CACHING_DIRECTORY = "nrtcaching";
+
+    static final String TIERED_MERGE_POLICY = "tiered";
+    static final String LOG_BYTE_SIZE_MERGE_POLICY = "logbytesize";
+
+    static final int DEFAULT_RAM_BUFFER_SIZE_MB = (int) IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB;
+    // 0 flushes by RAM usage only
+    static final int DEFAULT_MAX_BUFFERED_DOCS = 0;
+    // Same as the default of TieredMergePolicy
+    static final int DEFAULT_MAX_MERGED_SEGMENT_MB = 5 * 1024;
+
+    static final LuceneIndexSettings DEFAULT = new LuceneIndexSettings(FS_DIRECTORY, DEFAULT_RAM_BUFFER_SIZE_MB,
+            DEFAULT_MAX_BUFFERED_DOCS, TIERED_MERGE_POLICY, DEFAULT_MAX_MERGED_SEGMENT_MB, true);
+
+    // Segments with more deleted documents than this are merged away more eagerly
+    private static final double DELETES_PCT_ALLOWED = 20;
+
+    // Segments flushed by NRTCachingDirectory up to this size are kept in memory, up to this much in total
+    private static final double NRT_CACHING_MAX_MERGE_SIZE_MB = 5;
+    private static final double NRT_CACHING_MAX_CACHED_MB = 60;
+
+    final String directoryType;
+    final int ramBufferSizeMB;
+    final int maxBufferedDocs;
+    final String mergePolicy;
+    final int maxMergedSegmentMB;
+    final boolean useCompoundFile;
+
+    LuceneIndexSettings(String directoryType, int ramBufferSizeMB, int maxBufferedDocs, String mergePolicy,
+                        int maxMergedSegmentMB, boolean useCompoundFile) {
+        this.directoryType = directoryType;
+        this.ramBufferSizeMB = ramBufferSizeMB;
+        this.maxBufferedDocs = maxBufferedDocs;
+        this.mergePolicy = mergePolicy;
+        this.maxMergedSegmentMB = maxMergedSegmentMB;
+        this.useCompoundFile = useCompoundFile;
+    }
+
+    Directory openDirectory(Path dir) throws IOException {
+        switch (directoryType) {
+            case MMAP_DIRECTORY:
+                return new MMapDirectory(dir);
+            case NIO_DIRECTORY:
+                return new NIOFSDirectory(dir);
+            case NRT_CACHING_DIRECTORY:
+                return new NRTCachingDirectory(FSDirectory.open(dir), NRT_CACHING_MAX_MERGE_SIZE_MB, NRT_CACHING_MAX_CACHED_MB);
+            default:
+                return FSDirectory.open(dir);
+        }
+    }
+
+    void apply(IndexWriterConfig iwConfig) {
+        iwConfig.setRAMBufferSizeMB(ramBufferSizeMB);
+        // Lucene needs at least two documents per flush
+        iwConfig.setMaxBufferedDocs(maxBufferedDocs > 0 ? Math.max(2, maxBufferedDocs) : IndexWriterConfig.DISABLE_AUTO_FLUSH);
+        iwConfig.setUseCompoundFile(useCompoundFile);
+        iwConfig.setMergePolicy(createMergePolicy());
+    }
+
+    private MergePolicy createMergePolicy() {
+        MergePolicy policy;
+        if (LOG_BYTE_SIZE_MERGE_POLICY.equals(mergePolicy)) {
+            LogByteSizeMergePolicy logPolicy = new LogByteSizeMergePolicy();
+            logPolicy.setMaxMergeMB(maxMergedSegmentMB);
+            policy = logPolicy;
+        } else {
+            TieredMergePolicy tieredPolicy = new TieredMergePolicy();
+            tieredPolicy.setDeletesPctAllowed(DELETES_PCT_ALLOWED);
+            tieredPolicy.setMaxMergedSegmentMB(maxMergedSegmentMB);
+            policy = tieredPolicy;
+        }
+        if (!useCompoundFile) {
+            // Merged segments don't use compound files either
+            policy.setNoCFSRatio(0);
+        }
+        return policy;
+    }
+}
@@ -0,0 +1,261 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import com.google.common.collect.ImmutableSet;
+import org.apache.lucene.util.BytesRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Gives every namespace of an indexed IRI and every namespace above it (see {@link #ancestors}) a small id, the
+ * IRIs are indexed with these ids as contexts instead of the namespaces themselves. That keeps the context terms
+ * a few bytes long however long the namespaces are. The names are kept sorted, so the ones that start with
+ * a given prefix can be listed. The contexts of the IRIs in a namespace are kept with its id and share the
+ * context terms of the namespaces above it.
+ * <p>
+ * The namespaces are appended to a file in the data directory of the plugin in the order of their ids, which are
+ * never changed or reused, so the current and the rebuilt index can share the dictionary. New namespaces are
+ * written as they are seen but synced only by {@link #sync()}, which must be called before every commit of the
+ * index so a committed index never refers to a namespace that is not in the file. A partial namespace at the end
+ * of the file comes from a crash while appending, no committed index refers to it and it's dropped.
+ */
+final class NamespaceDictionary implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(NamespaceDictionary.class);
+
+    static final String FILE_NAME = "namespaces.dict";
+
+    private static final int MAGIC = 0x4e534443;
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 2 * Integer.BYTES;
+
+    // The context of an IRI in exactly that namespace
+    private static final byte NAMESPACE_CONTEXT = 0;
+    // The context of all IRIs in that namespace or in a namespace below it
+    private static final byte SUBTREE_CONTEXT = 1;
+
+    private final ConcurrentNavigableMap<String, Namespace> namespaces = new ConcurrentSkipListMap<>();
+
+    // Guarded by this
+    private final FileChannel channel;
+    private int size;
+    private boolean needsSync;
+
+    private NamespaceDictionary(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    static NamespaceDictionary open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            NamespaceDictionary dictionary = new NamespaceDictionary(channel);
+            dictionary.load();
+            return dictionary;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void load() throws IOException {
+        if (channel.size() < HEADER_LENGTH) {
+            // A new file, or one that was being created during a crash
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            channel.truncate(0);
+            channel.write(header, 0);
+            channel.force(true);
+            channel.position(HEADER_LENGTH);
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+            // Read the whole file
+        }
+        buffer.flip();
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Not a namespace dictionary of a supported version");
+        }
+        int end = buffer.position();
+        while (buffer.remaining() >= Integer.BYTES) {
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                break;
+            }
+            byte[] namespace = new byte[length];
+            buffer.get(namespace);
+            String name = new String(namespace, StandardCharsets.UTF_8);
+            namespaces.put(name, new Namespace(++size));
+            end = buffer.position();
+        }
+        if (end < channel.size()) {
+            LOGGER.warn("Dropping a partial namespace at the end of the namespace dictionary");
+            channel.truncate(end);
+        }
+        channel.position(end);
+    }
+
+    /**
+     * Returns the id of the given namespace, giving it the next id if it doesn't have one.
+     */
+    int id(String namespace) throws IOException {
+        return get(namespace).id;
+    }
+
+    private Namespace get(String namespace) throws IOException {
+        Namespace entry = namespaces.get(namespace);
+        if (entry != null) {
+            return entry;
+        }
+        synchronized (this) {
+            entry = namespaces.get(namespace);
+            if (entry == null) {
+                byte[] bytes = namespace.getBytes(StandardCharsets.UTF_8);
+                ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + bytes.length).putInt(bytes.length).put(bytes);
+                record.flip();
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+                needsSync = true;
+                entry = new Namespace(++size);
+                namespaces.put(namespace, entry);
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Returns the id of the given namespace, or 0 if no IRI was indexed in it or below it.
+     */
+    int find(String namespace) {
+        Namespace entry = namespaces.get(namespace);
+        return entry != null ? entry.id : 0;
+    }
+
+    /**
+     * Returns the contexts of the IRIs in the given namespace: its namespace context and the subtree contexts of
+     * the namespace and of the namespaces above it, giving them ids if they don't have one. The set is shared,
+     * it must not be modified.
+     */
+    Set<BytesRef> contexts(String namespace) throws IOException {
+        Namespace entry = get(namespace);
+        Set<BytesRef> contexts = entry.iriContexts;
+        if (contexts == null) {
+            ImmutableSet.Builder<BytesRef> builder = ImmutableSet.builder();
+            builder.add(entry.namespaceContext, entry.subtreeContext);
+            for (String ancestor : ancestors(namespace)) {
+                builder.add(get(ancestor).subtreeContext);
+            }
+            contexts = builder.build();
+            // Racing threads build equal sets, any of them will do
+            entry.iriContexts = contexts;
+        }
+        return contexts;
+    }
+
+    /**
+     * Returns the namespaces with ids that start with the given prefix, in order.
+     */
+    SortedMap<String, Namespace> withPrefix(String prefix) {
+        return namespaces.subMap(prefix, prefix + Character.MAX_VALUE);
+    }
+
+    int size() {
+        return namespaces.size();
+    }
+
+    /**
+     * Makes the namespaces given ids so far durable.
+     */
+    synchronized void sync() throws IOException {
+        if (needsSync) {
+            channel.force(false);
+            needsSync = false;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Returns the namespaces above the given one, from the top. These are its prefixes that end with '/' or '#'
+     * after the "//" of the authority, e.g. "http://example.org/" and "http://example.org/geo/" for
+     * "http://example.org/geo/city/", or that end with ':' in a namespace without an authority, e.g. "urn:" for
+     * "urn:isbn:". The namespace itself is not included.
+     */
+    static List<String> ancestors(String namespace) {
+        List<String> ancestors = new ArrayList<>();
+        int authority = namespace.indexOf("//");
+        int start = authority >= 0 ? authority + 2 : 0;
+        for (int i = start; i < namespace.length() - 1; i++) {
+            char c = namespace.charAt(i);
+            if (c == '/' || c == '#' || (c == ':' && authority < 0)) {
+                ancestors.add(namespace.substring(0, i + 1));
+            }
+        }
+        return ancestors;
+    }
+
+    /**
+     * The context of the IRIs in exactly the namespace with the given id.
+     */
+    static BytesRef namespaceContext(int id) {
+        return context(NAMESPACE_CONTEXT, id);
+    }
+
+    /**
+     * The context of the IRIs in the namespace with the given id and in all namespaces below it.
+     */
+    static BytesRef subtreeContext(int id) {
+        return context(SUBTREE_CONTEXT, id);
+    }
+
+    /**
+     * A namespace with an id and its contexts.
+     */
+    static final class Namespace {
+        final int id;
+        final BytesRef namespaceContext;
+        final BytesRef subtreeContext;
+        // Built when the first IRI in the namespace is indexed, namespaces that are only above others have none
+        private volatile Set<BytesRef> iriContexts;
+
+        private Namespace(int id) {
+            this.id = id;
+            this.namespaceContext = NamespaceDictionary.namespaceContext(id);
+            this.subtreeContext = NamespaceDictionary.subtreeContext(id);
+        }
+    }
+
+    // A kind byte, which no namespace starts with, followed by the id as a varint
+    private static BytesRef context(byte kind, int id) {
+        byte[] bytes = new byte[6];
+        bytes[0] = kind;
+        int length = 1;
+        while ((id & ~0x7F) != 0) {
+            bytes[length++] = (byte) ((id & 0x7F) | 0x80);
+            id >>>= 7;
+        }
+        bytes[length++] = (byte) id;
+        return new BytesRef(bytes, 0, length);
+    }
+}
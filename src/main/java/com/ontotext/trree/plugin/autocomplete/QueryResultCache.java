@@ -0,0 +1,116 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of the results of recent lookups. Typeahead queries repeat a lot, both while a user is typing
+ * and across users, so the same lookup is often served many times between two changes of the index.
+ * <p>
+ * Every entry is keyed on the index generation it was computed from. The generation is bumped whenever new
+ * updates become visible in the index, so a stale result is never returned even if a lookup that started
+ * before the bump stores its result after it.
+ */
+class QueryResultCache {
+    private final Cache<Key, List<AutocompleteIndex.Result>> cache;
+    private final AtomicLong generation = new AtomicLong();
+
+    QueryResultCache(int maximumSize, int ttlSeconds) {
+        if (maximumSize > 0) {
+            CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                    .maximumSize(maximumSize)
+                    .recordStats();
+            if (ttlSeconds > 0) {
+                builder.expireAfterWrite(ttlSeconds, TimeUnit.SECONDS);
+            }
+            cache = builder.build();
+        } else {
+            cache = null;
+        }
+    }
+
+    /**
+     * Returns the current index generation, read it before the lookup whose result will be cached.
+     */
+    long generation() {
+        return generation.get();
+    }
+
+    List<AutocompleteIndex.Result> get(long generation, String namespace, String query, int offset, int limit,
+                                       boolean highlight) {
+        if (cache == null) {
+            return null;
+        }
+        return cache.getIfPresent(new Key(generation, namespace, query, offset, limit, highlight));
+    }
+
+    void put(long generation, String namespace, String query, int offset, int limit, boolean highlight,
+             List<AutocompleteIndex.Result> results) {
+        if (cache != null) {
+            cache.put(new Key(generation, namespace, query, offset, limit, highlight), results);
+        }
+    }
+
+    /**
+     * Called after changes to the index became visible, drops all cached results.
+     */
+    void invalidate() {
+        generation.incrementAndGet();
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    String stats() {
+        if (cache == null) {
+            return "disabled";
+        }
+        CacheStats stats = cache.stats();
+        return "hits=" + stats.hitCount() + ", misses=" + stats.missCount() + ", evictions=" + stats.evictionCount()
+                + ", size=" + cache.size() + ", generation=" + generation.get();
+    }
+
+    private static final class Key {
+        private final long generation;
+        private final String namespace;
+        private final String query;
+        private final int offset;
+        private final int limit;
+        private final boolean highlight;
+
+        Key(long generation, String namespace, String query, int offset, int limit, boolean highlight) {
+            this.generation = generation;
+            // No namespace and an empty one are the same lookup
+            this.namespace = namespace == null ? "" : namespace;
+            // The query is not normalized further, case and trailing spaces change how it's tokenized
+            this.query = query;
+            this.offset = offset;
+            this.limit = limit;
+            this.highlight = highlight;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return generation == other.generation && offset == other.offset && limit == other.limit
+                    && highlight == other.highlight && namespace.equals(other.namespace) && query.equals(other.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(generation, namespace, query, offset, limit, highlight);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import com.ontotext.trree.sdk.Entities;
+import com.ontotext.trree.sdk.RDFRankProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The normalized RDF Rank of every entity, copied from the RDF Rank plugin in one pass when the index is built.
+ * Looking up a rank is then just an array access instead of a call into the other plugin for every suggestion.
+ * The ranks are kept in pages of a dense float array indexed by entity id and saved to a file in the data
+ * directory of the plugin, so they survive a restart.
+ * <p>
+ * Entities created after the snapshot are not in it, their rank is taken from the RDF Rank plugin.
+ */
+final class RankSnapshot {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RankSnapshot.class);
+
+    static final String FILE_NAME = "ranks.bin";
+
+    private static final int MAGIC = 0x52414e4b;
+    private static final int VERSION = 1;
+
+    // The magic, the version and the largest entity id
+    private static final int HEADER_LENGTH = Integer.BYTES + Integer.BYTES + Long.BYTES;
+
+    private static final int PAGE_BITS = 20;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final float[][] pages;
+    // The entity ids in the snapshot are 1..maxId
+    private final long maxId;
+
+    private RankSnapshot(long maxId) {
+        this.maxId = maxId;
+        int pageCount = (int) ((maxId >> PAGE_BITS) + 1);
+        pages = new float[pageCount][];
+        for (int i = 0; i < pageCount; i++) {
+            pages[i] = new float[i < pageCount - 1 ? PAGE_SIZE : (int) (maxId & PAGE_MASK) + 1];
+        }
+    }
+
+    /**
+     * Copies the ranks of all IRIs from the RDF Rank plugin, the other entities get no rank.
+     */
+    static RankSnapshot create(Entities entities, RDFRankProvider provider) {
+        long maxId = entities.size();
+        RankSnapshot snapshot = new RankSnapshot(maxId);
+        for (long id = 1; id <= maxId; id++) {
+            if (entities.getType(id) == Entities.Type.URI) {
+                snapshot.pages[(int) (id >> PAGE_BITS)][(int) (id & PAGE_MASK)] = (float) provider.getNormalizedRank(id);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Checks whether the entity is in the snapshot, i.e. it existed when the snapshot was created.
+     */
+    boolean contains(long id) {
+        return id > 0 && id <= maxId;
+    }
+
+    double rank(long id) {
+        return pages[(int) (id >> PAGE_BITS)][(int) (id & PAGE_MASK)];
+    }
+
+    /**
+     * Loads the snapshot saved in the given file, returns null if there is none or it's not readable. A snapshot
+     * with more entities than the repository is not readable either, it is checked before anything is allocated.
+     */
+    @Nullable
+    static RankSnapshot load(Path file, long maxEntityId) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            long maxId = check(file, maxEntityId);
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                input.readInt();
+                input.readInt();
+                input.readLong();
+                RankSnapshot snapshot = new RankSnapshot(maxId);
+                for (float[] page : snapshot.pages) {
+                    for (int i = 0; i < page.length; i++) {
+                        page[i] = input.readFloat();
+                    }
+                }
+                return snapshot;
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not load the RDF Rank snapshot from {}, the ranks will be taken from the RDF Rank plugin", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Checks the header, the length and the checksum of the saved snapshot without loading it.
+     *
+     * @return the largest entity id in the snapshot
+     */
+    private static long check(Path file, long maxEntityId) throws IOException {
+        CRC32 checksum = new CRC32();
+        try (DataInputStream input = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(file)), checksum))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException("Not a rank snapshot");
+            }
+            long maxId = input.readLong();
+            if (maxId < 0 || maxId > maxEntityId) {
+                throw new IOException("The snapshot has ranks of " + maxId + " entities, the repository has " + maxEntityId);
+            }
+            // The ranks of ids 0..maxId
+            long ranksLength = (maxId + 1) * Float.BYTES;
+            if (Files.size(file) != HEADER_LENGTH + ranksLength + Integer.BYTES) {
+                throw new IOException("The snapshot is truncated");
+            }
+            byte[] buffer = new byte[8192];
+            for (long remaining = ranksLength; remaining > 0; ) {
+                int read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new EOFException();
+                }
+                remaining -= read;
+            }
+            int expectedChecksum = (int) checksum.getValue();
+            if (input.readInt() != expectedChecksum) {
+                throw new IOException("Checksum mismatch");
+            }
+            return maxId;
+        }
+    }
+
+    /**
+     * Saves the snapshot to the given file, it's replaced atomically.
+     */
+    void store(Path file) throws IOException {
+        Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+        CRC32 checksum = new CRC32();
+        try (DataOutputStream output = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmpFile)), checksum))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(maxId);
+            for (float[] page : pages) {
+                for (float rank : page) {
+                    output.writeFloat(rank);
+                }
+            }
+            output.writeInt((int) checksum.getValue());
+        }
+        Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,43 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import org.apache.lucene.search.suggest.Lookup;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The complete set of suggestions matching the last query of a typeahead session. When the user keeps typing
+ * the matches of the longer query are a subset of these, so they are found by re-matching the candidates
+ * instead of searching the index again.
+ */
+class RefinementSession {
+    final long generation;
+    final String namespace;
+    final AnalyzedQuery query;
+    final List<Candidate> candidates;
+
+    RefinementSession(long generation, String namespace, AnalyzedQuery query, List<Candidate> candidates) {
+        this.generation = generation;
+        this.namespace = namespace;
+        this.query = query;
+        this.candidates = candidates;
+    }
+
+    /**
+     * Checks whether the matches of the given query are all among the candidates, i.e. the index didn't change
+     * since they were found and the query narrows the previous one (typically the prefix grew).
+     */
+    boolean canRefine(long generation, String namespace, AnalyzedQuery query) {
+        return this.generation == generation && Objects.equals(this.namespace, namespace) && query.narrows(this.query);
+    }
+
+    static class Candidate {
+        final Lookup.LookupResult suggestion;
+        final long weight;
+
+        Candidate(Lookup.LookupResult suggestion, long weight) {
+            this.suggestion = suggestion;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import com.ontotext.trree.sdk.Entities;
+import com.ontotext.trree.sdk.StatementIterator;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * Returns the results of an autocomplete query as statements with the entity as subject and the highlighted text
+ * as context, or no context if the results are not highlighted.
+ * <p>
+ * This doesn't stream the results: the lookup and the page are done before the iterator is created, since
+ * the page is what the result cache keeps and the entities before the offset must be known to start it. The
+ * iterator only cuts the work per row. The literal with the highlighted text is put in the entities when its
+ * statement is read, instead of one request-scoped entity for every result of the page up front.
+ */
+class ResultStatementIterator extends StatementIterator {
+    private static final ValueFactory VF = SimpleValueFactory.getInstance();
+
+    private final Iterator<AutocompleteIndex.Result> results;
+    private final Entities entities;
+
+    ResultStatementIterator(Collection<AutocompleteIndex.Result> results, long predicate, long object, Entities entities) {
+        this.results = results.iterator();
+        this.entities = entities;
+        this.predicate = predicate;
+        this.object = object;
+    }
+
+    @Override
+    public boolean next() {
+        if (!results.hasNext()) {
+            return false;
+        }
+        AutocompleteIndex.Result result = results.next();
+        subject = result.id;
+        context = result.highlight != null ? entities.put(VF.createLiteral(result.highlight), Entities.Scope.REQUEST) : 0;
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,89 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Iterates the suggestions of an index with their weights computed again from the RDF Rank snapshot of the index
+ * that is being built. The IRIs and labels are not read from the repository again, which makes refreshing the
+ * weights much cheaper than rebuilding the index. Stops at the first suggestion without a key, those cannot be copied.
+ */
+class ReweightedSuggestionsIterator implements AutocompleteInputIterator {
+    // The progress is reported after this many suggestions
+    private static final long PROGRESS_INTERVAL = 100_000;
+
+    private final AutocompleteBackend.Suggestions suggestions;
+    private final AutocompleteIndex autocompleteIndex;
+    private final long total;
+    private long count;
+    private long weight;
+    private boolean missingKey;
+
+    /**
+     * @param total the number of suggestions, used to report the progress
+     */
+    ReweightedSuggestionsIterator(AutocompleteBackend.Suggestions suggestions, AutocompleteIndex autocompleteIndex, long total) {
+        this.suggestions = suggestions;
+        this.autocompleteIndex = autocompleteIndex;
+        this.total = total;
+    }
+
+    /**
+     * Checks whether the iteration stopped because of a suggestion without a key.
+     */
+    boolean isMissingKey() {
+        return missingKey;
+    }
+
+    @Override
+    public BytesRef next() throws IOException {
+        if (autocompleteIndex.isShouldInterrupt()) {
+            return null;
+        }
+        BytesRef text = suggestions.next();
+        if (text == null) {
+            return null;
+        }
+        if (suggestions.key() == null) {
+            missingKey = true;
+            return null;
+        }
+        weight = autocompleteIndex.getRebuiltWeight(text, suggestions.payload(), suggestions.weight());
+        if (++count % PROGRESS_INTERVAL == 0) {
+            autocompleteIndex.reportProgress("reweighted " + count + " of " + total + " suggestions");
+        }
+        return text;
+    }
+
+    @Override
+    public BytesRef key() {
+        return suggestions.key();
+    }
+
+    @Override
+    public long weight() {
+        return weight;
+    }
+
+    @Override
+    public BytesRef payload() {
+        return suggestions.payload();
+    }
+
+    @Override
+    public boolean hasPayloads() {
+        return true;
+    }
+
+    @Override
+    public Set<BytesRef> contexts() {
+        return suggestions.contexts();
+    }
+
+    @Override
+    public boolean hasContexts() {
+        return true;
+    }
+}
@@ -0,0 +1,71 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import gnu.trove.TLongHashSet;
+import gnu.trove.TLongObjectHashMap;
+import org.eclipse.rdf4j.model.IRI;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The IRIs and labels added or removed in the current transaction. They are indexed in a single batch when the
+ * transaction is committed and simply dropped when it is aborted, so the index is never touched by an aborted
+ * transaction.
+ */
+class TransactionUpdates {
+    final TLongObjectHashMap<IRI> iris = new TLongObjectHashMap<>();
+
+    // Label additions and removals per subject, only the last update of each label is kept
+    final TLongObjectHashMap<List<LabelUpdate>> labels = new TLongObjectHashMap<>();
+
+    private int size;
+
+    void addIRI(long id, IRI iri) {
+        if (iris.put(id, iri) == null) {
+            size++;
+        }
+    }
+
+    void updateLabel(LabelUpdate update) {
+        List<LabelUpdate> subjectLabels = labels.get(update.subject);
+        if (subjectLabels == null) {
+            subjectLabels = new ArrayList<>(2);
+            labels.put(update.subject, subjectLabels);
+        } else {
+            // A later update of the same label overrides the previous one
+            Iterator<LabelUpdate> iterator = subjectLabels.iterator();
+            while (iterator.hasNext()) {
+                LabelUpdate previous = iterator.next();
+                if (previous.labelPredicateId == update.labelPredicateId && previous.label.equals(update.label)) {
+                    iterator.remove();
+                    size--;
+                }
+            }
+        }
+        subjectLabels.add(update);
+        size++;
+    }
+
+    /**
+     * Adds the ids of all entities with pending updates to the given set.
+     */
+    void collectEntityIds(TLongHashSet ids) {
+        ids.addAll(iris.keys());
+        ids.addAll(labels.keys());
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        iris.clear();
+        labels.clear();
+        size = 0;
+    }
+}
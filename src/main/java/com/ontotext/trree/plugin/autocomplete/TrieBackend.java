@@ -0,0 +1,1002 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * The trie backend: keeps the suggestions in memory instead of in a Lucene index, meant for repositories small
+ * enough for that. Lookups match and score the suggestions exactly like {@link AutocompleteSuggester}.
+ * <p>
+ * Most suggestions are in a {@link TrieSnapshot}, which lives off the heap and is saved to a single file. The changes
+ * since the snapshot are kept on the heap: those made visible by a refresh are grouped in layers, each hiding the
+ * older versions of the suggestions it changed, and committed changes are appended to a log next to the snapshot.
+ * Once there are enough changes they are merged into a new snapshot, which is saved on the next commit and
+ * starts a new log. A restart loads the snapshot and replays the log.
+ */
+class TrieBackend implements AutocompleteBackend {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TrieBackend.class);
+
+    static final String SNAPSHOT_FILE_NAME = "autocomplete.trie";
+    static final String LOG_FILE_NAME = "autocomplete.trie.log";
+
+    // The changes are merged into a new snapshot once there are more of them than this and than 1/MERGE_RATIO
+    // of the suggestions in the snapshot
+    private static final int MIN_MERGE_CHANGES = 50_000;
+    private static final int MERGE_RATIO = 8;
+
+    // Orders the suggestions like the slots of a snapshot: heaviest first, then by key
+    private static final Comparator<Entry> ENTRY_ORDER = (entry1, entry2) -> {
+        int cmp = Long.compare(entry2.weight, entry1.weight);
+        return cmp != 0 ? cmp : entry1.key.compareTo(entry2.key);
+    };
+
+    private static final Comparator<Lookup.LookupResult> CANDIDATE_ORDER = Comparator
+            .comparingLong((Lookup.LookupResult result) -> result.value).reversed()
+            .thenComparing(result -> result.key.toString());
+
+    private final Analyzer analyzer;
+    private final Path snapshotFile;
+    private final Path logFile;
+
+    // All fields below are guarded by writeLock, lookups only read the view
+    private final Object writeLock = new Object();
+    // The snapshot in the file and, if the current base isn't that one, the changes in the log
+    private TrieSnapshot committedBase;
+    private List<Change> committedChanges;
+    // Open once there is a snapshot file
+    private FileChannel log;
+    // The snapshot the changes are made on, it's the committed one unless changes were merged since the last commit
+    private TrieSnapshot base;
+    private boolean baseCommitted;
+    private final List<Change> changes = new ArrayList<>();
+    private int committedCount;
+    private int refreshedCount;
+    // The refreshed changes, the newest layer is the last one, and the count of suggestions they leave visible
+    private final List<Layer> layers = new ArrayList<>();
+    private long count;
+
+    private volatile View view;
+
+    TrieBackend(Path indexDir, Analyzer analyzer) throws IOException {
+        this.analyzer = analyzer;
+        Files.createDirectories(indexDir);
+        this.snapshotFile = indexDir.resolve(SNAPSHOT_FILE_NAME);
+        this.logFile = indexDir.resolve(LOG_FILE_NAME);
+        if (Files.exists(snapshotFile)) {
+            base = TrieSnapshot.load(snapshotFile);
+            baseCommitted = true;
+            log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                replayLog();
+            } catch (IOException | RuntimeException e) {
+                log.close();
+                throw e;
+            }
+        } else {
+            // Like the Lucene index, nothing is written before the first commit
+            try (Stream<Path> files = Files.list(indexDir)) {
+                if (files.anyMatch(file -> !file.equals(logFile))) {
+                    LOGGER.warn("The autocomplete index in {} was not built by the trie backend, it must be rebuilt", indexDir);
+                }
+            }
+            base = TrieSnapshot.empty(0);
+            committedChanges = new ArrayList<>();
+        }
+        committedBase = base;
+        committedCount = changes.size();
+        count = base.count;
+        refresh();
+    }
+
+    @Override
+    public void build(InputIterator iterator) throws IOException {
+        synchronized (writeLock) {
+            saveCommittedChanges();
+            base = TrieSnapshot.empty(committedBase.generation + 1);
+            baseCommitted = false;
+            clearChanges();
+
+            AutocompleteInputIterator keyedIterator = iterator instanceof AutocompleteInputIterator
+                    ? (AutocompleteInputIterator) iterator : null;
+            BytesRef text;
+            while ((text = iterator.next()) != null) {
+                add(keyedIterator != null ? keyedIterator.key() : text, text,
+                        iterator.hasContexts() ? iterator.contexts() : null, iterator.weight(),
+                        iterator.hasPayloads() ? iterator.payload() : null);
+            }
+            commit();
+            refresh();
+        }
+    }
+
+    @Override
+    public void add(BytesRef key, BytesRef text, @Nullable Set<BytesRef> contexts, long weight, BytesRef payload) throws IOException {
+        // Keys are unique, so adding is the same as updating
+        update(key, text, contexts, weight, payload);
+    }
+
+    @Override
+    public void update(BytesRef key, BytesRef text, @Nullable Set<BytesRef> contexts, long weight, BytesRef payload) throws IOException {
+        Entry entry = createEntry(key, text, contexts, weight, payload);
+        synchronized (writeLock) {
+            changes.add(Change.put(entry));
+            mergeIfNeeded();
+        }
+    }
+
+    @Override
+    public void addAll(Collection<BytesRef> replacedKeys, List<Suggestion> suggestions) throws IOException {
+        List<Entry> entries = new ArrayList<>(suggestions.size());
+        for (Suggestion suggestion : suggestions) {
+            entries.add(createEntry(suggestion.key, suggestion.text, suggestion.contexts, suggestion.weight, suggestion.payload));
+        }
+        synchronized (writeLock) {
+            for (BytesRef key : replacedKeys) {
+                changes.add(Change.delete(Change.DELETE, key));
+            }
+            for (Entry entry : entries) {
+                changes.add(Change.put(entry));
+            }
+            mergeIfNeeded();
+        }
+    }
+
+    @Override
+    public void delete(BytesRef key) throws IOException {
+        synchronized (writeLock) {
+            changes.add(Change.delete(Change.DELETE, key));
+            mergeIfNeeded();
+        }
+    }
+
+    @Override
+    public void deleteByKeyPrefix(BytesRef keyPrefix) throws IOException {
+        synchronized (writeLock) {
+            changes.add(Change.delete(Change.DELETE_PREFIX, keyPrefix));
+            mergeIfNeeded();
+        }
+    }
+
+    @Override
+    public void commit() throws IOException {
+        synchronized (writeLock) {
+            if (!baseCommitted) {
+                if (!changes.isEmpty()) {
+                    mergeChanges();
+                }
+                base.store(snapshotFile);
+                // A crash before the log is reset leaves an old log, which is recognized by its generation
+                resetLog(base.generation);
+                committedBase = base;
+                committedChanges = null;
+                baseCommitted = true;
+            } else if (committedCount < changes.size()) {
+                appendToLog(changes.subList(committedCount, changes.size()));
+                committedCount = changes.size();
+            }
+        }
+    }
+
+    @Override
+    public void refresh() throws IOException {
+        synchronized (writeLock) {
+            if (refreshedCount < changes.size()) {
+                LayerBuilder builder = new LayerBuilder();
+                for (Change change : changes.subList(refreshedCount, changes.size())) {
+                    builder.apply(change);
+                }
+                Layer layer = builder.build();
+                count += countChange(layer);
+                layers.add(layer);
+                refreshedCount = changes.size();
+
+                // Every layer is at least twice as big as the next one, so there are only a few of them
+                int last = layers.size() - 1;
+                while (last > 0 && 2 * layers.get(last).size() >= layers.get(last - 1).size()) {
+                    layers.set(last - 1, Layer.merge(layers.get(last - 1), layers.remove(last)));
+                    last--;
+                }
+            }
+            view = new View(base, new ArrayList<>(layers), count);
+        }
+    }
+
+    @Override
+    public void rollback() throws IOException {
+        synchronized (writeLock) {
+            if (baseCommitted) {
+                changes.subList(committedCount, changes.size()).clear();
+            } else {
+                base = committedBase;
+                baseCommitted = log != null;
+                changes.clear();
+                changes.addAll(committedChanges);
+                // Nothing is committed before the first snapshot, so there is still nothing to go back to
+                committedChanges = baseCommitted ? null : new ArrayList<>();
+                committedCount = changes.size();
+            }
+            layers.clear();
+            refreshedCount = 0;
+            count = base.count;
+            refresh();
+        }
+    }
+
+    @Override
+    public long getCount() {
+        return view.count;
+    }
+
+    @Override
+    public List<Lookup.LookupResult> lookup(CharSequence query, @Nullable Set<BytesRef> contexts, int count) throws IOException {
+        return lookup(view, query, contexts, count);
+    }
+
+    /**
+     * The views are never changed, a refresh replaces the current one.
+     */
+    @Override
+    public PinnedView pin() {
+        View pinned = view;
+        return new PinnedView() {
+            @Override
+            public long getCount() {
+                return pinned.count;
+            }
+
+            @Override
+            public List<Lookup.LookupResult> lookup(CharSequence query, @Nullable Set<BytesRef> contexts, int count,
+                                                    boolean highlight) throws IOException {
+                return TrieBackend.this.lookup(pinned, query, contexts, count);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private List<Lookup.LookupResult> lookup(View current, CharSequence query, @Nullable Set<BytesRef> contexts,
+                                             int count) throws IOException {
+        AnalyzedQuery analyzedQuery = analyzeQuery(query.toString());
+        if (analyzedQuery.prefixToken == null && analyzedQuery.exactTokens.isEmpty()) {
+            return new ArrayList<>();
+        }
+        if (contexts != null && contexts.isEmpty()) {
+            contexts = null;
+        }
+
+        // The heaviest matches of every part are enough to get the heaviest ones overall
+        List<Lookup.LookupResult> candidates = new ArrayList<>();
+        collectFromBase(current, analyzedQuery, contexts, count, candidates);
+        for (int i = 0; i < current.layers.size(); i++) {
+            collectFromLayer(current, i, analyzedQuery, contexts, count, candidates);
+        }
+        candidates.sort(CANDIDATE_ORDER);
+
+        // Scored by the position of the match afterwards, just like the blended suggester does it
+        List<Lookup.LookupResult> results = new ArrayList<>(Math.min(count, candidates.size()));
+        for (Lookup.LookupResult candidate : candidates.subList(0, Math.min(count, candidates.size()))) {
+            Lookup.LookupResult result = rematch(candidate, candidate.value, analyzedQuery);
+            if (result != null) {
+                results.add(result);
+            }
+        }
+        results.sort(AutocompleteIndex.LOOKUP_RESULT_ORDER);
+        return results;
+    }
+
+    @Override
+    public AnalyzedQuery analyzeQuery(String query) throws IOException {
+        return AutocompleteSuggester.analyzeQuery(analyzer, query);
+    }
+
+    @Override
+    public Lookup.LookupResult rematch(Lookup.LookupResult suggestion, long weight, AnalyzedQuery query) throws IOException {
+        return AutocompleteSuggester.rematch(analyzer, analyzer, suggestion, weight, query);
+    }
+
+    @Override
+    public Suggestions suggestions() {
+        return new ViewSuggestions(view);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The snapshots are freed along with their buffers
+        synchronized (writeLock) {
+            if (log != null) {
+                log.close();
+            }
+        }
+    }
+
+    private void collectFromBase(View current, AnalyzedQuery query, @Nullable Set<BytesRef> contexts, int count,
+                                 List<Lookup.LookupResult> candidates) throws IOException {
+        TrieSnapshot snapshot = current.base;
+        if (snapshot.count == 0) {
+            return;
+        }
+        int[] contextIds = null;
+        if (contexts != null) {
+            contextIds = contexts.stream().mapToInt(snapshot::contextId).filter(id -> id >= 0).sorted().toArray();
+            if (contextIds.length == 0) {
+                return;
+            }
+        }
+        int[] exactNodes = new int[query.exactTokens.size()];
+        int i = 0;
+        for (String token : query.exactTokens) {
+            exactNodes[i] = snapshot.findNode(token);
+            if (exactNodes[i] < 0 || snapshot.ownCount(exactNodes[i]) == 0) {
+                return;
+            }
+            i++;
+        }
+        int prefixNode = -1;
+        if (query.prefixToken != null) {
+            prefixNode = snapshot.findNode(query.prefixToken);
+            if (prefixNode < 0) {
+                return;
+            }
+        }
+
+        // The matches are visited from the token with the fewest of them, the other tokens are checked afterwards
+        int driver = -1;
+        long driverCount = prefixNode >= 0 ? snapshot.subtreeCount(prefixNode) : Long.MAX_VALUE;
+        for (i = 0; i < exactNodes.length; i++) {
+            if (snapshot.ownCount(exactNodes[i]) < driverCount) {
+                driver = i;
+                driverCount = snapshot.ownCount(exactNodes[i]);
+            }
+        }
+        int driverIndex = driver;
+        int[] filterContextIds = contextIds;
+        int end = candidates.size() + count;
+        TrieSnapshot.SlotVisitor visitor = slot -> {
+            for (int j = 0; j < exactNodes.length; j++) {
+                if (j != driverIndex && !snapshot.hasToken(exactNodes[j], slot)) {
+                    return true;
+                }
+            }
+            if (filterContextIds != null && !snapshot.hasAnyContext(slot, filterContextIds)) {
+                return true;
+            }
+            String text = snapshot.text(slot);
+            if (driverIndex >= 0 && query.prefixToken != null && !hasTokenWithPrefix(text, query.prefixToken)) {
+                return true;
+            }
+            if (isHidden(current.layers, 0, snapshot.key(slot))) {
+                return true;
+            }
+            candidates.add(new Lookup.LookupResult(text, snapshot.weight(slot), snapshot.payload(slot)));
+            return candidates.size() < end;
+        };
+        if (driver >= 0) {
+            snapshot.forEachOwnSlot(exactNodes[driver], visitor);
+        } else {
+            snapshot.forEachSubtreeSlot(prefixNode, visitor);
+        }
+    }
+
+    private void collectFromLayer(View current, int layerIndex, AnalyzedQuery query, @Nullable Set<BytesRef> contexts,
+                                  int count, List<Lookup.LookupResult> candidates) {
+        Layer layer = current.layers.get(layerIndex);
+        int[] indexes = null;
+        for (String token : query.exactTokens) {
+            int[] tokenIndexes = layer.postings.get(token);
+            if (tokenIndexes == null) {
+                return;
+            }
+            if (indexes == null || tokenIndexes.length < indexes.length) {
+                indexes = tokenIndexes;
+            }
+        }
+        if (indexes == null) {
+            indexes = layer.prefixPostings(query.prefixToken);
+        }
+
+        int end = candidates.size() + count;
+        for (int index : indexes) {
+            Entry entry = layer.entries[index];
+            if (!entry.matches(query) || (contexts != null && Collections.disjoint(entry.contexts, contexts))
+                    || isHidden(current.layers, layerIndex + 1, entry.key)) {
+                continue;
+            }
+            candidates.add(new Lookup.LookupResult(entry.text.utf8ToString(), entry.weight, entry.payload));
+            if (candidates.size() == end) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Checks whether a suggestion is hidden by any of the layers starting with the given one.
+     */
+    private static boolean isHidden(List<Layer> layers, int from, BytesRef key) {
+        for (int i = from; i < layers.size(); i++) {
+            if (layers.get(i).hides(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasTokenWithPrefix(String text, String prefix) throws IOException {
+        for (String token : tokenize(text)) {
+            if (token.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the distinct tokens of the text, sorted.
+     */
+    private String[] tokenize(String text) throws IOException {
+        TreeSet<String> tokens = new TreeSet<>();
+        try (TokenStream ts = analyzer.tokenStream("text", new StringReader(text))) {
+            CharTermAttribute termAtt = ts.addAttribute(CharTermAttribute.class);
+            ts.reset();
+            while (ts.incrementToken()) {
+                tokens.add(termAtt.toString());
+            }
+            ts.end();
+        }
+        return tokens.toArray(new String[0]);
+    }
+
+    private Entry createEntry(BytesRef key, BytesRef text, @Nullable Set<BytesRef> contexts, long weight,
+                              @Nullable BytesRef payload) throws IOException {
+        return new Entry(BytesRef.deepCopyOf(key), BytesRef.deepCopyOf(text),
+                contexts == null ? Collections.<BytesRef>emptySet() : copyOf(contexts), weight,
+                payload == null ? new BytesRef() : BytesRef.deepCopyOf(payload), tokenize(text.utf8ToString()));
+    }
+
+    private static Set<BytesRef> copyOf(Set<BytesRef> contexts) {
+        Set<BytesRef> copy = new HashSet<>();
+        for (BytesRef context : contexts) {
+            copy.add(BytesRef.deepCopyOf(context));
+        }
+        return copy;
+    }
+
+    /**
+     * Returns by how much the layer changes the number of visible suggestions when added on top of the current ones.
+     */
+    private long countChange(Layer layer) {
+        long change = layer.entries.length;
+        for (BytesRef key : layer.touchedKeys) {
+            if (isVisible(key)) {
+                change--;
+            }
+        }
+        Set<BytesRef> deleted = new HashSet<>();
+        for (BytesRef prefix : layer.deletedKeyPrefixes) {
+            Set<BytesRef> keys = new TreeSet<>();
+            base.forEachKeyWithPrefix(prefix, slot -> keys.add(base.key(slot)));
+            for (Layer older : layers) {
+                keys.addAll(older.keysWithPrefix(prefix));
+            }
+            for (BytesRef key : keys) {
+                if (!layer.touchedKeys.contains(key) && isVisible(key)) {
+                    deleted.add(key);
+                }
+            }
+        }
+        return change - deleted.size();
+    }
+
+    /**
+     * Checks whether there is a visible suggestion with the given key in the base and the refreshed layers.
+     */
+    private boolean isVisible(BytesRef key) {
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            Layer layer = layers.get(i);
+            if (layer.touchedKeys.contains(key)) {
+                return layer.byKey.containsKey(key);
+            }
+            if (layer.deletesByPrefix(key)) {
+                return false;
+            }
+        }
+        return base.findKey(key) >= 0;
+    }
+
+    private void mergeIfNeeded() throws IOException {
+        if (changes.size() > Math.max(MIN_MERGE_CHANGES, base.count / MERGE_RATIO)) {
+            mergeChanges();
+        }
+    }
+
+    /**
+     * Merges all changes into a new base, which becomes visible on the next refresh.
+     */
+    private void mergeChanges() throws IOException {
+        saveCommittedChanges();
+        LayerBuilder builder = new LayerBuilder();
+        for (Change change : changes) {
+            builder.apply(change);
+        }
+        base = base.merge(builder.build());
+        baseCommitted = false;
+        clearChanges();
+    }
+
+    /**
+     * Keeps the committed changes for a rollback before the base they are made on is replaced.
+     */
+    private void saveCommittedChanges() {
+        if (baseCommitted) {
+            committedChanges = new ArrayList<>(changes.subList(0, committedCount));
+        }
+    }
+
+    private void clearChanges() {
+        changes.clear();
+        committedCount = 0;
+        refreshedCount = 0;
+        layers.clear();
+        count = base.count;
+    }
+
+    /**
+     * Reads the committed changes from the log, unless it was written for another snapshot. A record that was not
+     * written completely is dropped along with anything after it.
+     */
+    private void replayLog() throws IOException {
+        long size = log.size();
+        if (size < Long.BYTES) {
+            resetLog(base.generation);
+            return;
+        }
+        log.position(0);
+        DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(log)));
+        if (input.readLong() != base.generation) {
+            LOGGER.info("Discarding an autocomplete log that is older than the snapshot");
+            resetLog(base.generation);
+            return;
+        }
+        long position = Long.BYTES;
+        CRC32 checksum = new CRC32();
+        while (position + 2 * Integer.BYTES <= size) {
+            int length = input.readInt();
+            int expectedChecksum = input.readInt();
+            if (length < 0 || position + 2 * Integer.BYTES + length > size) {
+                break;
+            }
+            byte[] record = new byte[length];
+            input.readFully(record);
+            checksum.reset();
+            checksum.update(record, 0, length);
+            if ((int) checksum.getValue() != expectedChecksum) {
+                break;
+            }
+            changes.add(readChange(new DataInputStream(new ByteArrayInputStream(record))));
+            position += 2 * Integer.BYTES + length;
+        }
+        if (position < size) {
+            LOGGER.warn("Dropping an incomplete record at the end of the autocomplete log");
+            log.truncate(position);
+        }
+        log.position(position);
+    }
+
+    private Change readChange(DataInput input) throws IOException {
+        byte type = input.readByte();
+        BytesRef key = readBytes(input);
+        if (type != Change.PUT) {
+            return Change.delete(type, key);
+        }
+        BytesRef text = readBytes(input);
+        long weight = input.readLong();
+        BytesRef payload = readBytes(input);
+        int contextCount = input.readInt();
+        Set<BytesRef> contexts = new HashSet<>();
+        for (int i = 0; i < contextCount; i++) {
+            contexts.add(readBytes(input));
+        }
+        return Change.put(createEntry(key, text, contexts, weight, payload));
+    }
+
+    private void appendToLog(List<Change> committed) throws IOException {
+        // The channel is left open, so is the stream
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(log)));
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        CRC32 checksum = new CRC32();
+        for (Change change : committed) {
+            record.reset();
+            change.writeTo(new DataOutputStream(record));
+            checksum.reset();
+            checksum.update(record.toByteArray(), 0, record.size());
+            output.writeInt(record.size());
+            output.writeInt((int) checksum.getValue());
+            record.writeTo(output);
+        }
+        output.flush();
+        log.force(false);
+    }
+
+    private void resetLog(long generation) throws IOException {
+        if (log == null) {
+            log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        log.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(Long.BYTES);
+        header.putLong(generation).flip();
+        log.write(header, 0);
+        log.position(Long.BYTES);
+        log.force(false);
+    }
+
+    private static BytesRef readBytes(DataInput input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new BytesRef(bytes);
+    }
+
+    private static void writeBytes(DataOutput output, BytesRef bytes) throws IOException {
+        output.writeInt(bytes.length);
+        output.write(bytes.bytes, bytes.offset, bytes.length);
+    }
+
+    /**
+     * A suggestion that is not in a snapshot yet.
+     */
+    static final class Entry {
+        final BytesRef key;
+        final BytesRef text;
+        final Set<BytesRef> contexts;
+        final long weight;
+        final BytesRef payload;
+        // The distinct tokens of the text, sorted
+        final String[] tokens;
+
+        Entry(BytesRef key, BytesRef text, Set<BytesRef> contexts, long weight, BytesRef payload, String[] tokens) {
+            this.key = key;
+            this.text = text;
+            this.contexts = contexts;
+            this.weight = weight;
+            this.payload = payload;
+            this.tokens = tokens;
+        }
+
+        boolean matches(AnalyzedQuery query) {
+            for (String token : query.exactTokens) {
+                if (Arrays.binarySearch(tokens, token) < 0) {
+                    return false;
+                }
+            }
+            if (query.prefixToken == null) {
+                return true;
+            }
+            for (String token : tokens) {
+                if (token.startsWith(query.prefixToken)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A change in the order it was made: a suggestion added or replaced, or suggestions deleted by key or key prefix.
+     */
+    private static final class Change {
+        static final byte PUT = 0;
+        static final byte DELETE = 1;
+        static final byte DELETE_PREFIX = 2;
+
+        final byte type;
+        final BytesRef key;
+        final Entry entry;
+
+        private Change(byte type, BytesRef key, @Nullable Entry entry) {
+            this.type = type;
+            this.key = key;
+            this.entry = entry;
+        }
+
+        static Change put(Entry entry) {
+            return new Change(PUT, entry.key, entry);
+        }
+
+        static Change delete(byte type, BytesRef key) {
+            return new Change(type, BytesRef.deepCopyOf(key), null);
+        }
+
+        void writeTo(DataOutput output) throws IOException {
+            output.writeByte(type);
+            writeBytes(output, key);
+            if (type == PUT) {
+                writeBytes(output, entry.text);
+                output.writeLong(entry.weight);
+                writeBytes(output, entry.payload);
+                output.writeInt(entry.contexts.size());
+                for (BytesRef context : entry.contexts) {
+                    writeBytes(output, context);
+                }
+            }
+        }
+    }
+
+    /**
+     * Changes made visible together. The suggestions of a layer hide the ones with the same keys in the older layers
+     * and in the base, and so do its deletions.
+     */
+    static final class Layer {
+        // The suggestions added by the layer in slot order
+        final Entry[] entries;
+        final TreeMap<BytesRef, Entry> byKey;
+        // Token -> the indexes of the entries with it, ascending
+        final TreeMap<String, int[]> postings;
+        final int postingsCount;
+        // The keys that were added, replaced or deleted
+        final Set<BytesRef> touchedKeys;
+        final List<BytesRef> deletedKeyPrefixes;
+
+        private Layer(TreeMap<BytesRef, Entry> byKey, Set<BytesRef> touchedKeys, List<BytesRef> deletedKeyPrefixes) {
+            this.byKey = byKey;
+            this.touchedKeys = touchedKeys;
+            this.deletedKeyPrefixes = deletedKeyPrefixes;
+            this.entries = byKey.values().toArray(new Entry[0]);
+            Arrays.sort(entries, ENTRY_ORDER);
+
+            TreeMap<String, List<Integer>> tokenIndexes = new TreeMap<>();
+            int total = 0;
+            for (int i = 0; i < entries.length; i++) {
+                for (String token : entries[i].tokens) {
+                    tokenIndexes.computeIfAbsent(token, t -> new ArrayList<>()).add(i);
+                    total++;
+                }
+            }
+            this.postings = new TreeMap<>();
+            for (Map.Entry<String, List<Integer>> token : tokenIndexes.entrySet()) {
+                postings.put(token.getKey(), token.getValue().stream().mapToInt(Integer::intValue).toArray());
+            }
+            this.postingsCount = total;
+        }
+
+        static Layer merge(Layer older, Layer newer) {
+            LayerBuilder builder = new LayerBuilder();
+            builder.live.putAll(older.byKey);
+            builder.touched.addAll(older.touchedKeys);
+            builder.prefixes.addAll(older.deletedKeyPrefixes);
+            for (BytesRef prefix : newer.deletedKeyPrefixes) {
+                builder.deletePrefix(prefix);
+            }
+            for (BytesRef key : newer.touchedKeys) {
+                builder.delete(key);
+            }
+            for (Entry entry : newer.entries) {
+                builder.put(entry);
+            }
+            return builder.build();
+        }
+
+        int size() {
+            return touchedKeys.size() + deletedKeyPrefixes.size();
+        }
+
+        boolean hides(BytesRef key) {
+            return touchedKeys.contains(key) || deletesByPrefix(key);
+        }
+
+        boolean deletesByPrefix(BytesRef key) {
+            for (BytesRef prefix : deletedKeyPrefixes) {
+                if (StringHelper.startsWith(key, prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        Collection<BytesRef> keysWithPrefix(BytesRef prefix) {
+            List<BytesRef> keys = new ArrayList<>();
+            for (BytesRef key : byKey.tailMap(prefix, true).keySet()) {
+                if (!StringHelper.startsWith(key, prefix)) {
+                    break;
+                }
+                keys.add(key);
+            }
+            return keys;
+        }
+
+        /**
+         * Returns the indexes of the entries with a token that starts with the prefix, ascending.
+         */
+        int[] prefixPostings(String prefix) {
+            TreeSet<Integer> indexes = new TreeSet<>();
+            for (Map.Entry<String, int[]> token : postings.tailMap(prefix, true).entrySet()) {
+                if (!token.getKey().startsWith(prefix)) {
+                    break;
+                }
+                for (int index : token.getValue()) {
+                    indexes.add(index);
+                }
+            }
+            return indexes.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    private static final class LayerBuilder {
+        final TreeMap<BytesRef, Entry> live = new TreeMap<>();
+        final Set<BytesRef> touched = new HashSet<>();
+        final List<BytesRef> prefixes = new ArrayList<>();
+
+        void apply(Change change) {
+            switch (change.type) {
+                case Change.PUT:
+                    put(change.entry);
+                    break;
+                case Change.DELETE:
+                    delete(change.key);
+                    break;
+                default:
+                    deletePrefix(change.key);
+            }
+        }
+
+        void put(Entry entry) {
+            live.put(entry.key, entry);
+            touched.add(entry.key);
+        }
+
+        void delete(BytesRef key) {
+            live.remove(key);
+            touched.add(key);
+        }
+
+        void deletePrefix(BytesRef prefix) {
+            Iterator<BytesRef> keys = live.tailMap(prefix, true).keySet().iterator();
+            while (keys.hasNext()) {
+                BytesRef key = keys.next();
+                if (!StringHelper.startsWith(key, prefix)) {
+                    break;
+                }
+                keys.remove();
+                touched.add(key);
+            }
+            prefixes.add(prefix);
+        }
+
+        Layer build() {
+            return new Layer(live, touched, prefixes);
+        }
+    }
+
+    /**
+     * What lookups see: a snapshot with the refreshed layers on top.
+     */
+    private static final class View {
+        final TrieSnapshot base;
+        final List<Layer> layers;
+        final long count;
+
+        View(TrieSnapshot base, List<Layer> layers, long count) {
+            this.base = base;
+            this.layers = layers;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Iterates the visible suggestions of a view: those of the snapshot and then those of the layers.
+     */
+    private static final class ViewSuggestions implements Suggestions {
+        private final View view;
+        private int slot = -1;
+        private int layer;
+        private int index = -1;
+        private BytesRef key;
+        private long weight;
+        private BytesRef payload;
+        private Set<BytesRef> contexts;
+
+        ViewSuggestions(View view) {
+            this.view = view;
+        }
+
+        @Override
+        public BytesRef next() {
+            while (++slot < view.base.count) {
+                key = view.base.key(slot);
+                if (!isHidden(view.layers, 0, key)) {
+                    weight = view.base.weight(slot);
+                    payload = view.base.payload(slot);
+                    contexts = view.base.contexts(slot);
+                    return new BytesRef(view.base.text(slot));
+                }
+            }
+            while (layer < view.layers.size()) {
+                Entry[] entries = view.layers.get(layer).entries;
+                while (++index < entries.length) {
+                    if (!isHidden(view.layers, layer + 1, entries[index].key)) {
+                        key = entries[index].key;
+                        weight = entries[index].weight;
+                        payload = entries[index].payload;
+                        contexts = entries[index].contexts;
+                        return entries[index].text;
+                    }
+                }
+                layer++;
+                index = -1;
+            }
+            return null;
+        }
+
+        @Override
+        public BytesRef key() {
+            return key;
+        }
+
+        @Override
+        public long weight() {
+            return weight;
+        }
+
+        @Override
+        public BytesRef payload() {
+            return payload;
+        }
+
+        @Override
+        public boolean hasPayloads() {
+            return true;
+        }
+
+        @Override
+        public Set<BytesRef> contexts() {
+            return contexts;
+        }
+
+        @Override
+        public boolean hasContexts() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
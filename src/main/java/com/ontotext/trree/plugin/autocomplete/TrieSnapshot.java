@@ -0,0 +1,950 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.IntConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * The suggestions of the trie backend as of its last merge. Apart from the weights everything is kept off the heap
+ * in direct buffers, which are written as they are to a single file and read back on restart.
+ * <p>
+ * Every suggestion has a slot, its position when the suggestions are ordered by weight (heaviest first) and then
+ * by key. The tokens of all suggestions form a trie whose nodes hold the slots of the suggestions with the token
+ * that ends at the node (its own postings, in slot order), followed by the postings of the child nodes. So the
+ * postings of all tokens with a given prefix are contiguous, and every node knows the smallest slot below it,
+ * which lets a lookup visit the matches of a prefix heaviest first without looking at the rest.
+ * <p>
+ * Snapshots are immutable and safe for concurrent lookups.
+ */
+final class TrieSnapshot {
+    private static final int MAGIC = 0x41435452;
+    private static final int VERSION = 0;
+
+    // The fields of a trie node, followed by the label and the offset of every child ordered by label
+    private static final int CHILD_COUNT = 0;
+    private static final int OWN_START = 1;
+    private static final int OWN_END = 2;
+    private static final int END = 3;
+    private static final int MIN_SLOT = 4;
+    private static final int CHILDREN = 5;
+
+    // The weights are written and read in chunks of this many
+    private static final int WEIGHTS_CHUNK = 8192;
+
+    final long generation;
+    final int count;
+    private final long[] weights;
+    private final Blobs keys;
+    private final Blobs texts;
+    private final Blobs payloads;
+    // The ids of the contexts of every suggestion, as ints, the ids are positions in the sorted context dictionary
+    private final Blobs contexts;
+    private final Blobs contextDictionary;
+    private final ByteBuffer slotsByKey;
+    private final ByteBuffer nodes;
+    private final ByteBuffer postings;
+
+    private TrieSnapshot(long generation, long[] weights, Blobs keys, Blobs texts, Blobs payloads, Blobs contexts,
+                         Blobs contextDictionary, ByteBuffer slotsByKey, ByteBuffer nodes, ByteBuffer postings) {
+        this.generation = generation;
+        this.count = weights.length;
+        this.weights = weights;
+        this.keys = keys;
+        this.texts = texts;
+        this.payloads = payloads;
+        this.contexts = contexts;
+        this.contextDictionary = contextDictionary;
+        this.slotsByKey = slotsByKey;
+        this.nodes = nodes;
+        this.postings = postings;
+    }
+
+    /**
+     * Returns a snapshot without suggestions.
+     */
+    static TrieSnapshot empty(long generation) throws IOException {
+        TrieBuilder trie = new TrieBuilder(0);
+        return new TrieSnapshot(generation, new long[0], Blobs.EMPTY, Blobs.EMPTY, Blobs.EMPTY, Blobs.EMPTY, Blobs.EMPTY,
+                allocate(0), trie.nodes(), trie.postings());
+    }
+
+    /**
+     * Returns a new snapshot with the suggestions of this one changed as in the given layer, i.e. without the
+     * suggestions the layer hides and with its own.
+     */
+    TrieSnapshot merge(TrieBackend.Layer layer) throws IOException {
+        BitSet hidden = new BitSet(count);
+        for (BytesRef key : layer.touchedKeys) {
+            int slot = findKey(key);
+            if (slot >= 0) {
+                hidden.set(slot);
+            }
+        }
+        for (BytesRef prefix : layer.deletedKeyPrefixes) {
+            forEachKeyWithPrefix(prefix, hidden::set);
+        }
+
+        // Both the remaining suggestions and those of the layer are in slot order already
+        TrieBackend.Entry[] entries = layer.entries;
+        int mergedCount = count - hidden.cardinality() + entries.length;
+        int[] sources = new int[mergedCount];
+        int[] slotsOfOwn = new int[count];
+        Arrays.fill(slotsOfOwn, -1);
+        int[] slotsOfEntries = new int[entries.length];
+        int own = hidden.nextClearBit(0);
+        int entry = 0;
+        for (int slot = 0; slot < mergedCount; slot++) {
+            if (entry == entries.length || (own < count && compare(own, entries[entry]) < 0)) {
+                sources[slot] = own;
+                slotsOfOwn[own] = slot;
+                own = hidden.nextClearBit(own + 1);
+            } else {
+                // Entries are told apart from own slots by their sign
+                sources[slot] = -1 - entry;
+                slotsOfEntries[entry++] = slot;
+            }
+        }
+
+        long[] mergedWeights = new long[mergedCount];
+        long keysLength = 0;
+        long textsLength = 0;
+        long payloadsLength = 0;
+        long contextsLength = 0;
+        boolean[] usedContexts = new boolean[contextDictionary.count()];
+        TreeSet<BytesRef> mergedContexts = new TreeSet<>();
+        for (int slot = 0; slot < mergedCount; slot++) {
+            int source = sources[slot];
+            if (source >= 0) {
+                mergedWeights[slot] = weights[source];
+                keysLength += keys.length(source);
+                textsLength += texts.length(source);
+                payloadsLength += payloads.length(source);
+                contextsLength += contexts.length(source);
+                for (int i = contexts.start(source); i < contexts.end(source); i += Integer.BYTES) {
+                    usedContexts[contexts.data.getInt(i)] = true;
+                }
+            } else {
+                TrieBackend.Entry sourceEntry = entries[-1 - source];
+                mergedWeights[slot] = sourceEntry.weight;
+                keysLength += sourceEntry.key.length;
+                textsLength += sourceEntry.text.length;
+                payloadsLength += sourceEntry.payload.length;
+                contextsLength += (long) Integer.BYTES * sourceEntry.contexts.size();
+                mergedContexts.addAll(sourceEntry.contexts);
+            }
+        }
+
+        // Contexts no suggestion has anymore are dropped from the dictionary
+        for (int id = 0; id < usedContexts.length; id++) {
+            if (usedContexts[id]) {
+                mergedContexts.add(contextDictionary.get(id));
+            }
+        }
+        BytesRef[] dictionary = mergedContexts.toArray(new BytesRef[0]);
+        int[] contextIds = new int[usedContexts.length];
+        long dictionaryLength = 0;
+        for (BytesRef context : dictionary) {
+            dictionaryLength += context.length;
+        }
+        BlobsWriter dictionaryWriter = new BlobsWriter(dictionary.length, dictionaryLength);
+        for (BytesRef context : dictionary) {
+            dictionaryWriter.add(context);
+        }
+        for (int id = 0; id < usedContexts.length; id++) {
+            if (usedContexts[id]) {
+                contextIds[id] = Arrays.binarySearch(dictionary, contextDictionary.get(id));
+            }
+        }
+
+        BlobsWriter keysWriter = new BlobsWriter(mergedCount, keysLength);
+        BlobsWriter textsWriter = new BlobsWriter(mergedCount, textsLength);
+        BlobsWriter payloadsWriter = new BlobsWriter(mergedCount, payloadsLength);
+        BlobsWriter contextsWriter = new BlobsWriter(mergedCount, contextsLength);
+        for (int slot = 0; slot < mergedCount; slot++) {
+            int source = sources[slot];
+            if (source >= 0) {
+                keysWriter.add(keys, source);
+                textsWriter.add(texts, source);
+                payloadsWriter.add(payloads, source);
+                for (int i = contexts.start(source); i < contexts.end(source); i += Integer.BYTES) {
+                    contextsWriter.addInt(contextIds[contexts.data.getInt(i)]);
+                }
+            } else {
+                TrieBackend.Entry sourceEntry = entries[-1 - source];
+                keysWriter.add(sourceEntry.key);
+                textsWriter.add(sourceEntry.text);
+                payloadsWriter.add(sourceEntry.payload);
+                for (BytesRef context : sourceEntry.contexts) {
+                    contextsWriter.addInt(Arrays.binarySearch(dictionary, context));
+                }
+            }
+            contextsWriter.endValue();
+        }
+
+        TrieBuilder trie = mergeTrie(layer, slotsOfOwn, slotsOfEntries);
+        return new TrieSnapshot(generation + 1, mergedWeights, keysWriter.finish(), textsWriter.finish(),
+                payloadsWriter.finish(), contextsWriter.finish(), dictionaryWriter.finish(),
+                mergeSlotsByKey(entries, slotsOfOwn, slotsOfEntries, mergedCount), trie.nodes(), trie.postings());
+    }
+
+    private ByteBuffer mergeSlotsByKey(TrieBackend.Entry[] entries, int[] slotsOfOwn, int[] slotsOfEntries,
+                                       int mergedCount) throws IOException {
+        Integer[] entriesByKey = new Integer[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            entriesByKey[i] = i;
+        }
+        Arrays.sort(entriesByKey, Comparator.comparing((Integer i) -> entries[i].key));
+
+        ByteBuffer merged = allocate((long) Integer.BYTES * mergedCount);
+        int ownIndex = 0;
+        int entryIndex = 0;
+        while (ownIndex < count || entryIndex < entries.length) {
+            int own = ownIndex < count ? slotByKey(ownIndex) : -1;
+            if (own >= 0 && slotsOfOwn[own] < 0) {
+                ownIndex++;
+                continue;
+            }
+            if (own >= 0 && (entryIndex == entries.length || keys.compareTo(own, entries[entriesByKey[entryIndex]].key) < 0)) {
+                merged.putInt(slotsOfOwn[own]);
+                ownIndex++;
+            } else {
+                merged.putInt(slotsOfEntries[entriesByKey[entryIndex++]]);
+            }
+        }
+        merged.flip();
+        return merged;
+    }
+
+    private TrieBuilder mergeTrie(TrieBackend.Layer layer, int[] slotsOfOwn, int[] slotsOfEntries) throws IOException {
+        TrieBuilder trie = new TrieBuilder(postingsCount() + layer.postingsCount);
+        TokenCursor ownTokens = new TokenCursor();
+        boolean hasOwnToken = ownTokens.next();
+        Iterator<Map.Entry<String, int[]>> layerTokens = layer.postings.entrySet().iterator();
+        Map.Entry<String, int[]> layerToken = layerTokens.hasNext() ? layerTokens.next() : null;
+        int[] slots = new int[16];
+        while (hasOwnToken || layerToken != null) {
+            String token;
+            int cmp;
+            if (!hasOwnToken) {
+                cmp = 1;
+                token = layerToken.getKey();
+            } else {
+                token = ownTokens.token();
+                cmp = layerToken == null ? -1 : token.compareTo(layerToken.getKey());
+                if (cmp > 0) {
+                    token = layerToken.getKey();
+                }
+            }
+
+            // Both lists of slots are ascending, so is their union
+            int[] layerIndexes = cmp >= 0 ? layerToken.getValue() : new int[0];
+            int ownPosition = cmp <= 0 ? node(ownTokens.node, OWN_START) : 0;
+            int ownEnd = cmp <= 0 ? node(ownTokens.node, OWN_END) : 0;
+            slots = ArrayUtil.grow(slots, ownEnd - ownPosition + layerIndexes.length);
+            int length = 0;
+            int layerPosition = 0;
+            while (ownPosition < ownEnd || layerPosition < layerIndexes.length) {
+                int ownSlot = -1;
+                if (ownPosition < ownEnd) {
+                    ownSlot = slotsOfOwn[posting(ownPosition)];
+                    if (ownSlot < 0) {
+                        ownPosition++;
+                        continue;
+                    }
+                }
+                if (ownSlot >= 0 && (layerPosition == layerIndexes.length || ownSlot < slotsOfEntries[layerIndexes[layerPosition]])) {
+                    slots[length++] = ownSlot;
+                    ownPosition++;
+                } else {
+                    slots[length++] = slotsOfEntries[layerIndexes[layerPosition++]];
+                }
+            }
+            if (length > 0) {
+                trie.add(token, slots, length);
+            }
+
+            if (cmp <= 0) {
+                hasOwnToken = ownTokens.next();
+            }
+            if (cmp >= 0) {
+                layerToken = layerTokens.hasNext() ? layerTokens.next() : null;
+            }
+        }
+        return trie;
+    }
+
+    /**
+     * Loads a snapshot written with store().
+     */
+    static TrieSnapshot load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            CRC32 checksum = new CRC32();
+            ByteBuffer header = read(channel, 2 * Integer.BYTES + Long.BYTES + Integer.BYTES, checksum);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not an autocomplete trie: " + file);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported autocomplete trie version " + version + ": " + file);
+            }
+            long generation = header.getLong();
+            int count = header.getInt();
+
+            long[] weights = new long[count];
+            for (int i = 0; i < count; i += WEIGHTS_CHUNK) {
+                int chunk = Math.min(WEIGHTS_CHUNK, count - i);
+                read(channel, chunk * Long.BYTES, checksum).asLongBuffer().get(weights, i, chunk);
+            }
+            Blobs keys = new Blobs(readSection(channel, checksum), readSection(channel, checksum));
+            Blobs texts = new Blobs(readSection(channel, checksum), readSection(channel, checksum));
+            Blobs payloads = new Blobs(readSection(channel, checksum), readSection(channel, checksum));
+            Blobs contexts = new Blobs(readSection(channel, checksum), readSection(channel, checksum));
+            Blobs contextDictionary = new Blobs(readSection(channel, checksum), readSection(channel, checksum));
+            ByteBuffer slotsByKey = readSection(channel, checksum);
+            ByteBuffer nodes = readSection(channel, checksum);
+            ByteBuffer postings = readSection(channel, checksum);
+            if (read(channel, Long.BYTES, null).getLong() != checksum.getValue()) {
+                throw new IOException("Corrupted autocomplete trie: " + file);
+            }
+            return new TrieSnapshot(generation, weights, keys, texts, payloads, contexts, contextDictionary, slotsByKey,
+                    nodes, postings);
+        }
+    }
+
+    /**
+     * Writes the snapshot to the given file, replacing it atomically.
+     */
+    void store(Path file) throws IOException {
+        Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmpFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            CRC32 checksum = new CRC32();
+            ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES + Long.BYTES + Integer.BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putLong(generation).putInt(count).flip();
+            write(channel, header, checksum);
+
+            ByteBuffer chunk = ByteBuffer.allocate(WEIGHTS_CHUNK * Long.BYTES);
+            for (int i = 0; i < count; i += WEIGHTS_CHUNK) {
+                int length = Math.min(WEIGHTS_CHUNK, count - i);
+                chunk.clear();
+                chunk.asLongBuffer().put(weights, i, length);
+                chunk.limit(length * Long.BYTES);
+                write(channel, chunk, checksum);
+            }
+            for (Blobs blobs : new Blobs[] {keys, texts, payloads, contexts, contextDictionary}) {
+                writeSection(channel, blobs.offsets, checksum);
+                writeSection(channel, blobs.data, checksum);
+            }
+            writeSection(channel, slotsByKey, checksum);
+            writeSection(channel, nodes, checksum);
+            writeSection(channel, postings, checksum);
+
+            ByteBuffer footer = ByteBuffer.allocate(Long.BYTES);
+            footer.putLong(checksum.getValue()).flip();
+            write(channel, footer, null);
+            channel.force(true);
+        }
+        Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    long weight(int slot) {
+        return weights[slot];
+    }
+
+    BytesRef key(int slot) {
+        return keys.get(slot);
+    }
+
+    String text(int slot) {
+        return texts.get(slot).utf8ToString();
+    }
+
+    BytesRef payload(int slot) {
+        return payloads.get(slot);
+    }
+
+    /**
+     * Returns the id of the given context or -1 if no suggestion has it.
+     */
+    int contextId(BytesRef context) {
+        int low = 0;
+        int high = contextDictionary.count() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int cmp = contextDictionary.compareTo(middle, context);
+            if (cmp < 0) {
+                low = middle + 1;
+            } else if (cmp > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    Set<BytesRef> contexts(int slot) {
+        Set<BytesRef> result = new HashSet<>();
+        for (int i = contexts.start(slot); i < contexts.end(slot); i += Integer.BYTES) {
+            result.add(contextDictionary.get(contexts.data.getInt(i)));
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether the suggestion has any of the contexts with the given sorted ids.
+     */
+    boolean hasAnyContext(int slot, int[] contextIds) {
+        for (int i = contexts.start(slot); i < contexts.end(slot); i += Integer.BYTES) {
+            if (Arrays.binarySearch(contextIds, contexts.data.getInt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the slot of the suggestion with the given key or -1 if there is none.
+     */
+    int findKey(BytesRef key) {
+        int index = keyLowerBound(key);
+        if (index < count) {
+            int slot = slotByKey(index);
+            if (keys.compareTo(slot, key) == 0) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    void forEachKeyWithPrefix(BytesRef prefix, IntConsumer consumer) {
+        for (int index = keyLowerBound(prefix); index < count; index++) {
+            int slot = slotByKey(index);
+            if (!keys.startsWith(slot, prefix)) {
+                break;
+            }
+            consumer.accept(slot);
+        }
+    }
+
+    private int keyLowerBound(BytesRef key) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys.compareTo(slotByKey(middle), key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int slotByKey(int index) {
+        return slotsByKey.getInt(index * Integer.BYTES);
+    }
+
+    /**
+     * Returns the trie node of the given token or -1 if no token starts with it.
+     */
+    int findNode(String token) {
+        int node = 0;
+        for (int i = 0; i < token.length() && node >= 0; i++) {
+            node = findChild(node, token.charAt(i));
+        }
+        return node;
+    }
+
+    private int findChild(int node, char label) {
+        int low = 0;
+        int high = node(node, CHILD_COUNT) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleLabel = node(node, CHILDREN + 2 * middle);
+            if (middleLabel < label) {
+                low = middle + 1;
+            } else if (middleLabel > label) {
+                high = middle - 1;
+            } else {
+                return node(node, CHILDREN + 2 * middle + 1);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns how many suggestions have the token of the node.
+     */
+    int ownCount(int node) {
+        return node(node, OWN_END) - node(node, OWN_START);
+    }
+
+    /**
+     * Returns how many postings the tokens that start with the token of the node have, a suggestion may have
+     * several of these tokens.
+     */
+    int subtreeCount(int node) {
+        return node(node, END) - node(node, OWN_START);
+    }
+
+    /**
+     * Checks whether the suggestion has the token of the node.
+     */
+    boolean hasToken(int node, int slot) {
+        int low = node(node, OWN_START);
+        int high = node(node, OWN_END) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleSlot = posting(middle);
+            if (middleSlot < slot) {
+                low = middle + 1;
+            } else if (middleSlot > slot) {
+                high = middle - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Visits the suggestions that have the token of the node, heaviest first.
+     */
+    void forEachOwnSlot(int node, SlotVisitor visitor) throws IOException {
+        int end = node(node, OWN_END);
+        for (int position = node(node, OWN_START); position < end; position++) {
+            if (!visitor.visit(posting(position))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Visits the suggestions that have a token starting with the token of the node, heaviest first. The nodes and
+     * postings are visited in slot order, so only the subtrees that may hold the next slot are opened.
+     */
+    void forEachSubtreeSlot(int node, SlotVisitor visitor) throws IOException {
+        // A cursor is {slot, node, posting}, where posting is -1 until the node is opened
+        PriorityQueue<int[]> queue = new PriorityQueue<>(Comparator.comparingInt((int[] cursor) -> cursor[0]));
+        if (subtreeCount(node) > 0) {
+            queue.add(new int[] {node(node, MIN_SLOT), node, -1});
+        }
+        int lastSlot = -1;
+        while (!queue.isEmpty()) {
+            int[] cursor = queue.poll();
+            int current = cursor[1];
+            if (cursor[2] < 0) {
+                if (ownCount(current) > 0) {
+                    int start = node(current, OWN_START);
+                    queue.add(new int[] {posting(start), current, start});
+                }
+                int childCount = node(current, CHILD_COUNT);
+                for (int i = 0; i < childCount; i++) {
+                    int child = node(current, CHILDREN + 2 * i + 1);
+                    if (subtreeCount(child) > 0) {
+                        queue.add(new int[] {node(child, MIN_SLOT), child, -1});
+                    }
+                }
+                continue;
+            }
+
+            // A suggestion with several matching tokens comes up once for each, one after the other
+            if (cursor[0] != lastSlot) {
+                lastSlot = cursor[0];
+                if (!visitor.visit(lastSlot)) {
+                    return;
+                }
+            }
+            int next = cursor[2] + 1;
+            if (next < node(current, OWN_END)) {
+                cursor[0] = posting(next);
+                cursor[2] = next;
+                queue.add(cursor);
+            }
+        }
+    }
+
+    private int postingsCount() {
+        return postings.limit() / Integer.BYTES;
+    }
+
+    private int node(int node, int field) {
+        return nodes.getInt((node + field) * Integer.BYTES);
+    }
+
+    private int posting(int position) {
+        return postings.getInt(position * Integer.BYTES);
+    }
+
+    /**
+     * Orders a suggestion of this snapshot and an entry the way slots are ordered.
+     */
+    private int compare(int slot, TrieBackend.Entry entry) {
+        int cmp = Long.compare(entry.weight, weights[slot]);
+        return cmp != 0 ? cmp : keys.compareTo(slot, entry.key);
+    }
+
+    private static ByteBuffer allocate(long bytes) throws IOException {
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IOException("Too many suggestions for the trie backend, use another backend");
+        }
+        return ByteBuffer.allocateDirect((int) bytes);
+    }
+
+    private static ByteBuffer read(FileChannel channel, int length, CRC32 checksum) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(channel, buffer);
+        if (checksum != null) {
+            checksum.update(buffer.duplicate());
+        }
+        return buffer;
+    }
+
+    private static ByteBuffer readSection(FileChannel channel, CRC32 checksum) throws IOException {
+        ByteBuffer section = allocate(read(channel, Long.BYTES, checksum).getLong());
+        readFully(channel, section);
+        checksum.update(section.duplicate());
+        return section;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Truncated autocomplete trie");
+            }
+        }
+        buffer.flip();
+    }
+
+    private static void writeSection(FileChannel channel, ByteBuffer section, CRC32 checksum) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(Long.BYTES);
+        length.putLong(section.limit()).flip();
+        write(channel, length, checksum);
+        write(channel, section, checksum);
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, CRC32 checksum) throws IOException {
+        // The buffers are shared with lookups, their positions are left alone
+        ByteBuffer source = buffer.duplicate();
+        source.position(0);
+        if (checksum != null) {
+            checksum.update(source.duplicate());
+        }
+        while (source.hasRemaining()) {
+            channel.write(source);
+        }
+    }
+
+    /**
+     * Called for the slots of the matching suggestions, returns false to stop.
+     */
+    interface SlotVisitor {
+        boolean visit(int slot) throws IOException;
+    }
+
+    /**
+     * Variable length values, e.g. the keys of all suggestions: the values one after the other and the offset
+     * where each one starts, plus the end offset of the last one.
+     */
+    private static final class Blobs {
+        static final Blobs EMPTY = new Blobs(ByteBuffer.allocateDirect(Integer.BYTES), ByteBuffer.allocateDirect(0));
+
+        final ByteBuffer offsets;
+        final ByteBuffer data;
+
+        Blobs(ByteBuffer offsets, ByteBuffer data) {
+            this.offsets = offsets;
+            this.data = data;
+        }
+
+        int count() {
+            return offsets.limit() / Integer.BYTES - 1;
+        }
+
+        int start(int index) {
+            return offsets.getInt(index * Integer.BYTES);
+        }
+
+        int end(int index) {
+            return offsets.getInt((index + 1) * Integer.BYTES);
+        }
+
+        int length(int index) {
+            return end(index) - start(index);
+        }
+
+        BytesRef get(int index) {
+            byte[] bytes = new byte[length(index)];
+            ByteBuffer source = data.duplicate();
+            source.position(start(index));
+            source.get(bytes);
+            return new BytesRef(bytes);
+        }
+
+        /**
+         * Compares the value with the given one like BytesRef does, without copying it.
+         */
+        int compareTo(int index, BytesRef other) {
+            int start = start(index);
+            int length = length(index);
+            int common = Math.min(length, other.length);
+            for (int i = 0; i < common; i++) {
+                int cmp = (data.get(start + i) & 0xff) - (other.bytes[other.offset + i] & 0xff);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return length - other.length;
+        }
+
+        boolean startsWith(int index, BytesRef prefix) {
+            if (length(index) < prefix.length) {
+                return false;
+            }
+            int start = start(index);
+            for (int i = 0; i < prefix.length; i++) {
+                if (data.get(start + i) != prefix.bytes[prefix.offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class BlobsWriter {
+        private final ByteBuffer offsets;
+        private final ByteBuffer data;
+
+        BlobsWriter(int count, long length) throws IOException {
+            offsets = allocate((long) Integer.BYTES * (count + 1));
+            data = allocate(length);
+            offsets.putInt(0);
+        }
+
+        void add(BytesRef value) {
+            data.put(value.bytes, value.offset, value.length);
+            endValue();
+        }
+
+        void add(Blobs blobs, int index) {
+            ByteBuffer source = blobs.data.duplicate();
+            source.limit(blobs.end(index));
+            source.position(blobs.start(index));
+            data.put(source);
+            endValue();
+        }
+
+        /**
+         * Appends an int to the current value, which is completed with endValue().
+         */
+        void addInt(int value) {
+            data.putInt(value);
+        }
+
+        void endValue() {
+            offsets.putInt(data.position());
+        }
+
+        Blobs finish() {
+            offsets.flip();
+            data.flip();
+            return new Blobs(offsets, data);
+        }
+    }
+
+    /**
+     * Visits the tokens of a snapshot in order, i.e. the trie nodes with own postings in depth-first order.
+     */
+    private final class TokenCursor {
+        // Every frame is {node, next child}, where next child is -1 until the node is visited
+        private final ArrayDeque<int[]> path = new ArrayDeque<>();
+        private final StringBuilder token = new StringBuilder();
+        int node;
+
+        TokenCursor() {
+            path.push(new int[] {0, -1});
+        }
+
+        boolean next() {
+            while (!path.isEmpty()) {
+                int[] frame = path.peek();
+                int current = frame[0];
+                if (frame[1] < 0) {
+                    frame[1] = 0;
+                    if (ownCount(current) > 0) {
+                        node = current;
+                        return true;
+                    }
+                } else if (frame[1] < node(current, CHILD_COUNT)) {
+                    token.append((char) node(current, CHILDREN + 2 * frame[1]));
+                    path.push(new int[] {node(current, CHILDREN + 2 * frame[1] + 1), -1});
+                    frame[1]++;
+                } else {
+                    path.pop();
+                    if (token.length() > 0) {
+                        token.setLength(token.length() - 1);
+                    }
+                }
+            }
+            return false;
+        }
+
+        String token() {
+            return token.toString();
+        }
+    }
+
+    /**
+     * Builds a trie from tokens added in order along with their postings.
+     */
+    private static final class TrieBuilder {
+        private ByteBuffer postings;
+        private final BuildNode root = new BuildNode('\0', 0);
+        private final List<BuildNode> path = new ArrayList<>();
+        private String previous = "";
+
+        TrieBuilder(int postingsCapacity) throws IOException {
+            postings = allocate((long) Integer.BYTES * postingsCapacity);
+            path.add(root);
+        }
+
+        void add(String token, int[] slots, int length) throws IOException {
+            int common = 0;
+            int max = Math.min(previous.length(), token.length());
+            while (common < max && previous.charAt(common) == token.charAt(common)) {
+                common++;
+            }
+            while (path.size() > common + 1) {
+                finish(path.remove(path.size() - 1));
+            }
+            for (int i = common; i < token.length(); i++) {
+                BuildNode node = new BuildNode(token.charAt(i), postingsSize());
+                path.get(path.size() - 1).addChild(node);
+                path.add(node);
+            }
+
+            // The token comes before all longer ones with the same start, so its postings come first in its node
+            BuildNode node = path.get(path.size() - 1);
+            ensureCapacity(length);
+            for (int i = 0; i < length; i++) {
+                postings.putInt(slots[i]);
+            }
+            node.ownEnd = postingsSize();
+            node.minSlot = Math.min(node.minSlot, slots[0]);
+            previous = token;
+        }
+
+        ByteBuffer postings() throws IOException {
+            if (root.end < 0) {
+                while (path.size() > 1) {
+                    finish(path.remove(path.size() - 1));
+                }
+                root.end = postingsSize();
+                postings.flip();
+            }
+            return postings;
+        }
+
+        ByteBuffer nodes() throws IOException {
+            postings();
+            List<BuildNode> all = new ArrayList<>();
+            ArrayDeque<BuildNode> queue = new ArrayDeque<>();
+            queue.add(root);
+            int size = 0;
+            while (!queue.isEmpty()) {
+                BuildNode node = queue.poll();
+                node.offset = size;
+                size += CHILDREN + 2 * node.childCount();
+                all.add(node);
+                if (node.children != null) {
+                    queue.addAll(node.children);
+                }
+            }
+
+            ByteBuffer nodes = allocate((long) Integer.BYTES * size);
+            for (BuildNode node : all) {
+                nodes.putInt(node.childCount());
+                nodes.putInt(node.start);
+                nodes.putInt(node.ownEnd);
+                nodes.putInt(node.end);
+                nodes.putInt(node.minSlot);
+                for (int i = 0; i < node.childCount(); i++) {
+                    BuildNode child = node.children.get(i);
+                    nodes.putInt(child.label);
+                    nodes.putInt(child.offset);
+                }
+            }
+            nodes.flip();
+            return nodes;
+        }
+
+        private void finish(BuildNode node) {
+            node.end = postingsSize();
+            BuildNode parent = path.get(path.size() - 1);
+            parent.minSlot = Math.min(parent.minSlot, node.minSlot);
+        }
+
+        private int postingsSize() {
+            return postings.position() / Integer.BYTES;
+        }
+
+        private void ensureCapacity(int length) throws IOException {
+            if (postings.remaining() < length * Integer.BYTES) {
+                ByteBuffer grown = allocate(Math.max(2L * postings.capacity(), postings.position() + (long) Integer.BYTES * length));
+                postings.flip();
+                grown.put(postings);
+                postings = grown;
+            }
+        }
+    }
+
+    private static final class BuildNode {
+        final char label;
+        final int start;
+        int ownEnd;
+        int end = -1;
+        int minSlot = Integer.MAX_VALUE;
+        int offset;
+        List<BuildNode> children;
+
+        BuildNode(char label, int start) {
+            this.label = label;
+            this.start = start;
+            this.ownEnd = start;
+        }
+
+        void addChild(BuildNode child) {
+            if (children == null) {
+                children = new ArrayList<>(2);
+            }
+            children.add(child);
+        }
+
+        int childCount() {
+            return children == null ? 0 : children.size();
+        }
+    }
+}
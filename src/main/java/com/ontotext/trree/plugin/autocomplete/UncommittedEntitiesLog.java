@@ -0,0 +1,85 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import gnu.trove.TLongHashSet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An append-only log of the ids of the entities whose IRI or labels were updated in committed transactions
+ * but not yet durably committed to the Lucene index. Appending and syncing a few longs is much cheaper than
+ * a Lucene commit, and replaying the ids from the current repository state after a crash brings
+ * the index back in sync. The log is cleared after every durable commit of the index.
+ */
+class UncommittedEntitiesLog implements Closeable {
+    private final Path file;
+    private FileChannel channel;
+    private boolean isEmpty;
+
+    UncommittedEntitiesLog(Path file) {
+        this.file = file;
+        this.isEmpty = !Files.exists(file);
+    }
+
+    /**
+     * Appends the given ids and syncs them to disk.
+     */
+    void append(TLongHashSet ids) throws IOException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(ids.size() * Long.BYTES);
+        ids.forEach(id -> {
+            buffer.putLong(id);
+            return true;
+        });
+        buffer.flip();
+
+        if (channel == null) {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+        isEmpty = false;
+    }
+
+    /**
+     * Reads all ids in the log, duplicates are returned only once.
+     */
+    TLongHashSet read() throws IOException {
+        TLongHashSet ids = new TLongHashSet();
+        if (isEmpty) {
+            return ids;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        // A partial id at the end comes from a crash while appending, its transaction did not complete
+        while (buffer.remaining() >= Long.BYTES) {
+            ids.add(buffer.getLong());
+        }
+        return ids;
+    }
+
+    void clear() throws IOException {
+        if (isEmpty) {
+            return;
+        }
+        close();
+        Files.deleteIfExists(file);
+        isEmpty = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
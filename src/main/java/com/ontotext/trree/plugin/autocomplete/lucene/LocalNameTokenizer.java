@@ -4,6 +4,7 @@ import org.apache.lucene.analysis.Tokenizer;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
 import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.util.ArrayUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -21,7 +22,15 @@ final class LocalNameTokenizer extends Tokenizer {
     private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
 
     private final PositionIncrementAttribute positionIncrementAttribute = addAttribute(PositionIncrementAttribute.class);
-    private String stringToTokenize;
+
+    private static final int INITIAL_BUFFER_SIZE = 256;
+    // A buffer grown by a very long value is dropped on close() instead of being kept by the reused tokenizer
+    private static final int MAX_RETAINED_BUFFER_SIZE = 16 * 1024;
+
+    // The value being tokenized is read into the buffer, which is reused by every value the tokenizer is reset to.
+    // The length is -1 until the value is read.
+    private char[] buffer = new char[INITIAL_BUFFER_SIZE];
+    private int length = -1;
     private int tokenStart;
 
     LocalNameTokenizer() {
@@ -30,49 +39,63 @@ final class LocalNameTokenizer extends Tokenizer {
 
     private void readStringToTokenize(Reader input) {
         int numChars;
-        char[] buffer = new char[1024];
-        StringBuilder stringBuilder = new StringBuilder();
+        int read = 0;
         try {
-            while ((numChars =
-                    input.read(buffer, 0, buffer.length)) != -1) {
-                stringBuilder.append(buffer, 0, numChars);
+            while ((numChars = input.read(buffer, read, buffer.length - read)) != -1) {
+                read += numChars;
+                if (read == buffer.length) {
+                    buffer = ArrayUtil.grow(buffer, read + 1);
+                }
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
         this.tokenStart = 0;
-        this.stringToTokenize = stringBuilder.toString();
+        this.length = read;
     }
 
     private boolean isOtherNameCharacter(char character) {
         return character == '\'' || character == '`';
     }
 
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        length = -1;
+    }
+
     @Override
     public void end() throws IOException {
         super.end();
-        if (stringToTokenize != null) {
-            offsetAtt.setOffset(stringToTokenize.length(), stringToTokenize.length());
+        if (length != -1) {
+            offsetAtt.setOffset(length, length);
+        }
+        length = -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        length = -1;
+        if (buffer.length > MAX_RETAINED_BUFFER_SIZE) {
+            buffer = new char[INITIAL_BUFFER_SIZE];
         }
-        // Reset string buffer
-        stringToTokenize = null;
     }
 
     @Override
     public boolean incrementToken() throws IOException {
         try {
             this.clearAttributes();
-            if (stringToTokenize == null) {
-                // Read string buffer
+            if (length == -1) {
                 readStringToTokenize(this.input);
             }
-            int endOfString = stringToTokenize.length();
+            int endOfString = length;
             // Reached end of string
             if (!(tokenStart < endOfString)) {
                 return false;
             }
 
-            char startTokenChar = stringToTokenize.charAt(tokenStart);
+            char startTokenChar = buffer[tokenStart];
 
             // Skip tokens that consist of spaces, tabs or new lines
             while (startTokenChar == ' ' || startTokenChar == '\t' || startTokenChar == '\n' || startTokenChar == '\r') {
@@ -80,49 +103,49 @@ final class LocalNameTokenizer extends Tokenizer {
                 if (tokenStart == endOfString) {
                     return false;
                 }
-                startTokenChar = stringToTokenize.charAt(tokenStart);
+                startTokenChar = buffer[tokenStart];
             }
 
             // This is the last character
             if (!(tokenStart + 1 < endOfString)) {
-                termAtt.setEmpty().append(stringToTokenize.substring(tokenStart));
+                termAtt.copyBuffer(buffer, tokenStart, 1);
                 positionIncrementAttribute.setPositionIncrement(1);
-                offsetAtt.setOffset(tokenStart, stringToTokenize.length());
+                offsetAtt.setOffset(tokenStart, endOfString);
                 tokenStart++;
                 return true;
             }
             // There is at least one more token after the current
             int tokenEnd = tokenStart + 1;
-            char nextTokenChar = stringToTokenize.charAt(tokenEnd);
+            char nextTokenChar = buffer[tokenEnd];
 
             if (Character.isLowerCase(startTokenChar)) {
-                while (tokenEnd < endOfString && lowerCaseOrOtherName(stringToTokenize.charAt(tokenEnd))) {
+                while (tokenEnd < endOfString && lowerCaseOrOtherName(buffer[tokenEnd])) {
                     tokenEnd++;
                 }
             } else if (Character.isUpperCase(startTokenChar)) {
                 if (Character.isUpperCase(nextTokenChar)) {
                     // ABC* => ABC *..
-                    while (tokenEnd < endOfString && upperCaseOrOtherName(stringToTokenize.charAt(tokenEnd))) {
+                    while (tokenEnd < endOfString && upperCaseOrOtherName(buffer[tokenEnd])) {
                         tokenEnd++;
                     }
                     // AAa => A Aa
-                    if (tokenEnd < endOfString && Character.isLowerCase(stringToTokenize.charAt(tokenEnd))) {
+                    if (tokenEnd < endOfString && Character.isLowerCase(buffer[tokenEnd])) {
                         tokenEnd--;
                     }
                 }
                 // AaaaAbbb => Aaaa Abbb
                 else if (Character.isLowerCase(nextTokenChar)) {
-                    while (tokenEnd < endOfString && lowerCaseOrOtherName(stringToTokenize.charAt(tokenEnd))) {
+                    while (tokenEnd < endOfString && lowerCaseOrOtherName(buffer[tokenEnd])) {
                         tokenEnd++;
                     }
                 }
             } else if (Character.isDigit(startTokenChar)) {
                 // ad123A => 123 A..
-                while (tokenEnd < endOfString && Character.isDigit(stringToTokenize.charAt(tokenEnd))) {
+                while (tokenEnd < endOfString && Character.isDigit(buffer[tokenEnd])) {
                     tokenEnd++;
                 }
             } else {
-                while (tokenEnd < endOfString && !(letterDigitOrOtherName(stringToTokenize.charAt(tokenEnd)))) {
+                while (tokenEnd < endOfString && !(letterDigitOrOtherName(buffer[tokenEnd]))) {
                     tokenEnd++;
                 }
             }
@@ -131,7 +154,7 @@ final class LocalNameTokenizer extends Tokenizer {
                 return false;
             }
 
-            termAtt.setEmpty().append(stringToTokenize.substring(tokenStart, tokenEnd));
+            termAtt.copyBuffer(buffer, tokenStart, tokenEnd - tokenStart);
             positionIncrementAttribute.setPositionIncrement(1);
             // Unfortunately setting offset breaks the one letter completions, but is needed for the highlighting
             offsetAtt.setOffset(tokenStart, tokenEnd);
@@ -139,7 +162,7 @@ final class LocalNameTokenizer extends Tokenizer {
             return true;
         } catch (Exception e) {
             log.error("Error while processing token", e);
-            stringToTokenize = null;
+            length = -1;
             throw new RuntimeException(e);
         }
     }
@@ -0,0 +1,364 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import com.ontotext.trree.plugin.autocomplete.lucene.LocalNameAnalyzer;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.util.BytesRef;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * The behaviour every {@link AutocompleteBackend} must have. Every backend gets a subclass that creates it,
+ * which also makes it easy to run the same workloads against another engine.
+ */
+public abstract class AutocompleteBackendConformanceTest {
+    private static final Set<BytesRef> NAMESPACE_A = Collections.singleton(new BytesRef("http://a/"));
+    private static final Set<BytesRef> NAMESPACE_B = Collections.singleton(new BytesRef("http://b/"));
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Path dir;
+    AutocompleteBackend backend;
+
+    /**
+     * Creates the backend over the given directory, it holds the suggestions committed by a previous backend.
+     */
+    abstract AutocompleteBackend createBackend(Path dir, Analyzer analyzer) throws IOException;
+
+    /**
+     * Waits for any work the backend does in the background after a refresh, so the lookups go through
+     * the code path that serves them once the backend is up to date.
+     */
+    void awaitRefreshed(AutocompleteBackend backend) throws Exception {
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dir = tmp.newFolder("index").toPath();
+        backend = createBackend(dir, new LocalNameAnalyzer());
+        backend.build(InputIterator.EMPTY);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        backend.close();
+    }
+
+    @Test
+    public void testAddAndLookup() throws Exception {
+        add(1, "riverMountain", 1000);
+        add(2, "mountainRiver", 1000);
+        add(3, "USRegion", 900);
+        refresh();
+
+        assertEquals(3, backend.getCount());
+        // The match on the second token is scored lower
+        assertEquals(Arrays.asList("<b>riv</b>erMountain|1000|1", "mountain<b>Riv</b>er|900|2"), lookup("riv", null, 10));
+        assertEquals(Arrays.asList("US<b>Reg</b>ion|810|3"), lookup("reg", null, 10));
+        assertEquals(Collections.emptyList(), lookup("lake", null, 10));
+    }
+
+    @Test
+    public void testAllTokensMustMatch() throws Exception {
+        add(1, "riverMountain", 1000);
+        add(2, "mountain lake", 900);
+        add(3, "river", 800);
+        refresh();
+
+        assertEquals(Arrays.asList("<b>river</b><b>Mou</b>ntain|1000|1"), lookup("river mou", null, 10));
+        assertEquals(Arrays.asList("<b>mountain</b> <b>lake</b>|900|2"), lookup("lake mountain ", null, 10));
+    }
+
+    @Test
+    public void testOrderAndCount() throws Exception {
+        add(1, "alpha beta", 500);
+        add(2, "alpha gamma", 400);
+        add(3, "alpha delta", 700);
+        add(4, "beta alpha", 800);
+        refresh();
+
+        // By score, a match on the second token is scored lower
+        assertEquals(Arrays.asList("beta <b>alpha</b>|720|4", "<b>alpha</b> delta|700|3", "<b>alpha</b> beta|500|1",
+                "<b>alpha</b> gamma|400|2"), lookup("alpha", null, 10));
+        // The two heaviest matches
+        assertEquals(Arrays.asList("beta <b>alpha</b>|720|4", "<b>alpha</b> delta|700|3"), lookup("alpha", null, 2));
+    }
+
+    @Test
+    public void testContexts() throws Exception {
+        backend.add(key(1), new BytesRef("riverMountain"), NAMESPACE_A, 1000, payload(1));
+        backend.add(key(2), new BytesRef("riverLake"), NAMESPACE_B, 900, payload(2));
+        refresh();
+
+        assertEquals(Arrays.asList("<b>river</b>Mountain|1000|1"), lookup("river", NAMESPACE_A, 10));
+        assertEquals(Arrays.asList("<b>river</b>Lake|900|2"), lookup("river", NAMESPACE_B, 10));
+        assertEquals(2, lookup("river", null, 10).size());
+        assertEquals(2, lookup("river", Collections.emptySet(), 10).size());
+    }
+
+    @Test
+    public void testChangesVisibleAfterRefresh() throws Exception {
+        add(1, "riverMountain", 1000);
+        assertEquals(Collections.emptyList(), lookup("river", null, 10));
+        refresh();
+        assertEquals(1, lookup("river", null, 10).size());
+    }
+
+    @Test
+    public void testPinnedViewIsNotRefreshed() throws Exception {
+        add(1, "riverMountain", 1000);
+        add(2, "riverLake", 900);
+        refresh();
+
+        try (AutocompleteBackend.PinnedView view = backend.pin()) {
+            backend.delete(key(1));
+            add(3, "riverSea", 800);
+            refresh();
+            assertEquals(Arrays.asList("<b>river</b>Lake|900|2", "<b>river</b>Sea|800|3"), lookup("river", null, 10));
+
+            // The view still has what was visible when it was pinned
+            assertEquals(2, view.getCount());
+            assertEquals(Arrays.asList("<b>river</b>Mountain|1000|1", "<b>river</b>Lake|900|2"),
+                    toStrings(view.lookup("river", null, 10, true)));
+        }
+    }
+
+    @Test
+    public void testUpdateAndDelete() throws Exception {
+        add(1, "riverMountain", 1000);
+        add(2, "riverLake", 900);
+        add(3, "riverSea", 800);
+        refresh();
+
+        backend.update(key(1), new BytesRef("riverValley"), null, 1000, payload(1));
+        backend.delete(key(2));
+        refresh();
+        assertEquals(Arrays.asList("<b>river</b>Valley|1000|1", "<b>river</b>Sea|800|3"), lookup("river", null, 10));
+
+        backend.deleteByKeyPrefix(new BytesRef("key"));
+        refresh();
+        assertEquals(Collections.emptyList(), lookup("river", null, 10));
+        assertEquals(0, backend.getCount());
+    }
+
+    @Test
+    public void testAddAll() throws Exception {
+        add(1, "riverMountain", 1000);
+        add(2, "riverLake", 900);
+        refresh();
+
+        backend.addAll(Collections.singletonList(key(2)), Arrays.asList(
+                new AutocompleteBackend.Suggestion(key(3), new BytesRef("riverSea"), null, 800, payload(3)),
+                new AutocompleteBackend.Suggestion(key(4), new BytesRef("riverBank"), null, 700, payload(4))));
+        refresh();
+        assertEquals(Arrays.asList("<b>river</b>Mountain|1000|1", "<b>river</b>Sea|800|3", "<b>river</b>Bank|700|4"),
+                lookup("river", null, 10));
+    }
+
+    @Test
+    public void testCommitAndRollback() throws Exception {
+        add(1, "riverMountain", 1000);
+        backend.commit();
+        refresh();
+        add(2, "riverLake", 900);
+        refresh();
+        assertEquals(2, lookup("river", null, 10).size());
+
+        // Back to the committed suggestions, the backend can still be changed afterwards
+        backend.rollback();
+        awaitRefreshed(backend);
+        assertEquals(Arrays.asList("<b>river</b>Mountain|1000|1"), lookup("river", null, 10));
+        add(3, "riverSea", 800);
+        refresh();
+        assertEquals(Arrays.asList("<b>river</b>Mountain|1000|1", "<b>river</b>Sea|800|3"), lookup("river", null, 10));
+        backend.commit();
+
+        // Only committed suggestions survive a restart
+        add(4, "riverBank", 700);
+        refresh();
+        backend.close();
+        backend = createBackend(dir, new LocalNameAnalyzer());
+        awaitRefreshed(backend);
+        assertEquals(2, backend.getCount());
+        assertEquals(Arrays.asList("<b>river</b>Mountain|1000|1", "<b>river</b>Sea|800|3"), lookup("river", null, 10));
+    }
+
+    @Test
+    public void testBuild() throws Exception {
+        add(1, "riverMountain", 1000);
+        refresh();
+
+        backend.build(new TestInputIterator(Arrays.asList(
+                new AutocompleteBackend.Suggestion(key(2), new BytesRef("riverLake"), null, 900, payload(2)),
+                new AutocompleteBackend.Suggestion(key(3), new BytesRef("riverSea"), null, 800, payload(3)))));
+        awaitRefreshed(backend);
+        assertEquals(Arrays.asList("<b>river</b>Lake|900|2", "<b>river</b>Sea|800|3"), lookup("river", null, 10));
+
+        // The keys of the iterator are kept
+        backend.delete(key(2));
+        refresh();
+        assertEquals(Arrays.asList("<b>river</b>Sea|800|3"), lookup("river", null, 10));
+    }
+
+    @Test
+    public void testSuggestions() throws Exception {
+        backend.add(key(1), new BytesRef("riverMountain"), NAMESPACE_A, 1000, payload(1));
+        add(2, "riverLake", 900);
+        add(3, "riverSea", 800);
+        backend.delete(key(2));
+        refresh();
+        add(4, "riverBank", 700);
+
+        List<String> suggestions = new ArrayList<>();
+        try (AutocompleteBackend.Suggestions iterator = backend.suggestions()) {
+            BytesRef text;
+            while ((text = iterator.next()) != null) {
+                suggestions.add(text.utf8ToString() + "|" + iterator.weight() + "|" + getId(iterator.payload()) + "|"
+                        + iterator.key().utf8ToString() + "|" + iterator.contexts());
+            }
+        }
+        Collections.sort(suggestions);
+        assertEquals(Arrays.asList("riverMountain|1000|1|key1|" + NAMESPACE_A, "riverSea|800|3|key3|[]"), suggestions);
+    }
+
+    @Test
+    public void testAddReweighted() throws Exception {
+        add(1, "riverMountain", 1000);
+        add(2, "riverLake", 900);
+        add(3, "riverSea", 800);
+        backend.delete(key(3));
+        refresh();
+
+        try (AutocompleteBackend target = createBackend(tmp.newFolder("reweighted").toPath(), new LocalNameAnalyzer())) {
+            target.build(InputIterator.EMPTY);
+            if (!target.addReweighted(backend, (text, payload, weight) -> 500 + getId(payload))) {
+                // Backends that can't copy the suggestions add nothing
+                target.refresh();
+                assertEquals(0, target.getCount());
+                return;
+            }
+            target.refresh();
+            awaitRefreshed(target);
+            assertEquals(Arrays.asList("<b>river</b>Lake|502|2", "<b>river</b>Mountain|501|1"),
+                    toStrings(target.lookup("river", null, 10)));
+
+            // The keys are kept
+            target.delete(key(1));
+            target.refresh();
+            awaitRefreshed(target);
+            assertEquals(Arrays.asList("<b>river</b>Lake|502|2"), toStrings(target.lookup("river", null, 10)));
+        }
+    }
+
+    @Test
+    public void testRematch() throws Exception {
+        add(1, "riverMountain", 1000);
+        add(2, "mountainRiver", 1000);
+        refresh();
+
+        List<Lookup.LookupResult> results = backend.lookup("riv", null, 10);
+        AnalyzedQuery query = backend.analyzeQuery("river");
+        assertEquals(toStrings(backend.lookup("river", null, 10)),
+                toStrings(Arrays.asList(backend.rematch(results.get(0), 1000, query), backend.rematch(results.get(1), 1000, query))));
+        assertNotNull(backend.rematch(results.get(0), 1000, backend.analyzeQuery("mountain river")));
+        assertNull(backend.rematch(results.get(0), 1000, backend.analyzeQuery("rivers")));
+    }
+
+    void add(long id, String text, long weight) throws IOException {
+        backend.add(key(id), new BytesRef(text), null, weight, payload(id));
+    }
+
+    private void refresh() throws Exception {
+        backend.refresh();
+        awaitRefreshed(backend);
+    }
+
+    private List<String> lookup(String query, Set<BytesRef> contexts, int count) throws IOException {
+        return toStrings(backend.lookup(query, contexts, count));
+    }
+
+    static BytesRef key(long id) {
+        return new BytesRef("key" + id);
+    }
+
+    static BytesRef payload(long id) {
+        return new BytesRef(ByteBuffer.allocate(Long.BYTES + 1).putLong(id).put((byte) 0).array());
+    }
+
+    private static long getId(BytesRef payload) {
+        return ByteBuffer.wrap(payload.bytes, payload.offset, payload.length).getLong();
+    }
+
+    private static List<String> toStrings(List<Lookup.LookupResult> results) {
+        List<String> strings = new ArrayList<>();
+        for (Lookup.LookupResult result : results) {
+            strings.add(AutocompleteSuggester.htmlifyHighlight(result.highlightKey) + "|" + result.value + "|"
+                    + getId(result.payload));
+        }
+        return strings;
+    }
+
+    private static class TestInputIterator implements AutocompleteInputIterator {
+        private final Iterator<AutocompleteBackend.Suggestion> iterator;
+        private AutocompleteBackend.Suggestion current;
+
+        TestInputIterator(List<AutocompleteBackend.Suggestion> suggestions) {
+            this.iterator = suggestions.iterator();
+        }
+
+        @Override
+        public BytesRef key() {
+            return current.key;
+        }
+
+        @Override
+        public BytesRef next() {
+            current = iterator.hasNext() ? iterator.next() : null;
+            return current == null ? null : current.text;
+        }
+
+        @Override
+        public long weight() {
+            return current.weight;
+        }
+
+        @Override
+        public BytesRef payload() {
+            return current.payload;
+        }
+
+        @Override
+        public boolean hasPayloads() {
+            return true;
+        }
+
+        @Override
+        public Set<BytesRef> contexts() {
+            return current.contexts;
+        }
+
+        @Override
+        public boolean hasContexts() {
+            return false;
+        }
+    }
+}
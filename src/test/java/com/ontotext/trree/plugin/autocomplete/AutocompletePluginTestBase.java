@@ -20,7 +20,14 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 import static junit.framework.TestCase.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -34,7 +41,11 @@ public abstract class AutocompletePluginTestBase extends SingleRepositoryFunctio
 	private static final Logger LOG = LoggerFactory.getLogger(AutocompletePluginTestBase.class);
 
 	private static final String AUTOCOMPLETE_QUERY_START = "SELECT ?s ?g WHERE { GRAPH ?g { ?s <http://www.ontotext.com/plugins/autocomplete#query> \"";
+	private static final String AUTOCOMPLETE_QUERY_NO_HIGHLIGHT_START = "SELECT ?s WHERE { ?s <http://www.ontotext.com/plugins/autocomplete#queryNoHighlight> \"";
+	private static final String AUTOCOMPLETE_BATCH_QUERY = "SELECT ?s ?g WHERE { GRAPH ?g { ?s <http://www.ontotext.com/plugins/autocomplete#batchQuery> \"\"\"%s\"\"\" . } }";
 	private static final String GET_INDEX_STATUS = "SELECT ?s WHERE { ?o <http://www.ontotext.com/plugins/autocomplete#status> ?s . }";
+	private static final Pattern DOCUMENTS_PATTERN = Pattern.compile("documents=(\\d+)");
+	private static final String GET_CACHE_STATS = "SELECT ?s WHERE { ?o <http://www.ontotext.com/plugins/autocomplete#cacheStats> ?s . }";
 	private static final String IS_PLUGIN_ENABLED = "ASK WHERE { ?o <http://www.ontotext.com/plugins/autocomplete#enabled> ?s . }";
 	private static final String SHOULD_INDEX_IRIS = "ASK WHERE { ?o <http://www.ontotext.com/plugins/autocomplete#indexIRIs> ?s . }";
 
@@ -47,12 +58,24 @@ public abstract class AutocompletePluginTestBase extends SingleRepositoryFunctio
 	private static final String SET_REINDEX_INSERT = "INSERT DATA { _:s <http://www.ontotext.com/plugins/autocomplete#reIndex> true . }";
 	private static final String SET_REINDEX_ASK = "ASK { GRAPH <http://www.ontotext.com/plugins/autocomplete#control> { _:s <http://www.ontotext.com/plugins/autocomplete#reIndex> true . } }";
 
+	private static final String SET_REWEIGHT_INSERT = "INSERT DATA { _:s <http://www.ontotext.com/plugins/autocomplete#reweight> true . }";
+	private static final String SET_REWEIGHT_ASK = "ASK { GRAPH <http://www.ontotext.com/plugins/autocomplete#control> { _:s <http://www.ontotext.com/plugins/autocomplete#reweight> true . } }";
+
 	private static final String ADD_LABEL_CONFIG_INSERT = "INSERT DATA { <%s> <http://www.ontotext.com/plugins/autocomplete#addLabelConfig> \"%s\" }";
 	private static final String ADD_LABEL_CONFIG_ASK = "ASK { GRAPH <http://www.ontotext.com/plugins/autocomplete#control> { <%s> <http://www.ontotext.com/plugins/autocomplete#addLabelConfig> \"%s\" } }";
 
 	private static final String REMOVE_LABEL_CONFIG_INSERT = "INSERT DATA { <%s> <http://www.ontotext.com/plugins/autocomplete#removeLabelConfig> \"\" }";
 	private static final String REMOVE_LABEL_CONFIG_ASK = "ASK { GRAPH <http://www.ontotext.com/plugins/autocomplete#control> { <%s> <http://www.ontotext.com/plugins/autocomplete#removeLabelConfig> \"\" } }";
 
+	private static final String SET_BUILD_PARALLELISM_INSERT = "INSERT DATA { _:s <http://www.ontotext.com/plugins/autocomplete#buildParallelism> \"%d\" . }";
+	private static final String SET_BUILD_PARALLELISM_ASK = "ASK { GRAPH <http://www.ontotext.com/plugins/autocomplete#control> { _:s <http://www.ontotext.com/plugins/autocomplete#buildParallelism> \"%d\" . } }";
+
+	private static final String SET_COMMIT_INTERVAL_INSERT = "INSERT DATA { _:s <http://www.ontotext.com/plugins/autocomplete#commitInterval> \"%d\" . }";
+	private static final String SET_COMMIT_INTERVAL_ASK = "ASK { GRAPH <http://www.ontotext.com/plugins/autocomplete#control> { _:s <http://www.ontotext.com/plugins/autocomplete#commitInterval> \"%d\" . } }";
+
+	private static final String SET_COMMIT_MAX_TRANSACTIONS_INSERT = "INSERT DATA { _:s <http://www.ontotext.com/plugins/autocomplete#commitMaxTransactions> \"%d\" . }";
+	private static final String SET_COMMIT_MAX_TRANSACTIONS_ASK = "ASK { GRAPH <http://www.ontotext.com/plugins/autocomplete#control> { _:s <http://www.ontotext.com/plugins/autocomplete#commitMaxTransactions> \"%d\" . } }";
+
 	@Parameterized.Parameters
 	static List<Object[]> getParams() {
 		return Arrays.asList(new Object[][] { {false}, {true} });
@@ -122,6 +145,36 @@ public abstract class AutocompletePluginTestBase extends SingleRepositoryFunctio
 		connection.commit();
 	}
 
+	void setBuildParallelism(int parallelism) throws Exception {
+		connection.begin();
+		if (useAskControl) {
+			connection.prepareBooleanQuery(String.format(SET_BUILD_PARALLELISM_ASK, parallelism)).evaluate();
+		} else {
+			connection.prepareUpdate(String.format(SET_BUILD_PARALLELISM_INSERT, parallelism)).execute();
+		}
+		connection.commit();
+	}
+
+	void setCommitInterval(int commitInterval) throws Exception {
+		connection.begin();
+		if (useAskControl) {
+			connection.prepareBooleanQuery(String.format(SET_COMMIT_INTERVAL_ASK, commitInterval)).evaluate();
+		} else {
+			connection.prepareUpdate(String.format(SET_COMMIT_INTERVAL_INSERT, commitInterval)).execute();
+		}
+		connection.commit();
+	}
+
+	void setCommitMaxTransactions(int commitMaxTransactions) throws Exception {
+		connection.begin();
+		if (useAskControl) {
+			connection.prepareBooleanQuery(String.format(SET_COMMIT_MAX_TRANSACTIONS_ASK, commitMaxTransactions)).evaluate();
+		} else {
+			connection.prepareUpdate(String.format(SET_COMMIT_MAX_TRANSACTIONS_INSERT, commitMaxTransactions)).execute();
+		}
+		connection.commit();
+	}
+
 	void disablePlugin() throws Exception {
 		setEnablePlugin(false);
 	}
@@ -135,6 +188,13 @@ public abstract class AutocompletePluginTestBase extends SingleRepositoryFunctio
 	}
 
 	void reindex() throws Exception {
+		startReindex();
+		while (!getPluginStatus().startsWith(IndexStatus.READY.toString())) {
+			Thread.sleep(1000L);
+		}
+	}
+
+	void startReindex() throws Exception {
 		connection.begin();
 		if (useAskControl) {
 			connection.prepareBooleanQuery(SET_REINDEX_ASK).evaluate();
@@ -142,6 +202,16 @@ public abstract class AutocompletePluginTestBase extends SingleRepositoryFunctio
 			connection.prepareUpdate(SET_REINDEX_INSERT).execute();
 		}
 		connection.commit();
+	}
+
+	void reweight() throws Exception {
+		connection.begin();
+		if (useAskControl) {
+			connection.prepareBooleanQuery(SET_REWEIGHT_ASK).evaluate();
+		} else {
+			connection.prepareUpdate(SET_REWEIGHT_INSERT).execute();
+		}
+		connection.commit();
 		while (!getPluginStatus().startsWith(IndexStatus.READY.toString())) {
 			Thread.sleep(1000L);
 		}
@@ -152,6 +222,20 @@ public abstract class AutocompletePluginTestBase extends SingleRepositoryFunctio
 		return getFoundSubjects(tq.evaluate()).get(0);
 	}
 
+	String getCacheStats() throws MalformedQueryException, RepositoryException, QueryEvaluationException {
+		TupleQuery tq = connection.prepareTupleQuery(QueryLanguage.SPARQL, GET_CACHE_STATS);
+		return getFoundSubjects(tq.evaluate()).get(0);
+	}
+
+	/**
+	 * Returns the number of suggestions visible to lookups, duplicates and deleted ones included as they would be.
+	 */
+	long getIndexedDocuments() throws MalformedQueryException, RepositoryException, QueryEvaluationException {
+		Matcher matcher = DOCUMENTS_PATTERN.matcher(getCacheStats());
+		assertTrue(matcher.find());
+		return Long.parseLong(matcher.group(1));
+	}
+
 	private List<String> getFoundSubjects(TupleQueryResult result) throws QueryEvaluationException {
 		List<String> foundSubjects = new LinkedList<>();
 		try {
@@ -227,6 +311,18 @@ public abstract class AutocompletePluginTestBase extends SingleRepositoryFunctio
 		return getFoundSubjects(tq.evaluate());
 	}
 
+	List<String> executeQueryWithoutHighlightAndGetResults(String pluginQuery) throws RepositoryException, MalformedQueryException, QueryEvaluationException {
+		String sparqlQuery = AUTOCOMPLETE_QUERY_NO_HIGHLIGHT_START + pluginQuery + "\" . }";
+		TupleQuery tq = connection.prepareTupleQuery(QueryLanguage.SPARQL, sparqlQuery);
+		return getFoundSubjects(tq.evaluate());
+	}
+
+	List<String> executeBatchQueryAndGetResults(String... pluginQueries) throws RepositoryException, MalformedQueryException, QueryEvaluationException {
+		String sparqlQuery = String.format(AUTOCOMPLETE_BATCH_QUERY, String.join("\n", pluginQueries));
+		TupleQuery tq = connection.prepareTupleQuery(QueryLanguage.SPARQL, sparqlQuery);
+		return getFoundSubjects(tq.evaluate());
+	}
+
 	void importData(String fileName, RDFFormat format) throws RepositoryException, IOException, RDFParseException {
 		connection.begin();
 		connection.add(new File(fileName), "urn:base", format);
@@ -273,6 +369,39 @@ public abstract class AutocompletePluginTestBase extends SingleRepositoryFunctio
 		connection = getRepository().getConnection();
 	}
 
+	/**
+	 * Restarts the repository with the given size of the result cache of the plugin, 0 disables the cache.
+	 * The size can only be set in the configuration file, which the plugin saves on shutdown.
+	 */
+	void restartWithResultCacheSize(int resultCacheSize) throws IOException {
+		Path configFile = getPluginDataDir().resolve(AutocompletePluginUtils.PLUGIN_CONFIG_FILENAME);
+		connection.close();
+		getRepository().shutDown();
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(configFile)) {
+			properties.load(in);
+		}
+		properties.setProperty(AutocompletePluginUtils.AUTOCOMPLETE_RESULT_CACHE_SIZE_PROPERTY, Integer.toString(resultCacheSize));
+		try (OutputStream out = Files.newOutputStream(configFile)) {
+			properties.store(out, null);
+		}
+		getRepository().initialize();
+		connection = getRepository().getConnection();
+	}
+
+	/**
+	 * Returns the data directory of the plugin, it exists once the plugin was enabled.
+	 */
+	Path getPluginDataDir() throws IOException {
+		try (Stream<Path> files = Files.walk(getRepository().getDataDir().toPath())) {
+			Optional<Path> dictionary = files
+					.filter(file -> file.getFileName().toString().equals(NamespaceDictionary.FILE_NAME))
+					.findFirst();
+			assertTrue(dictionary.isPresent());
+			return dictionary.get().getParent();
+		}
+	}
+
 	protected void waitForRankStatus(String status) {
 		int counter = 20;
 		String currentStatus = "";
@@ -1,5 +1,6 @@
 package com.ontotext.trree.plugin.autocomplete;
 
+import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.vocabulary.RDFS;
 import org.junit.Test;
 import org.junit.runners.Parameterized;
@@ -35,6 +36,64 @@ public class TestAutocompleteLabels extends AutocompletePluginTestBase {
         testValidSuggestions();
     }
 
+    @Test
+    public void addAndRemoveInOneTransaction() throws Exception {
+        enablePlugin();
+        connection.begin();
+        connection.add(vf.createIRI("urn:alpha"), RDFS.LABEL, vf.createLiteral("This is alpha!"));
+        connection.add(vf.createIRI("urn:beta"), RDFS.LABEL, vf.createLiteral("This is beta!"));
+        connection.remove(vf.createIRI("urn:beta"), RDFS.LABEL, null);
+        connection.commit();
+
+        assertEquals(1, executeQueryAndGetResults(";this").size());
+    }
+
+    @Test
+    public void removedLabelsAreDeleted() throws Exception {
+        enablePlugin();
+        for (int i = 0; i < 5; i++) {
+            connection.add(vf.createIRI("urn:entity" + i), RDFS.LABEL, vf.createLiteral("Slot label " + i));
+        }
+        long documents = getIndexedDocuments();
+
+        connection.begin();
+        for (int i = 0; i < 3; i++) {
+            connection.remove(vf.createIRI("urn:entity" + i), RDFS.LABEL, null);
+        }
+        connection.commit();
+
+        // Removed labels leave nothing behind that could take the slots of the remaining ones
+        assertEquals(documents - 3, getIndexedDocuments());
+        assertEquals(2, executeQueryAndGetResults(";slot").size());
+        assertEquals(2, executeQueryAndGetResults(";slot;limit=2").size());
+    }
+
+    @Test
+    public void removedLabelIsKeptWhileAnotherStatementHasIt() throws Exception {
+        enablePlugin();
+        IRI languages = vf.createIRI("urn:languages");
+        IRI graphs = vf.createIRI("urn:graphs");
+        IRI graph1 = vf.createIRI("urn:graph1");
+        IRI graph2 = vf.createIRI("urn:graph2");
+        connection.begin();
+        connection.add(languages, RDFS.LABEL, vf.createLiteral("Parisian", "en"));
+        connection.add(languages, RDFS.LABEL, vf.createLiteral("Parisian", "fr"));
+        connection.add(graphs, RDFS.LABEL, vf.createLiteral("Graphian"), graph1);
+        connection.add(graphs, RDFS.LABEL, vf.createLiteral("Graphian"), graph2);
+        connection.commit();
+
+        // The same text in another language or in another graph is still a label of the entity
+        connection.remove(languages, RDFS.LABEL, vf.createLiteral("Parisian", "en"));
+        connection.remove(graphs, RDFS.LABEL, vf.createLiteral("Graphian"), graph1);
+        assertEquals(1, executeQueryAndGetResults(";parisian").size());
+        assertEquals(1, executeQueryAndGetResults(";graphian").size());
+
+        connection.remove(languages, RDFS.LABEL, vf.createLiteral("Parisian", "fr"));
+        connection.remove(graphs, RDFS.LABEL, vf.createLiteral("Graphian"), graph2);
+        assertEquals(0, executeQueryAndGetResults(";parisian").size());
+        assertEquals(0, executeQueryAndGetResults(";graphian").size());
+    }
+
     public void testValidSuggestions() throws Exception {
         List<String> results = executeQueryAndGetResults(";this");
         assertEquals(3, results.size());
@@ -1,6 +1,8 @@
 package com.ontotext.trree.plugin.autocomplete;
 
 import org.eclipse.rdf4j.OpenRDFException;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
 import org.eclipse.rdf4j.query.MalformedQueryException;
 import org.eclipse.rdf4j.query.QueryEvaluationException;
 import org.eclipse.rdf4j.repository.RepositoryException;
@@ -8,8 +10,14 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runners.Parameterized;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 /**
  * Created by desislava on 11/11/15.
  */
@@ -51,6 +59,47 @@ public class TestAutocompleteQueries extends AutocompletePluginTestBase {
         executeQueryAndVerifyResults("prefix:;", 2);
     }
 
+    @Test
+    public void shouldFilterByNamespaceAfterRestartAndRebuild() throws Exception {
+        connection.add(vf.createIRI("wine:WhiteBurgundy"), vf.createIRI("wine:madeFromGrape"), vf.createIRI("wine:ChardonnayGrape"));
+        executeQueryAndVerifyResults("wine:;Gr", 2);
+        executeQueryAndVerifyResults("beer:;Pa", 0);
+
+        // The namespaces keep their ids, new ones get the next ones
+        restartRepository();
+        connection.add(vf.createIRI("beer:PaleAle"), vf.createIRI("wine:madeFromGrape"), vf.createIRI("wine:GrenacheGrape"));
+        executeQueryAndVerifyResults("wine:;Gr", 3);
+        executeQueryAndVerifyResults("beer:;Pa", 1);
+
+        reindex();
+        executeQueryAndVerifyResults("wine:;Gr", 3);
+        executeQueryAndVerifyResults("beer:;Pa", 1);
+    }
+
+    @Test
+    public void shouldFilterByNamespacePrefix() throws Exception {
+        connection.add(vf.createIRI("http://data.example.org/geo/city/Sofia"), vf.createIRI("http://data.example.org/geo/locatedIn"),
+                vf.createIRI("http://data.example.org/geo/Bulgaria"));
+        connection.add(vf.createIRI("http://data.example.org/geo#Sofia"), vf.createIRI("http://data.example.org/people/bornIn"),
+                vf.createIRI("http://data.example.org/people/SofiaPetrova"));
+        connection.add(vf.createIRI("http://data.example.org/geography/Sofia"), vf.createIRI("http://data.example.org/people/bornIn"),
+                vf.createIRI("http://data.example.org/geographic/Bulgaria"));
+
+        executeQueryAndVerifyResults("http://data.example.org/geo/*;Sof", 1);
+        executeQueryAndVerifyResults("http://data.example.org/geo/*;Bul", 1);
+        executeQueryAndVerifyResults("http://data.example.org/geo/city/*;Sof", 1);
+        executeQueryAndVerifyResults("http://data.example.org/*;Sof", 4);
+        // Not a whole namespace, matches all namespaces that start with it
+        executeQueryAndVerifyResults("http://data.example.org/geo*;Sof", 3);
+        executeQueryAndVerifyResults("http://data.example.org/geog*;Bul", 1);
+        executeQueryAndVerifyResults("http://data.example.org/music/*;Sof", 0);
+
+        reindex();
+        executeQueryAndVerifyResults("http://data.example.org/geo/*;Sof", 1);
+        executeQueryAndVerifyResults("http://data.example.org/*;Sof", 4);
+        executeQueryAndVerifyResults("http://data.example.org/geo*;Sof", 3);
+    }
+
     @Test
     public void shouldAutocompleteWhenLocalNameCamelCase() throws RepositoryException, MalformedQueryException, QueryEvaluationException {
         connection.add(vf.createIRI("wine:WhiteBurgundy"), vf.createIRI("wine:madeFromGrape"), vf.createIRI("wine:ChardonnayGrape"));
@@ -88,6 +137,83 @@ public class TestAutocompleteQueries extends AutocompletePluginTestBase {
         executeQueryAndVerifyResults("wine1:;rg", 1);
     }
 
+    @Test
+    public void shouldLimitAndPageResults() throws RepositoryException, MalformedQueryException, QueryEvaluationException {
+        for (int i = 0; i < 5; i++) {
+            connection.add(vf.createIRI("page:abc" + i), vf.createIRI("page:p"), vf.createIRI("page:xyz" + i));
+        }
+        executeQueryAndVerifyResults("page:;abc", 5);
+        executeQueryAndVerifyResults("page:;abc;limit=2", 2);
+        executeQueryAndVerifyResults("abc;limit=3", 3);
+        executeQueryAndVerifyResults("page:;;limit=4", 4);
+
+        List<String> all = executeQueryAndGetResults("page:;abc");
+        List<String> firstPage = executeQueryAndGetResults("page:;abc;limit=2");
+        List<String> secondPage = executeQueryAndGetResults("page:;abc;limit=2;offset=2");
+        List<String> lastPage = executeQueryAndGetResults("page:;abc;offset=4;limit=2");
+        assertEquals(all.subList(0, 2), firstPage);
+        assertEquals(all.subList(2, 4), secondPage);
+        assertEquals(all.subList(4, 5), lastPage);
+        executeQueryAndVerifyResults("page:;abc;offset=5", 0);
+    }
+
+    @Test
+    public void shouldPageEntitiesMatchingByIriAndLabels() throws RepositoryException, MalformedQueryException, QueryEvaluationException {
+        // Every entity matches by its IRI and by two labels, three hits for one result
+        for (int i = 0; i < 5; i++) {
+            IRI entity = vf.createIRI("dup:pagex" + i);
+            connection.add(entity, RDFS.LABEL, vf.createLiteral("pagex label " + i));
+            connection.add(entity, RDFS.LABEL, vf.createLiteral("other pagex label " + i));
+        }
+        List<String> all = executeQueryWithoutHighlightAndGetResults(";pagex");
+        assertEquals(5, all.size());
+        assertEquals(5, new HashSet<>(all).size());
+
+        List<String> pages = new ArrayList<>();
+        for (int offset = 0; offset < 5; offset++) {
+            List<String> page = executeQueryWithoutHighlightAndGetResults(";pagex;offset=" + offset + ";limit=1");
+            assertEquals(1, page.size());
+            pages.addAll(page);
+        }
+        assertEquals(all, pages);
+        assertEquals(all.subList(2, 4), executeQueryWithoutHighlightAndGetResults(";pagex;offset=2;limit=2"));
+        assertEquals(all.subList(3, 5), executeQueryWithoutHighlightAndGetResults(";pagex;offset=3;limit=2;session=s1"));
+        List<String> highlighted = executeQueryAndGetResults(";pagex;offset=4;limit=1");
+        assertEquals(1, highlighted.size());
+        String highlight = highlighted.get(0).substring(highlighted.get(0).indexOf("; ") + 2);
+        assertEquals(Collections.singletonList(all.get(4) + "; ;pagex;offset=4;limit=1\n" + highlight),
+                executeBatchQueryAndGetResults(";pagex;offset=4;limit=1"));
+    }
+
+    @Test
+    public void shouldReturnSameEntitiesWithoutHighlight() throws RepositoryException, MalformedQueryException, QueryEvaluationException {
+        for (int i = 0; i < 5; i++) {
+            connection.add(vf.createIRI("page:abc" + i), vf.createIRI("page:p"), vf.createIRI("page:xyz" + i));
+        }
+        List<String> subjects = new ArrayList<>();
+        for (String result : executeQueryAndGetResults("page:;abc")) {
+            subjects.add(result.substring(0, result.indexOf("; ")));
+        }
+        List<String> results = executeQueryWithoutHighlightAndGetResults("page:;abc");
+        assertEquals(5, results.size());
+        assertEquals(new HashSet<>(subjects), new HashSet<>(results));
+        assertEquals(2, executeQueryWithoutHighlightAndGetResults("page:;abc;limit=2").size());
+    }
+
+    @Test
+    public void shouldAnswerBatchQuery() throws RepositoryException, MalformedQueryException, QueryEvaluationException {
+        connection.add(vf.createIRI("s:1"), vf.createIRI("p:1"), vf.createIRI("a:abcde"));
+        connection.add(vf.createIRI("s:1"), vf.createIRI("p:2"), vf.createIRI("b:abcab"));
+        List<String> results = executeBatchQueryAndGetResults("ab", "a:;abc", "zzz", "ab;limit=1");
+        assertEquals(4, results.size());
+        // Every result has the query line that found it and the highlighted text
+        assertTrue(results.toString(), results.contains("a:abcde; ab\na:<b>ab</b>cde"));
+        assertTrue(results.toString(), results.contains("b:abcab; ab\nb:<b>ab</b>cab"));
+        assertTrue(results.toString(), results.contains("a:abcde; a:;abc\na:<b>abc</b>de"));
+        // The limit applies to each query of the batch
+        assertTrue(results.toString(), results.get(3).contains("; ab;limit=1\n"));
+    }
+
     @Test
     public void shouldNotAutocompleteSpecialURIs() throws RepositoryException, MalformedQueryException, QueryEvaluationException {
         executeQueryAndVerifyResults("http://www.ontotext.com/;", 0);
@@ -0,0 +1,72 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.search.suggest.analyzing.AnalyzingInfixSuggester;
+import org.apache.lucene.search.suggest.analyzing.BlendedInfixSuggester;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the backend conformance tests against the default Lucene backend.
+ */
+public class TestAutocompleteSuggesterConformance extends AutocompleteBackendConformanceTest {
+    private Path dir;
+
+    @Override
+    AutocompleteBackend createBackend(Path dir, Analyzer analyzer) throws IOException {
+        this.dir = dir;
+        return new AutocompleteSuggester(FSDirectory.open(dir), analyzer, analyzer, AnalyzingInfixSuggester.DEFAULT_MIN_PREFIX_CHARS,
+                BlendedInfixSuggester.BlenderType.POSITION_LINEAR, 1, true);
+    }
+
+    @Test
+    public void testDeletedSuggestionsTakeNoSlotsAndAreExpunged() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            backend.add(new BytesRef("key" + i), new BytesRef("slotLabel" + i), null, 1000 - i, new BytesRef(new byte[] {(byte) i}));
+        }
+        backend.commit();
+        backend.refresh();
+
+        // The heaviest ones are deleted, as removed labels are
+        for (int i = 0; i < 50; i++) {
+            backend.delete(new BytesRef("key" + i));
+        }
+        backend.commit();
+        backend.refresh();
+        assertEquals(50, backend.getCount());
+        List<String> keys = new ArrayList<>();
+        for (Lookup.LookupResult result : backend.lookup("slot", null, 2)) {
+            keys.add(result.key.toString());
+        }
+        assertEquals(Arrays.asList("slotLabel50", "slotLabel51"), keys);
+
+        // Half of the index is deleted, the merge runs in the background and is durable after the next commit
+        backend.compactIfNeeded();
+        long deadline = System.currentTimeMillis() + 10_000;
+        int deleted;
+        while (true) {
+            backend.commit();
+            try (Directory directory = FSDirectory.open(dir); DirectoryReader reader = DirectoryReader.open(directory)) {
+                assertEquals(50, reader.numDocs());
+                deleted = reader.numDeletedDocs();
+            }
+            if (deleted == 0 || System.currentTimeMillis() > deadline) {
+                break;
+            }
+            Thread.sleep(50);
+        }
+        assertEquals(0, deleted);
+    }
+}
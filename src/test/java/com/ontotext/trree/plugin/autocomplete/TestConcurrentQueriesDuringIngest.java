@@ -0,0 +1,135 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.junit.Test;
+import org.junit.runners.Parameterized;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stress test that checks autocomplete queries are not stalled by concurrent ingestion of many small transactions
+ */
+public class TestConcurrentQueriesDuringIngest extends AutocompletePluginTestBase {
+    private static final Logger LOG = LoggerFactory.getLogger(TestConcurrentQueriesDuringIngest.class);
+
+    private static final String QUERY = "SELECT ?s ?g WHERE { GRAPH ?g { ?s <http://www.ontotext.com/plugins/autocomplete#query> \"http://dbpedia.org/resource/;Bulgaria\" . } }";
+
+    private static final int QUERY_THREADS = 4;
+    private static final int QUERIES_PER_THREAD = 250;
+    private static final int INGEST_TRANSACTIONS = 300;
+    private static final int ENTITIES_PER_TRANSACTION = 20;
+
+    // The p99 during ingest may be this many times the idle p99, plus the floor
+    private static final long MAX_P99_FACTOR = 20;
+    private static final long MIN_P99_BOUND = TimeUnit.MILLISECONDS.toNanos(250);
+
+    @Parameterized.Parameters(name = "useAskControl = {0}")
+    public static List<Object[]> getParams() {
+        return AutocompletePluginTestBase.getParams();
+    }
+
+    public TestConcurrentQueriesDuringIngest(boolean useAskControl) {
+        super(useAskControl);
+    }
+
+    @Test
+    public void testQueryLatencyDuringIngest() throws Exception {
+        importData("src/test/resources/import/bulgaria_uris.ttl", RDFFormat.TURTLE);
+        enablePlugin();
+        // Every query must be a lookup, otherwise the idle ones would be served from the cache
+        restartWithResultCacheSize(0);
+        assertTrue(getCacheStats(), getCacheStats().startsWith("disabled"));
+
+        long idleP99 = p99(runQueries(null));
+
+        AtomicBoolean ingesting = new AtomicBoolean(true);
+        ExecutorService ingestExecutor = Executors.newSingleThreadExecutor();
+        Future<?> ingest = ingestExecutor.submit(() -> {
+            try (RepositoryConnection ingestConnection = getRepository().getConnection()) {
+                for (int i = 0; i < INGEST_TRANSACTIONS; i++) {
+                    ingestConnection.begin();
+                    for (int j = 0; j < ENTITIES_PER_TRANSACTION; j++) {
+                        ingestConnection.add(vf.createIRI("urn:ingest:s" + i + "_" + j), vf.createIRI("urn:ingest:p"),
+                                vf.createIRI("urn:ingest:quuxian" + i + "_" + j));
+                    }
+                    ingestConnection.commit();
+                }
+            } finally {
+                ingesting.set(false);
+            }
+            return null;
+        });
+
+        List<Long> busyLatencies = runQueries(ingesting);
+        ingest.get();
+        ingestExecutor.shutdown();
+        assertTrue(ingestExecutor.awaitTermination(1, TimeUnit.MINUTES));
+
+        long busyP99 = p99(busyLatencies);
+        LOG.info("Query p99 idle: {} us, during ingest: {} us ({} queries)", idleP99 / 1000, busyP99 / 1000,
+                busyLatencies.size());
+        // Compared with the idle p99 of the same run so the bound follows the machine. The factor and the floor
+        // absorb the CPU taken by the ingest, a query that waits for the commits would take much longer.
+        assertTrue("Query p99 during ingest is too high: " + busyP99 + " ns vs idle " + idleP99 + " ns",
+                busyP99 <= MAX_P99_FACTOR * idleP99 + MIN_P99_BOUND);
+
+        // The ingested entities must be visible once done (100 is the maximum number of results)
+        executeQueryAndVerifyResults("urn:ingest:;quuxian", 100);
+    }
+
+    /**
+     * Runs queries from several threads. When a flag is given, the threads keep querying while it is set
+     * (but at least QUERIES_PER_THREAD times).
+     */
+    private List<Long> runQueries(AtomicBoolean whileSet) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(QUERY_THREADS);
+        List<Future<List<Long>>> futures = new ArrayList<>();
+        for (int i = 0; i < QUERY_THREADS; i++) {
+            futures.add(executor.submit(() -> {
+                List<Long> latencies = new ArrayList<>();
+                try (RepositoryConnection queryConnection = getRepository().getConnection()) {
+                    while (latencies.size() < QUERIES_PER_THREAD || (whileSet != null && whileSet.get())) {
+                        long start = System.nanoTime();
+                        int count = 0;
+                        try (TupleQueryResult result = queryConnection.prepareTupleQuery(QueryLanguage.SPARQL, QUERY).evaluate()) {
+                            while (result.hasNext()) {
+                                result.next();
+                                count++;
+                            }
+                        }
+                        latencies.add(System.nanoTime() - start);
+                        assertTrue(count > 0);
+                    }
+                }
+                return latencies;
+            }));
+        }
+
+        List<Long> allLatencies = new ArrayList<>();
+        for (Future<List<Long>> future : futures) {
+            allLatencies.addAll(future.get());
+        }
+        executor.shutdown();
+        return allLatencies;
+    }
+
+    private static long p99(List<Long> latencies) {
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        return sorted.get((int) Math.ceil(sorted.size() * 0.99) - 1);
+    }
+}
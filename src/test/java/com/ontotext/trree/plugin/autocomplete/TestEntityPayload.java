@@ -0,0 +1,76 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that payloads are decoded the same way in the current and in the legacy format
+ */
+public class TestEntityPayload {
+    private static final long[] IDS = {1, 127, 128, 12_345, 1L << 31, 1L << 40, Long.MAX_VALUE >>> 1};
+
+    @Test
+    public void testRoundTrip() {
+        BytesRefBuilder scratch = new BytesRefBuilder();
+        for (long id : IDS) {
+            for (boolean isLabel : new boolean[] {false, true}) {
+                BytesRef payload = EntityPayload.write(id, isLabel, scratch);
+                assertTrue(EntityPayload.hasEntity(payload));
+                assertEquals(id, EntityPayload.entityId(payload));
+                assertEquals(isLabel, EntityPayload.isLabel(payload));
+            }
+        }
+    }
+
+    @Test
+    public void testShorterThanLegacy() {
+        BytesRefBuilder scratch = new BytesRefBuilder();
+        assertEquals(4, EntityPayload.write(1_000_000, true, scratch).length);
+        assertEquals(6, EntityPayload.write(1L << 33, false, scratch).length);
+    }
+
+    @Test
+    public void testLegacy() {
+        for (long id : IDS) {
+            for (boolean isLabel : new boolean[] {false, true}) {
+                BytesRef payload = legacy(id, isLabel);
+                assertTrue(EntityPayload.hasEntity(payload));
+                assertEquals(id, EntityPayload.entityId(payload));
+                assertEquals(isLabel, EntityPayload.isLabel(payload));
+            }
+        }
+    }
+
+    @Test
+    public void testNoEntity() {
+        assertFalse(EntityPayload.hasEntity(new BytesRef()));
+        assertFalse(EntityPayload.hasEntity(new BytesRef(new byte[] {1, 2, 3}, 1, 0)));
+    }
+
+    @Test
+    public void testOffset() {
+        BytesRef written = EntityPayload.write(1L << 40, true, new BytesRefBuilder());
+        byte[] bytes = new byte[written.length + 4];
+        System.arraycopy(written.bytes, written.offset, bytes, 2, written.length);
+        BytesRef payload = new BytesRef(bytes, 2, written.length);
+        assertEquals(1L << 40, EntityPayload.entityId(payload));
+        assertTrue(EntityPayload.isLabel(payload));
+
+        byte[] legacyBytes = new byte[13];
+        System.arraycopy(legacy(12_345, false).bytes, 0, legacyBytes, 3, 9);
+        payload = new BytesRef(legacyBytes, 3, 9);
+        assertEquals(12_345, EntityPayload.entityId(payload));
+        assertFalse(EntityPayload.isLabel(payload));
+    }
+
+    private static BytesRef legacy(long id, boolean isLabel) {
+        return new BytesRef(ByteBuffer.allocate(Long.BYTES + 1).putLong(id).put((byte) (isLabel ? 1 : 0)).array());
+    }
+}
@@ -0,0 +1,83 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import com.ontotext.trree.plugin.autocomplete.lucene.LocalNameAnalyzer;
+import org.apache.lucene.analysis.Analyzer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the backend conformance tests against the FST backend, with the FST built again after every refresh as it is
+ * after an index build.
+ */
+public class TestFstBackendConformance extends AutocompleteBackendConformanceTest {
+    private static final long TIMEOUT = 10_000;
+
+    private Path dir;
+
+    @Override
+    AutocompleteBackend createBackend(Path dir, Analyzer analyzer) throws IOException {
+        this.dir = dir;
+        return new FstBackend(new TestAutocompleteSuggesterConformance().createBackend(dir, analyzer), analyzer,
+                FstBackend.getFstFile(dir));
+    }
+
+    @Override
+    void awaitRefreshed(AutocompleteBackend backend) throws Exception {
+        // No FST is built while there are no suggestions
+        FstBackend fstBackend = (FstBackend) backend;
+        fstBackend.rebuildFst();
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (!fstBackend.hasCurrentFst() && fstBackend.getCount() > 0) {
+            assertTrue("The FST was not built in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testChangesAreServedWithoutTheFstUntilTheNextBuild() throws Exception {
+        FstBackend fstBackend = (FstBackend) backend;
+        add(1, "riverMountain", 1000);
+        fstBackend.refresh();
+        awaitRefreshed(fstBackend);
+        assertTrue(fstBackend.hasCurrentFst());
+
+        add(2, "riverLake", 900);
+        fstBackend.refresh();
+        assertFalse(fstBackend.hasCurrentFst());
+        assertEquals(2, fstBackend.lookup("river", null, 10).size());
+
+        // Changes don't build the FST again, only the next index build does
+        Thread.sleep(200);
+        assertFalse(fstBackend.hasCurrentFst());
+    }
+
+    @Test
+    public void testFstIsSavedOutsideTheIndexDirectory() throws Exception {
+        FstBackend fstBackend = (FstBackend) backend;
+        add(1, "riverMountain", 1000);
+        fstBackend.commit();
+        fstBackend.refresh();
+        awaitRefreshed(fstBackend);
+
+        Path fstFile = FstBackend.getFstFile(dir);
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (!Files.exists(fstFile)) {
+            assertTrue("The FST was not saved in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertFalse(fstFile.startsWith(dir));
+
+        // The saved FST is loaded with the index
+        fstBackend.close();
+        backend = createBackend(dir, new LocalNameAnalyzer());
+        assertTrue(((FstBackend) backend).hasCurrentFst());
+        assertEquals(1, backend.lookup("river", null, 10).size());
+    }
+}
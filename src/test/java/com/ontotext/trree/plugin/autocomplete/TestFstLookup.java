@@ -0,0 +1,111 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import com.ontotext.trree.plugin.autocomplete.lucene.LocalNameAnalyzer;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.search.suggest.analyzing.AnalyzingInfixSuggester;
+import org.apache.lucene.search.suggest.analyzing.BlendedInfixSuggester;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Verifies that the FST backend returns the same suggestions as the Lucene index for plain prefix queries
+ */
+public class TestFstLookup {
+    private static final String[] TEXTS = {"riverMountain", "USRegion", "bulgaria river", "Mountain river of Bulgaria",
+            "regionalRiver", "river", "RiverRegion", "a b c d e f g h i j k l river", "Ivan Petrov", "mount"};
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private LocalNameAnalyzer analyzer;
+    private FSDirectory tempDir;
+    private AutocompleteSuggester suggester;
+
+    @Before
+    public void setUp() throws IOException {
+        analyzer = new LocalNameAnalyzer();
+        tempDir = FSDirectory.open(tmp.newFolder("temp").toPath());
+        suggester = new AutocompleteSuggester(FSDirectory.open(tmp.newFolder("index").toPath()), analyzer, analyzer,
+                AnalyzingInfixSuggester.DEFAULT_MIN_PREFIX_CHARS, BlendedInfixSuggester.BlenderType.POSITION_LINEAR, 1, true);
+        suggester.build(InputIterator.EMPTY);
+        for (int i = 0; i < TEXTS.length; i++) {
+            add(i, false, TEXTS[i], 1000 - 3 * i);
+            add(i, true, TEXTS[i].toLowerCase() + " label", 500 + i);
+        }
+        suggester.commit();
+        suggester.refresh();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        suggester.close();
+        tempDir.close();
+    }
+
+    @Test
+    public void testSameAsLucene() throws IOException {
+        FstLookup fst = buildFst();
+        for (String query : new String[] {"r", "ri", "river", "riverx", "reg", "region", "mo", "US", "us", "petr", "l", "zzz"}) {
+            for (int count : new int[] {1, 3, 100}) {
+                assertSameResults(query + ";" + count, suggester.lookup(query, false, count), fst.lookup(suggester, query, count));
+            }
+        }
+    }
+
+    @Test
+    public void testStoreAndLoad() throws IOException {
+        buildFst().store(tempDir, "index.fst");
+        FstLookup loaded = FstLookup.load(0, tempDir, "index.fst", analyzer);
+        assertSameResults("river", suggester.lookup("river", false, 10), loaded.lookup(suggester, "river", 10));
+    }
+
+    @Test
+    public void testNotPlainPrefixQuery() throws IOException {
+        FstLookup fst = buildFst();
+        // Several tokens, a complete token and too many results are served by Lucene
+        assertNull(fst.lookup(suggester, "river mou", 10));
+        assertNull(fst.lookup(suggester, "river ", 10));
+        assertNull(fst.lookup(suggester, "river", FstLookup.MAX_SURFACE_FORMS_PER_ANALYZED_FORM + 1));
+    }
+
+    private FstLookup buildFst() throws IOException {
+        try (AutocompleteBackend.Suggestions suggestions = suggester.suggestions()) {
+            return FstLookup.build(0, tempDir, analyzer, suggestions);
+        }
+    }
+
+    private void add(long id, boolean isLabel, String text, long weight) throws IOException {
+        BytesRef payload = new BytesRef(ByteBuffer.allocate(Long.BYTES + 1).putLong(id).put((byte) (isLabel ? 1 : 0)).array());
+        suggester.add(new BytesRef(id + ":" + isLabel), new BytesRef(text), Collections.emptySet(), weight, payload);
+    }
+
+    private static void assertSameResults(String message, List<Lookup.LookupResult> expected, List<Lookup.LookupResult> actual) {
+        List<Lookup.LookupResult> sorted = new ArrayList<>(actual);
+        sorted.sort(AutocompleteIndex.LOOKUP_RESULT_ORDER);
+        assertEquals(message, toStrings(expected), toStrings(sorted));
+    }
+
+    private static List<String> toStrings(List<Lookup.LookupResult> results) {
+        List<String> strings = new ArrayList<>();
+        for (Lookup.LookupResult result : results) {
+            strings.add(result.key + "|" + result.highlightKey + "|" + result.value + "|" + new BytesRef(result.payload.bytes,
+                    result.payload.offset, result.payload.length));
+        }
+        return strings;
+    }
+}
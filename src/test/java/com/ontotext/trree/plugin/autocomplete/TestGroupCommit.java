@@ -0,0 +1,146 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runners.Parameterized;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Verifies that updates committed in groups are visible right away and are not lost on rollback, restart or crash
+ */
+public class TestGroupCommit extends AutocompletePluginTestBase {
+    static {
+        System.setProperty("register-plugins", "com.ontotext.trree.plugin.faults.FaultsPlugin");
+    }
+
+    @Parameterized.Parameters(name = "useAskControl = {0}")
+    public static List<Object[]> getParams() {
+        return AutocompletePluginTestBase.getParams();
+    }
+
+    public TestGroupCommit(boolean useAskControl) {
+        super(useAskControl);
+    }
+
+    @Before
+    public void enableBeforePlugin() throws Exception {
+        enablePlugin();
+        // Long enough so that nothing is committed durably by the interval during the test
+        setCommitInterval(600_000);
+    }
+
+    @Test
+    public void testUpdatesAreVisibleBeforeDurableCommit() {
+        connection.add(vf.createIRI("s:1"), vf.createIRI("p:1"), vf.createIRI("a:abcde"));
+        executeQueryAndVerifyResults("ab", 1);
+        connection.add(vf.createIRI("s:1"), vf.createIRI("p:2"), vf.createIRI("b:abcab"));
+        executeQueryAndVerifyResults("ab", 2);
+    }
+
+    @Test
+    public void testRollbackKeepsPreviousTransactions() {
+        connection.add(vf.createIRI("s:1"), vf.createIRI("p:1"), vf.createIRI("a:abcde"));
+        connection.add(vf.createIRI("s:1"), vf.createIRI("p:2"), vf.createIRI("b:abcab"));
+        executeQueryAndVerifyResults("ab", 2);
+
+        try {
+            connection.begin();
+            connection.add(vf.createIRI("s:1"), vf.createIRI("p:1"), vf.createIRI("b:abckj"));
+            connection.add(vf.createIRI("urn:foo"), vf.createIRI("http://www.ontotext.com/graphdb/faults#throw"), vf.createLiteral(""));
+            connection.commit();
+            fail("Must fail by faults plugin.");
+        } catch (Exception e) {
+            connection.rollback();
+        }
+
+        // The aborted transaction never touched the index, the two committed ones are still visible
+        executeQueryAndVerifyResults("ab", 2);
+    }
+
+    @Test
+    public void testUpdatesSurviveRestart() {
+        // A clean shutdown commits the pending updates
+        connection.add(vf.createIRI("s:1"), vf.createIRI("p:1"), vf.createIRI("a:abcde"));
+        connection.add(vf.createIRI("s:1"), vf.createIRI("p:2"), vf.createIRI("b:abcab"));
+        restartRepository();
+        executeQueryAndVerifyResults("ab", 2);
+    }
+
+    @Test
+    public void testUncommittedUpdatesAreReplayedAfterCrash() throws Exception {
+        connection.add(vf.createIRI("s:1"), vf.createIRI("p:1"), vf.createIRI("a:abcde"));
+        connection.add(vf.createIRI("s:1"), vf.createIRI("p:2"), vf.createIRI("b:abcab"));
+        executeQueryAndVerifyResults("ab", 2);
+        Path pluginDir = getPluginDataDir();
+        assertTrue(Files.exists(pluginDir.resolve(AutocompleteIndex.UNCOMMITTED_LOG_FILE_NAME)));
+
+        // What a crash would leave on disk: the index as of the last durable commit, which was the build, and
+        // the log of the transactions after it. The repository itself is shut down cleanly.
+        Path crashImage = Files.createTempDirectory("autocomplete-crash");
+        try {
+            copyDirectory(pluginDir, crashImage);
+            connection.close();
+            getRepository().shutDown();
+            deleteDirectory(pluginDir);
+            copyDirectory(crashImage, pluginDir);
+            getRepository().initialize();
+            connection = getRepository().getConnection();
+        } finally {
+            deleteDirectory(crashImage);
+        }
+
+        executeQueryAndVerifyResults("ab", 2);
+        executeQueryAndVerifyResults("b:;abc", 1);
+    }
+
+    @Test
+    public void testCommitAfterMaxTransactions() throws Exception {
+        setCommitMaxTransactions(2);
+        Path uncommittedLog = getPluginDataDir().resolve(AutocompleteIndex.UNCOMMITTED_LOG_FILE_NAME);
+        connection.add(vf.createIRI("s:1"), vf.createIRI("p:1"), vf.createIRI("a:abcde"));
+        assertTrue(Files.exists(uncommittedLog));
+        // The second transaction reaches the limit, the index is committed durably and the log is cleared
+        connection.add(vf.createIRI("s:1"), vf.createIRI("p:2"), vf.createIRI("b:abcab"));
+        assertFalse(Files.exists(uncommittedLog));
+        connection.add(vf.createIRI("s:1"), vf.createIRI("p:3"), vf.createIRI("c:abxnl"));
+        assertTrue(Files.exists(uncommittedLog));
+        executeQueryAndVerifyResults("ab", 3);
+    }
+
+    private static void copyDirectory(Path source, Path target) throws IOException {
+        try (Stream<Path> files = Files.walk(source)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Path copy = target.resolve(source.relativize(file).toString());
+                if (Files.isDirectory(file)) {
+                    Files.createDirectories(copy);
+                } else {
+                    try {
+                        Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING);
+                    } catch (NoSuchFileException e) {
+                        // Deleted by a background merge, a file of the last commit is never deleted
+                    }
+                }
+            }
+        }
+    }
+
+    private static void deleteDirectory(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
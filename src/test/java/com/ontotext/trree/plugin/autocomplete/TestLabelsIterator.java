@@ -0,0 +1,151 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import com.ontotext.trree.sdk.Entities;
+import com.ontotext.trree.sdk.StatementIterator;
+import com.ontotext.trree.sdk.Statements;
+import org.apache.lucene.util.BytesRef;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Verifies that the label iterators of the partitions of a parallel build read every label statement once.
+ */
+public class TestLabelsIterator {
+    private static final long SUBJECTS = 10;
+    private static final long LABELS_PER_SUBJECT = 2;
+    private static final long LABEL_PREDICATE = 1000;
+
+    // Ids [1, SUBJECTS] are IRIs, the ids after them are their labels
+    private static final long SIZE = SUBJECTS + SUBJECTS * LABELS_PER_SUBJECT;
+
+    private int visitedStatements;
+
+    @Test
+    public void testPartitionsVisitEachLabelOnce() throws IOException {
+        Entities entities = mockEntities();
+        Statements statements = mockStatements();
+        AutocompleteIndex index = Mockito.mock(AutocompleteIndex.class);
+        LabelConfig labelConfig = new LabelConfig(RDFS.LABEL, LABEL_PREDICATE, "");
+
+        List<String> labels = new ArrayList<>();
+        int parallelism = 4;
+        long partitionSize = SIZE / parallelism + 1;
+        for (int i = 0; i < parallelism; i++) {
+            long firstId = i * partitionSize + 1;
+            long lastId = Math.min(firstId + partitionSize - 1, SIZE);
+            labels.addAll(readAll(new LabelsIterator(entities, statements, labelConfig, index, firstId, lastId)));
+        }
+
+        assertEquals(expectedLabels(), labels);
+        assertEquals(SUBJECTS * LABELS_PER_SUBJECT, visitedStatements);
+    }
+
+    @Test
+    public void testScanVisitsEachLabelOnce() throws IOException {
+        LabelConfig labelConfig = new LabelConfig(RDFS.LABEL, LABEL_PREDICATE, "");
+        List<String> labels = readAll(new LabelsIterator(mockEntities(), mockStatements(), labelConfig,
+                Mockito.mock(AutocompleteIndex.class)));
+
+        assertEquals(expectedLabels(), labels);
+        assertEquals(SUBJECTS * LABELS_PER_SUBJECT, visitedStatements);
+    }
+
+    private static List<String> readAll(LabelsIterator iterator) throws IOException {
+        List<String> labels = new ArrayList<>();
+        try {
+            BytesRef text;
+            while ((text = iterator.next()) != null) {
+                labels.add(text.utf8ToString());
+            }
+        } finally {
+            iterator.close();
+        }
+        return labels;
+    }
+
+    private static List<String> expectedLabels() {
+        List<String> labels = new ArrayList<>();
+        for (long subject = 1; subject <= SUBJECTS; subject++) {
+            for (long i = 0; i < LABELS_PER_SUBJECT; i++) {
+                labels.add("label " + labelId(subject, i));
+            }
+        }
+        return labels;
+    }
+
+    private static long labelId(long subject, long i) {
+        return SUBJECTS + (subject - 1) * LABELS_PER_SUBJECT + i + 1;
+    }
+
+    private static Entities mockEntities() {
+        return Mockito.mock(Entities.class, invocation -> {
+            switch (invocation.getMethod().getName()) {
+                case "size":
+                    return SIZE;
+                case "getType":
+                    return (long) invocation.getArguments()[0] <= SUBJECTS ? Entities.Type.URI : Entities.Type.LITERAL;
+                case "getLanguage":
+                    return null;
+                case "get":
+                    return SimpleValueFactory.getInstance().createLiteral("label " + invocation.getArguments()[0]);
+                default:
+                    throw new UnsupportedOperationException("Entities." + invocation.getMethod().getName());
+            }
+        });
+    }
+
+    /**
+     * Returns statements that count the label statements they return.
+     */
+    private Statements mockStatements() {
+        return Mockito.mock(Statements.class, invocation -> {
+            Object[] args = invocation.getArguments();
+            if (!"get".equals(invocation.getMethod().getName()) || args.length != 3 || (long) args[1] != LABEL_PREDICATE) {
+                throw new UnsupportedOperationException("Statements." + invocation.getMethod().getName());
+            }
+            long subject = (long) args[0];
+            return subject == 0 ? new LabelStatementIterator(1, SUBJECTS) : new LabelStatementIterator(subject, subject);
+        });
+    }
+
+    private class LabelStatementIterator extends StatementIterator {
+        private final long lastSubject;
+        private long nextSubject;
+        private long nextLabel;
+
+        LabelStatementIterator(long firstSubject, long lastSubject) {
+            this.nextSubject = firstSubject;
+            this.lastSubject = lastSubject;
+        }
+
+        @Override
+        public boolean next() {
+            if (nextLabel == LABELS_PER_SUBJECT) {
+                nextLabel = 0;
+                nextSubject++;
+            }
+            if (nextSubject > lastSubject) {
+                return false;
+            }
+            subject = nextSubject;
+            predicate = LABEL_PREDICATE;
+            object = labelId(nextSubject, nextLabel++);
+            context = 0;
+            visitedStatements++;
+            return true;
+        }
+
+        @Override
+        public void close() {
+            nextSubject = lastSubject + 1;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import com.ontotext.trree.plugin.autocomplete.lucene.LocalNameAnalyzer;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.analyzing.AnalyzingInfixSuggester;
+import org.apache.lucene.search.suggest.analyzing.BlendedInfixSuggester;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.NRTCachingDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that the settings of the Lucene index are read from the plugin config and applied to the index
+ */
+public class TestLuceneIndexSettings {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testDefaults() {
+        LuceneIndexSettings settings = AutocompletePluginUtils.luceneIndexSettingsFromProperties(new Properties());
+        assertSameSettings(LuceneIndexSettings.DEFAULT, settings);
+
+        // Invalid values fall back to the defaults
+        Properties properties = new Properties();
+        properties.setProperty(AutocompletePluginUtils.AUTOCOMPLETE_LUCENE_DIRECTORY_PROPERTY, "ram");
+        properties.setProperty(AutocompletePluginUtils.AUTOCOMPLETE_LUCENE_RAM_BUFFER_PROPERTY, "lots");
+        properties.setProperty(AutocompletePluginUtils.AUTOCOMPLETE_LUCENE_MERGE_POLICY_PROPERTY, "none");
+        assertSameSettings(LuceneIndexSettings.DEFAULT, AutocompletePluginUtils.luceneIndexSettingsFromProperties(properties));
+    }
+
+    @Test
+    public void testStoredInProperties() {
+        LuceneIndexSettings settings = new LuceneIndexSettings(LuceneIndexSettings.NRT_CACHING_DIRECTORY, 64, 1000,
+                LuceneIndexSettings.LOG_BYTE_SIZE_MERGE_POLICY, 512, false);
+        Properties properties = new Properties();
+        AutocompletePluginUtils.setLuceneIndexSettingsInProperties(properties, settings);
+        assertSameSettings(settings, AutocompletePluginUtils.luceneIndexSettingsFromProperties(properties));
+    }
+
+    @Test
+    public void testDirectoryType() throws IOException {
+        assertDirectory(MMapDirectory.class, LuceneIndexSettings.MMAP_DIRECTORY);
+        assertDirectory(NIOFSDirectory.class, LuceneIndexSettings.NIO_DIRECTORY);
+        assertDirectory(NRTCachingDirectory.class, LuceneIndexSettings.NRT_CACHING_DIRECTORY);
+    }
+
+    @Test
+    public void testIndexWithoutCompoundFiles() throws IOException {
+        LuceneIndexSettings settings = new LuceneIndexSettings(LuceneIndexSettings.NRT_CACHING_DIRECTORY, 1, 2,
+                LuceneIndexSettings.LOG_BYTE_SIZE_MERGE_POLICY, 1, false);
+        Path dir = tmp.newFolder("index").toPath();
+        LocalNameAnalyzer analyzer = new LocalNameAnalyzer();
+        try (AutocompleteSuggester suggester = new AutocompleteSuggester(settings.openDirectory(dir), analyzer, analyzer,
+                AnalyzingInfixSuggester.DEFAULT_MIN_PREFIX_CHARS, BlendedInfixSuggester.BlenderType.POSITION_LINEAR, 1,
+                true, settings)) {
+            suggester.build(InputIterator.EMPTY);
+            for (int i = 0; i < 10; i++) {
+                suggester.add(new BytesRef("key" + i), new BytesRef("river" + i), null, 100 + i, new BytesRef());
+            }
+            suggester.commit();
+            suggester.refresh();
+            assertEquals(10, suggester.lookup("river", false, 100).size());
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            assertFalse(files.anyMatch(file -> file.toString().endsWith(".cfs")));
+        }
+    }
+
+    private void assertDirectory(Class<? extends Directory> expected, String directoryType) throws IOException {
+        LuceneIndexSettings settings = new LuceneIndexSettings(directoryType, LuceneIndexSettings.DEFAULT_RAM_BUFFER_SIZE_MB,
+                0, LuceneIndexSettings.TIERED_MERGE_POLICY, LuceneIndexSettings.DEFAULT_MAX_MERGED_SEGMENT_MB, true);
+        try (Directory directory = settings.openDirectory(tmp.newFolder(directoryType).toPath())) {
+            assertTrue(directoryType, expected.isInstance(directory));
+        }
+    }
+
+    private static void assertSameSettings(LuceneIndexSettings expected, LuceneIndexSettings actual) {
+        assertEquals(expected.directoryType, actual.directoryType);
+        assertEquals(expected.ramBufferSizeMB, actual.ramBufferSizeMB);
+        assertEquals(expected.maxBufferedDocs, actual.maxBufferedDocs);
+        assertEquals(expected.mergePolicy, actual.mergePolicy);
+        assertEquals(expected.maxMergedSegmentMB, actual.maxMergedSegmentMB);
+        assertEquals(expected.useCompoundFile, actual.useCompoundFile);
+    }
+}
@@ -0,0 +1,136 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import org.apache.lucene.util.BytesRef;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Verifies that namespaces keep their ids when the dictionary is opened again, even after a crash while appending
+ */
+public class TestNamespaceDictionary {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testIdsSurviveReopening() throws IOException {
+        Path file = tmp.getRoot().toPath().resolve(NamespaceDictionary.FILE_NAME);
+        int geo;
+        int city;
+        try (NamespaceDictionary dictionary = NamespaceDictionary.open(file)) {
+            geo = dictionary.id("http://data.example.org/geo/");
+            city = dictionary.id("http://data.example.org/geo/city/");
+            assertEquals(geo, dictionary.id("http://data.example.org/geo/"));
+            assertNotEquals(geo, city);
+            assertEquals(0, dictionary.find("http://data.example.org/"));
+        }
+
+        try (NamespaceDictionary dictionary = NamespaceDictionary.open(file)) {
+            assertEquals(2, dictionary.size());
+            assertEquals(geo, dictionary.find("http://data.example.org/geo/"));
+            assertEquals(city, dictionary.find("http://data.example.org/geo/city/"));
+            int people = dictionary.id("http://data.example.org/people/");
+            assertNotEquals(geo, people);
+            assertNotEquals(city, people);
+        }
+    }
+
+    @Test
+    public void testPartialNamespaceIsDropped() throws IOException {
+        Path file = tmp.getRoot().toPath().resolve(NamespaceDictionary.FILE_NAME);
+        int geo;
+        try (NamespaceDictionary dictionary = NamespaceDictionary.open(file)) {
+            geo = dictionary.id("http://data.example.org/geo/");
+        }
+        // A crash in the middle of appending another namespace
+        Files.write(file, new byte[] {0, 0, 0, 20, 'h', 't'}, StandardOpenOption.APPEND);
+
+        try (NamespaceDictionary dictionary = NamespaceDictionary.open(file)) {
+            assertEquals(1, dictionary.size());
+            assertEquals(geo, dictionary.find("http://data.example.org/geo/"));
+            assertNotEquals(geo, dictionary.id("http://data.example.org/geo/city/"));
+        }
+        try (NamespaceDictionary dictionary = NamespaceDictionary.open(file)) {
+            assertEquals(2, dictionary.size());
+        }
+    }
+
+    @Test
+    public void testWithPrefix() throws IOException {
+        Path file = tmp.getRoot().toPath().resolve(NamespaceDictionary.FILE_NAME);
+        try (NamespaceDictionary dictionary = NamespaceDictionary.open(file)) {
+            dictionary.id("http://data.example.org/people/");
+            dictionary.id("http://data.example.org/geography/");
+            dictionary.id("http://data.example.org/geo/city/");
+            dictionary.id("http://data.example.org/geo/");
+            assertEquals(Arrays.asList("http://data.example.org/geo/", "http://data.example.org/geo/city/",
+                    "http://data.example.org/geography/"),
+                    Arrays.asList(dictionary.withPrefix("http://data.example.org/geo").keySet().toArray()));
+            assertEquals(Collections.singleton("http://data.example.org/people/"),
+                    dictionary.withPrefix("http://data.example.org/p").keySet());
+            assertEquals(0, dictionary.withPrefix("http://data.example.org/music/").size());
+        }
+    }
+
+    @Test
+    public void testContexts() throws IOException {
+        Path file = tmp.getRoot().toPath().resolve(NamespaceDictionary.FILE_NAME);
+        try (NamespaceDictionary dictionary = NamespaceDictionary.open(file)) {
+            Set<BytesRef> city = dictionary.contexts("http://data.example.org/geo/city/");
+            int cityId = dictionary.find("http://data.example.org/geo/city/");
+            int geoId = dictionary.find("http://data.example.org/geo/");
+            int rootId = dictionary.find("http://data.example.org/");
+            assertEquals(new HashSet<>(Arrays.asList(NamespaceDictionary.namespaceContext(cityId),
+                    NamespaceDictionary.subtreeContext(cityId), NamespaceDictionary.subtreeContext(geoId),
+                    NamespaceDictionary.subtreeContext(rootId))), city);
+            assertSame(city, dictionary.contexts("http://data.example.org/geo/city/"));
+
+            // The namespaces share the contexts of the ones above them
+            Set<BytesRef> geo = dictionary.contexts("http://data.example.org/geo/");
+            assertEquals(3, geo.size());
+            assertEquals(3, dictionary.size());
+            BytesRef rootSubtree = find(geo, NamespaceDictionary.subtreeContext(rootId));
+            assertSame(rootSubtree, find(city, rootSubtree));
+        }
+    }
+
+    private static BytesRef find(Set<BytesRef> contexts, BytesRef context) {
+        for (BytesRef candidate : contexts) {
+            if (candidate.equals(context)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testAncestors() {
+        assertEquals(Arrays.asList("http://data.example.org/", "http://data.example.org/geo/"),
+                NamespaceDictionary.ancestors("http://data.example.org/geo/city/"));
+        assertEquals(Arrays.asList("http://data.example.org/", "http://data.example.org/geo/"),
+                NamespaceDictionary.ancestors("http://data.example.org/geo/city#"));
+        assertEquals(Collections.singletonList("urn:"), NamespaceDictionary.ancestors("urn:isbn:"));
+        assertEquals(Collections.emptyList(), NamespaceDictionary.ancestors("http://data.example.org/"));
+        assertEquals(Collections.emptyList(), NamespaceDictionary.ancestors("wine:"));
+    }
+
+    @Test
+    public void testContextsDiffer() {
+        assertNotEquals(NamespaceDictionary.namespaceContext(1), NamespaceDictionary.subtreeContext(1));
+        assertNotEquals(NamespaceDictionary.subtreeContext(1), NamespaceDictionary.subtreeContext(300));
+        assertEquals(NamespaceDictionary.subtreeContext(300), NamespaceDictionary.subtreeContext(300));
+    }
+}
@@ -0,0 +1,50 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.junit.Test;
+import org.junit.runners.Parameterized;
+
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Verifies that building the index in several partitions produces the same suggestions as the sequential build.
+ */
+public class TestParallelIndexBuild extends AutocompletePluginTestBase {
+    @Parameterized.Parameters(name = "useAskControl = {0}")
+    public static List<Object[]> getParams() {
+        return AutocompletePluginTestBase.getParams();
+    }
+
+    public TestParallelIndexBuild(boolean useAskControl) {
+        super(useAskControl);
+    }
+
+    @Test
+    public void testParallelBuildMatchesSequentialBuild() throws Exception {
+        importData("src/test/resources/import/bulgaria_uris.ttl", RDFFormat.TURTLE);
+        connection.begin();
+        connection.add(vf.createIRI("urn:alpha"), RDFS.LABEL, vf.createLiteral("Quuxian alpha"));
+        connection.add(vf.createIRI("urn:beta"), RDFS.LABEL, vf.createLiteral("Quuxian beta"));
+        connection.commit();
+
+        setBuildParallelism(4);
+        enablePlugin();
+
+        List<String> parallelResults = executeQueryAndGetResults("http://dbpedia.org/resource/;Bulgaria");
+        assertEquals(100, parallelResults.size());
+        assertEquals("http://dbpedia.org/resource/Bulgaria; http://dbpedia.org/resource/<b>Bulgaria</b>", parallelResults.get(0));
+        List<String> parallelUnion = executeQueryAndGetResults(";union");
+        List<String> parallelLabels = executeQueryAndGetResults(";quuxian al");
+
+        setBuildParallelism(1);
+        reindex();
+
+        assertEquals(new HashSet<>(executeQueryAndGetResults(";union")), new HashSet<>(parallelUnion));
+        assertEquals(new HashSet<>(executeQueryAndGetResults(";quuxian al")), new HashSet<>(parallelLabels));
+        assertEquals(1, parallelLabels.size());
+    }
+}
@@ -0,0 +1,55 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.junit.Test;
+import org.junit.runners.Parameterized;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Verifies that the previous index keeps serving lookups while the index is rebuilt
+ * and that entities added during the rebuild end up in the new index.
+ */
+public class TestQueriesWhileRebuilding extends AutocompletePluginTestBase {
+    @Parameterized.Parameters(name = "useAskControl = {0}")
+    public static List<Object[]> getParams() {
+        return AutocompletePluginTestBase.getParams();
+    }
+
+    public TestQueriesWhileRebuilding(boolean useAskControl) {
+        super(useAskControl);
+    }
+
+    @Test
+    public void testQueriesDuringRebuild() throws Exception {
+        importData("src/test/resources/import/bulgaria_uris.ttl", RDFFormat.TURTLE);
+        enablePlugin();
+        executeQueryAndVerifyResults("http://dbpedia.org/resource/;Bulgaria", 100);
+
+        startReindex();
+        // Whether the rebuild is still running or has just finished we must always get results
+        executeQueryAndVerifyResults("http://dbpedia.org/resource/;Bulgaria", 100);
+        connection.add(vf.createIRI("prefix:ala"), vf.createIRI("prefix:bala"), vf.createIRI("prefix:ontotext"));
+        executeQueryAndVerifyResults("http://dbpedia.org/resource/;Bulgaria", 100);
+
+        while (!getPluginStatus().startsWith(IndexStatus.READY.toString())) {
+            Thread.sleep(1000L);
+        }
+        connection.add(vf.createIRI("prefix:ala1"), vf.createIRI("prefix:bala1"), vf.createIRI("prefix:ontotext1"));
+        executeQueryAndVerifyResults("http://dbpedia.org/resource/;Bulgaria", 100);
+        executeQueryAndVerifyResults("prefix:;ala", 2);
+    }
+
+    @Test
+    public void testRebuiltIndexSurvivesRestart() throws Exception {
+        importData("src/test/resources/import/bulgaria_uris.ttl", RDFFormat.TURTLE);
+        enablePlugin();
+        reindex();
+        reindex();
+        restartRepository();
+        assertEquals(IndexStatus.READY.name(), getPluginStatus());
+        executeQueryAndVerifyResults("http://dbpedia.org/resource/;Bulgaria", 100);
+    }
+}
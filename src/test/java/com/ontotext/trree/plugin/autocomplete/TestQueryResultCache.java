@@ -0,0 +1,53 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runners.Parameterized;
+
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that repeated queries are served from the result cache and that index updates invalidate it
+ */
+public class TestQueryResultCache extends AutocompletePluginTestBase {
+    @Parameterized.Parameters(name = "useAskControl = {0}")
+    public static List<Object[]> getParams() {
+        return AutocompletePluginTestBase.getParams();
+    }
+
+    public TestQueryResultCache(boolean useAskControl) {
+        super(useAskControl);
+    }
+
+    @Before
+    public void enableBeforePlugin() throws Exception {
+        enablePlugin();
+    }
+
+    @Test
+    public void testRepeatedQueryIsCached() throws Exception {
+        connection.add(vf.createIRI("s:1"), vf.createIRI("p:1"), vf.createIRI("a:abcde"));
+        executeQueryAndVerifyResults("ab", 1);
+        assertTrue(getCacheStats(), getCacheStats().startsWith("hits=0, misses=1,"));
+        executeQueryAndVerifyResults("ab", 1);
+        assertTrue(getCacheStats(), getCacheStats().startsWith("hits=1, misses=1,"));
+        // Different limit, different entry
+        executeQueryAndVerifyResults("ab;limit=1", 1);
+        assertTrue(getCacheStats(), getCacheStats().startsWith("hits=1, misses=2,"));
+    }
+
+    @Test
+    public void testUpdatesInvalidateCache() throws Exception {
+        connection.add(vf.createIRI("s:1"), vf.createIRI("p:1"), vf.createIRI("a:abcde"));
+        executeQueryAndVerifyResults("ab", 1);
+        connection.add(vf.createIRI("s:1"), vf.createIRI("p:2"), vf.createIRI("b:abcab"));
+        executeQueryAndVerifyResults("ab", 2);
+        connection.add(vf.createIRI("s:1"), vf.createIRI("p:3"), vf.createIRI("c:abxyz"));
+        executeQueryAndVerifyResults("ab", 3);
+        reindex();
+        executeQueryAndVerifyResults("ab", 3);
+        assertTrue(getCacheStats(), getCacheStats().startsWith("hits=0,"));
+    }
+}
@@ -0,0 +1,96 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import com.ontotext.trree.sdk.Entities;
+import com.ontotext.trree.sdk.RDFRankProvider;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that a saved rank snapshot is loaded back and that a damaged one is rejected before it's allocated
+ */
+public class TestRankSnapshot {
+    private static final long SIZE = 100;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testStoreAndLoad() throws IOException {
+        Path file = store();
+        RankSnapshot snapshot = RankSnapshot.load(file, SIZE);
+        assertNotNull(snapshot);
+        for (long id = 1; id <= SIZE; id++) {
+            assertTrue(snapshot.contains(id));
+            assertEquals(rank(id), snapshot.rank(id), 1e-6);
+        }
+        assertFalse(snapshot.contains(SIZE + 1));
+
+        // The repository may have grown since
+        assertNotNull(RankSnapshot.load(file, SIZE * 2));
+    }
+
+    @Test
+    public void testMoreEntitiesThanTheRepository() throws IOException {
+        assertNull(RankSnapshot.load(store(), SIZE - 1));
+    }
+
+    @Test
+    public void testDamaged() throws IOException {
+        Path file = store();
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(file, bytes);
+        assertNull(RankSnapshot.load(file, SIZE));
+
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 10));
+        assertNull(RankSnapshot.load(file, SIZE));
+    }
+
+    @Test
+    public void testHugeMaxIdIsNotAllocated() throws IOException {
+        Path file = tmp.getRoot().toPath().resolve(RankSnapshot.FILE_NAME);
+        try (DataOutputStream output = new DataOutputStream(Files.newOutputStream(file))) {
+            output.write(Files.readAllBytes(store()), 0, Integer.BYTES * 2);
+            output.writeLong(Long.MAX_VALUE >> 3);
+        }
+        assertNull(RankSnapshot.load(file, Long.MAX_VALUE));
+    }
+
+    private Path store() throws IOException {
+        Entities entities = Mockito.mock(Entities.class, invocation -> {
+            switch (invocation.getMethod().getName()) {
+                case "size":
+                    return SIZE;
+                case "getType":
+                    return Entities.Type.URI;
+                default:
+                    throw new UnsupportedOperationException("Entities." + invocation.getMethod().getName());
+            }
+        });
+        RDFRankProvider provider = Mockito.mock(RDFRankProvider.class);
+        Mockito.when(provider.getNormalizedRank(Mockito.anyLong()))
+                .then(invocation -> rank((Long) invocation.getArguments()[0]));
+
+        Path file = tmp.getRoot().toPath().resolve("stored-" + RankSnapshot.FILE_NAME);
+        RankSnapshot.create(entities, provider).store(file);
+        return file;
+    }
+
+    private static double rank(long id) {
+        return id / (double) SIZE;
+    }
+}
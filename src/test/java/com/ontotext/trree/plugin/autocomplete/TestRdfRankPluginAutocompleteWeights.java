@@ -31,17 +31,21 @@ public class TestRdfRankPluginAutocompleteWeights extends AutocompletePluginTest
 
     private void init(boolean useRank) throws Exception {
         if (useRank) {
-            // compute RDF ranks using RDF rank plugin
-            connection.begin();
-            connection.prepareUpdate("INSERT DATA { _:b1 <http://www.ontotext.com/owlim/RDFRank#compute> _:b2. }").execute();
-            connection.commit();
-            waitForRankStatus("COMPUTED");
+            computeRanks();
         }
 
         // enable autocomplete plugin which should discover RDF Rank plugin dependency
         enablePlugin();
     }
 
+    private void computeRanks() throws Exception {
+        // compute RDF ranks using RDF rank plugin
+        connection.begin();
+        connection.prepareUpdate("INSERT DATA { _:b1 <http://www.ontotext.com/owlim/RDFRank#compute> _:b2. }").execute();
+        connection.commit();
+        waitForRankStatus("COMPUTED");
+    }
+
     @Test
     public void shouldUseRdfRankForTheReturnedCompletions() throws Exception {
         init(true);
@@ -68,4 +72,22 @@ public class TestRdfRankPluginAutocompleteWeights extends AutocompletePluginTest
         assertEquals("http://www.w3.org/TR/2003/PR-owl-guide-20031209/wine#RedWine; http://www.w3.org/TR/2003/PR-owl-guide-20031209/wine#<b>Re</b>dWine", results.get(2));
         assertEquals("http://www.w3.org/TR/2003/PR-owl-guide-20031209/wine#RedBurgundy; http://www.w3.org/TR/2003/PR-owl-guide-20031209/wine#<b>Re</b>dBurgundy", results.get(3));
     }
+
+    @Test
+    public void shouldUseRecomputedRdfRankAfterReweighting() throws Exception {
+        init(false);
+        computeRanks();
+
+        // The index keeps the weights it was built with until they are refreshed
+        List<String> results = executeQueryAndGetResults("http://www.w3.org/TR/2003/PR-owl-guide-20031209/wine#;Re");
+        assertEquals("http://www.w3.org/TR/2003/PR-owl-guide-20031209/wine#Red; http://www.w3.org/TR/2003/PR-owl-guide-20031209/wine#<b>Re</b>d", results.get(0));
+
+        reweight();
+
+        results = executeQueryAndGetResults("http://www.w3.org/TR/2003/PR-owl-guide-20031209/wine#;Re");
+        assertEquals("http://www.w3.org/TR/2003/PR-owl-guide-20031209/wine#Region; http://www.w3.org/TR/2003/PR-owl-guide-20031209/wine#<b>Re</b>gion", results.get(0));
+        assertEquals("http://www.w3.org/TR/2003/PR-owl-guide-20031209/wine#Red; http://www.w3.org/TR/2003/PR-owl-guide-20031209/wine#<b>Re</b>d", results.get(1));
+        assertEquals("http://www.w3.org/TR/2003/PR-owl-guide-20031209/wine#RedWine; http://www.w3.org/TR/2003/PR-owl-guide-20031209/wine#<b>Re</b>dWine", results.get(2));
+        assertEquals("http://www.w3.org/TR/2003/PR-owl-guide-20031209/wine#FrenchRegion; http://www.w3.org/TR/2003/PR-owl-guide-20031209/wine#French<b>Re</b>gion", results.get(3));
+    }
 }
@@ -6,6 +6,8 @@ import org.junit.runners.Parameterized;
 
 import java.util.List;
 
+import static org.junit.Assert.assertEquals;
+
 /**
  * Created by desislava on 14.11.16.
  */
@@ -32,4 +34,14 @@ public class TestRebuildAutocompleteIndex extends AutocompletePluginTestBase {
         executeQueryAndVerifyResults("a:;abc", 1);
     }
 
+    @Test
+    public void testFirstTransactionAfterReindexAddsNoDuplicates() throws Exception {
+        reindex();
+        long documents = getIndexedDocuments();
+        // The first commit after a rebuild also indexes the entities added since the build started
+        connection.add(vf.createIRI("s:2"), vf.createIRI("p:2"), vf.createIRI("a:abcxy"));
+        assertEquals(documents + 3, getIndexedDocuments());
+        executeQueryAndVerifyResults("a:;abc", 2);
+    }
+
 }
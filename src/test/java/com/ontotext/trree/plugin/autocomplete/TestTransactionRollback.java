@@ -1,5 +1,6 @@
 package com.ontotext.trree.plugin.autocomplete;
 
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runners.Parameterized;
@@ -59,4 +60,25 @@ public class TestTransactionRollback extends AutocompletePluginTestBase {
         connection.rollback();
         executeQueryAndVerifyResults("ab", 3);
     }
+
+    @Test
+    public void testRollbackOfLabelRemoval() {
+        connection.add(vf.createIRI("urn:alpha"), RDFS.LABEL, vf.createLiteral("This is alpha!"));
+        connection.add(vf.createIRI("urn:beta"), RDFS.LABEL, vf.createLiteral("This is beta!"));
+        executeQueryAndVerifyResults(";this", 2);
+
+        try {
+            connection.begin();
+            connection.remove(vf.createIRI("urn:beta"), RDFS.LABEL, null);
+            connection.add(vf.createIRI("urn:gamma"), RDFS.LABEL, vf.createLiteral("This is gamma!"));
+            connection.add(vf.createIRI("urn:foo"), vf.createIRI("http://www.ontotext.com/graphdb/faults#throw"), vf.createLiteral(""));
+            connection.commit();
+            fail("Must fail by faults plugin.");
+        } catch (Exception e) {
+            connection.rollback();
+        }
+
+        // Neither the removal nor the addition may reach the index
+        executeQueryAndVerifyResults(";this", 2);
+    }
 }
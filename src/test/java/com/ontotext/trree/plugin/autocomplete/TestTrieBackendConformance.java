@@ -0,0 +1,16 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import org.apache.lucene.analysis.Analyzer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Runs the backend conformance tests against the trie backend.
+ */
+public class TestTrieBackendConformance extends AutocompleteBackendConformanceTest {
+    @Override
+    AutocompleteBackend createBackend(Path dir, Analyzer analyzer) throws IOException {
+        return new TrieBackend(dir, analyzer);
+    }
+}
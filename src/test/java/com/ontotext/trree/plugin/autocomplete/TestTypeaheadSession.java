@@ -0,0 +1,81 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that queries refined within a typeahead session return the same results as standalone queries
+ */
+public class TestTypeaheadSession extends AutocompletePluginTestBase {
+    private static final List<String> KEYSTROKES = Arrays.asList("ri", "riv", "rive", "river", "riverM", "riverMo",
+            "riverMou", "riverMoun", "riverMo", "river m", "river mo");
+    private static final Pattern REFINED_PATTERN = Pattern.compile("refined=(\\d+)");
+
+    @Parameterized.Parameters(name = "useAskControl = {0}")
+    public static List<Object[]> getParams() {
+        return AutocompletePluginTestBase.getParams();
+    }
+
+    public TestTypeaheadSession(boolean useAskControl) {
+        super(useAskControl);
+    }
+
+    @Before
+    public void enableBeforePlugin() throws Exception {
+        enablePlugin();
+        connection.add(vf.createIRI("wine:RiverMountain"), vf.createIRI("wine:hasRiverMouth"), vf.createIRI("wine:RiverSide"));
+        connection.add(vf.createIRI("wine:rivalry"), RDFS.LABEL, vf.createLiteral("The river mouth"));
+        connection.add(vf.createIRI("wine:MountainRiver"), RDFS.LABEL, vf.createLiteral("River mountains"));
+    }
+
+    @Test
+    public void testSessionReturnsSameResults() throws Exception {
+        List<List<String>> expected = new ArrayList<>();
+        for (String keystroke : KEYSTROKES) {
+            expected.add(executeQueryAndGetResults(keystroke + ";limit=3"));
+        }
+        // Drop the cached results so the session queries are really evaluated
+        connection.add(vf.createIRI("other:s"), vf.createIRI("other:p"), vf.createIRI("other:o"));
+
+        long refined = getRefinedLookups();
+        for (int i = 0; i < KEYSTROKES.size(); i++) {
+            assertEquals(KEYSTROKES.get(i), expected.get(i), executeQueryAndGetResults(KEYSTROKES.get(i) + ";limit=3;session=s1"));
+        }
+        // "riv" to "riverMoun" narrow the previous keystroke and are found among its matches, without a search
+        assertTrue(getCacheStats(), getRefinedLookups() - refined >= 7);
+    }
+
+    @Test
+    public void testQueriesWithoutSessionAreNotRefined() throws Exception {
+        long refined = getRefinedLookups();
+        for (String keystroke : KEYSTROKES) {
+            executeQueryAndGetResults(keystroke + ";limit=3");
+        }
+        assertEquals(refined, getRefinedLookups());
+    }
+
+    private long getRefinedLookups() throws Exception {
+        Matcher matcher = REFINED_PATTERN.matcher(getCacheStats());
+        assertTrue(matcher.find());
+        return Long.parseLong(matcher.group(1));
+    }
+
+    @Test
+    public void testSessionSeesUpdates() throws Exception {
+        executeQueryAndVerifyResults("riv;session=s2", 5);
+        connection.add(vf.createIRI("wine:RiverNew"), vf.createIRI("wine:p"), vf.createIRI("wine:o"));
+        executeQueryAndVerifyResults("rive;session=s2", 6);
+        executeQueryAndVerifyResults("riverN;session=s2", 1);
+    }
+}
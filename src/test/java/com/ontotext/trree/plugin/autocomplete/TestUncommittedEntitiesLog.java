@@ -0,0 +1,57 @@
+package com.ontotext.trree.plugin.autocomplete;
+
+import gnu.trove.TLongHashSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that the ids in the uncommitted log are read back after it was not closed, even after a crash while appending
+ */
+public class TestUncommittedEntitiesLog {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testIdsAreReadAfterCrash() throws IOException {
+        Path file = tmp.getRoot().toPath().resolve(AutocompleteIndex.UNCOMMITTED_LOG_FILE_NAME);
+        UncommittedEntitiesLog log = new UncommittedEntitiesLog(file);
+        log.append(ids(1, 2, 3));
+        log.append(ids(3, 1L << 40));
+        // Never closed, as after a crash, and a partial id from a transaction that did not complete
+        Files.write(file, new byte[] {0, 0, 0, 7}, StandardOpenOption.APPEND);
+
+        TLongHashSet read = new UncommittedEntitiesLog(file).read();
+        assertEquals(ids(1, 2, 3, 1L << 40), read);
+    }
+
+    @Test
+    public void testClear() throws IOException {
+        Path file = tmp.getRoot().toPath().resolve(AutocompleteIndex.UNCOMMITTED_LOG_FILE_NAME);
+        try (UncommittedEntitiesLog log = new UncommittedEntitiesLog(file)) {
+            assertTrue(log.read().isEmpty());
+            log.append(ids(5));
+            assertTrue(Files.exists(file));
+            log.clear();
+            assertFalse(Files.exists(file));
+            assertTrue(log.read().isEmpty());
+            log.append(ids(6));
+            assertEquals(ids(6), log.read());
+        }
+    }
+
+    private static TLongHashSet ids(long... ids) {
+        TLongHashSet set = new TLongHashSet();
+        set.addAll(ids);
+        return set;
+    }
+}
@@ -55,4 +55,23 @@ public class TestUpdatedWhileBuilding extends AutocompletePluginTestBase {
         executeQueryAndVerifyResults("prefix:;ala", 20);
     }
 
+    @Test
+    public void testUpdatesAroundTheSwapAreIndexedByTheirTransactions() throws Exception {
+        importData("src/test/resources/import/bulgaria_uris.ttl", RDFFormat.TURTLE);
+        setEnablePlugin(true);
+        // Keep committing until the build is done, the last ones are committed around the swap
+        int added = 0;
+        while (!getPluginStatus().startsWith(IndexStatus.READY.toString())) {
+            connection.begin();
+            connection.add(vf.createIRI("prefix:late" + String.format("%06d", added)), vf.createIRI("prefix:p"),
+                    vf.createIRI("prefix:o"));
+            connection.commit();
+            added++;
+        }
+        // No other transaction follows, the last ones must not wait for one to be indexed
+        for (int i = Math.max(0, added - 20); i < added; i++) {
+            executeQueryAndVerifyResults("prefix:;late" + String.format("%06d", i), 1);
+        }
+    }
+
 }
@@ -10,6 +10,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 
 /**
  * Created by Pavel Mihaylov on 09/10/2017.
@@ -25,10 +26,27 @@ public class TestLocalNameTokenizer {
         assertArrayEquals(new String[] {"USSR:0,4"}, getTokens("USSR"));
     }
 
+    @Test
+    public void testReusedTokenizer() throws IOException {
+        LocalNameTokenizer tokenizer = new LocalNameTokenizer();
+        StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            longValue.append("Part");
+        }
+        assertEquals(300, getTokens(tokenizer, longValue.toString()).length);
+        assertArrayEquals(new String[] {"US:0,2", "Region:2,8"}, getTokens(tokenizer, "USRegion"));
+        assertArrayEquals(new String[] {"a:0,1"}, getTokens(tokenizer, "a"));
+        assertArrayEquals(new String[0], getTokens(tokenizer, ""));
+        assertArrayEquals(new String[] {"Ivan:0,4", "Petrov:4,10"}, getTokens(tokenizer, "IvanPetrov"));
+    }
+
     private String[] getTokens(String input) throws IOException {
+        return getTokens(new LocalNameTokenizer(), input);
+    }
+
+    private String[] getTokens(LocalNameTokenizer tokenizer, String input) throws IOException {
         List<String> result = new ArrayList<>();
 
-        LocalNameTokenizer tokenizer = new LocalNameTokenizer();
         OffsetAttribute offsetAttribute = tokenizer.getAttribute(OffsetAttribute.class);
         CharTermAttribute termAttribute = tokenizer.getAttribute(CharTermAttribute.class);
         tokenizer.setReader(new StringReader(input));
@@ -42,6 +60,7 @@ public class TestLocalNameTokenizer {
             result.add(termWithOffset);
         }
 
+        tokenizer.end();
         tokenizer.close();
 
         return result.toArray(new String[result.size()]);